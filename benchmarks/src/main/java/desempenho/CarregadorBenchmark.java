@@ -0,0 +1,98 @@
+package desempenho;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comercio.Inventario;
+import menu.CarregadorHnt;
+import menu.GeradorDados;
+
+/**
+ * Carregar os ficheiros .hnt (o que Main.lerProdutos/lerCupoes/lerCartoes
+ * faziam, hoje no CarregadorHnt) para um inventário vazio.
+ *
+ * Os ficheiros são gerados numa pasta temporária no início, pelo
+ * GeradorDados (o gerador dos testes de carga, com a semente dos
+ * cenários), e ficam na cache do sistema operativo: mede-se a leitura e
+ * a conversão, não o disco.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CarregadorBenchmark {
+
+    @Param({"1000", "100000"})
+    public int tamanhoCatalogo;
+
+    @Param({"10000"})
+    public int cartoes;
+
+    @Param({"10"})
+    public int tamanhoCarteira;
+
+    /** Cupões nos ficheiros (de todos os tipos) */
+    private static final int CUPOES = 1000;
+
+    private Path pasta;
+
+    @Setup
+    public void preparar() throws IOException {
+        pasta = Files.createTempDirectory("hnt-bench");
+        GeradorDados g = new GeradorDados(Cenario.SEMENTE);
+        g.setProdutos(tamanhoCatalogo);
+        g.setMarcas(Cenario.MARCAS);
+        g.setEnviesamento(0);
+        g.setCupoes(CUPOES);
+        g.setMistura(1 / 3.0, 1 / 3.0);
+        g.setCobertura(Math.max(10, tamanhoCatalogo / 100));
+        g.setInicio(-7, -7);
+        g.setDuracao(14, 14);
+        g.setCartoes(cartoes);
+        g.setCarteira(tamanhoCarteira, tamanhoCarteira);
+        g.setTransacoes(0);
+        g.gerar(pasta);
+    }
+
+    @TearDown
+    public void apagar() throws IOException {
+        try (Stream<Path> s = Files.walk(pasta)) {
+            for (Path p : (Iterable<Path>) s.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public Inventario lerProdutos() throws IOException {
+        Inventario inv = new Inventario();
+        CarregadorHnt.lerProdutos(inv, pasta.resolve("produtos.hnt"));
+        return inv;
+    }
+
+    /** Os três ficheiros, como no arranque (CarregadorHnt.carregar()) */
+    @Benchmark
+    public List<String> carregar() throws IOException {
+        return CarregadorHnt.carregar(new Inventario(), pasta.resolve("produtos.hnt"),
+            pasta.resolve("cupoes.hnt"), pasta.resolve("cartoes.hnt"));
+    }
+}
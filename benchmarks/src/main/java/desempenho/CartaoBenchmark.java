@@ -0,0 +1,92 @@
+package desempenho;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import comercio.Venda;
+
+/**
+ * Cartao.usar(): aplicar os cupões ativos de uma carteira a uma venda.
+ *
+ * usar() altera o cartão (remove os cupões usados, desativa-o) e a venda
+ * (marca os cupões nas linhas), por isso cada chamada precisa de um cartão
+ * ativo e de uma venda novos. Preparar um par por chamada
+ * (Level.Invocation) custa ao JMH duas leituras do relógio por chamada,
+ * da mesma ordem que o próprio usar(): em vez disso, cada iteração
+ * prepara PARES pares de uma vez (Level.Iteration) e mede exatamente
+ * PARES chamadas (SingleShotTime com batchSize), uma por par. O resultado
+ * é o tempo médio de uma chamada.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = CartaoBenchmark.PARES)
+@Measurement(iterations = 20, batchSize = CartaoBenchmark.PARES)
+@Fork(1)
+public class CartaoBenchmark {
+
+    /** Chamadas a usar() por iteração (e pares preparados) */
+    static final int PARES = 10_000;
+
+    @Param({"1000", "100000"})
+    public int tamanhoCatalogo;
+
+    @Param({"10", "200"})
+    public int tamanhoCarteira;
+
+    @Param({"5", "50"})
+    public int tamanhoCesto;
+
+    /** Ver Cenario.Mistura */
+    @Param({"PRODUTOS", "MARCA", "COMPRA", "MISTA"})
+    public String mistura;
+
+    private Cenario cenario;
+    private List<Cupao> carteira;
+    private String[][] cestos;
+
+    private final Cartao[] cartoes = new Cartao[PARES];
+    private final Venda[] vendas = new Venda[PARES];
+    private int proximo;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        cenario = new Cenario(tamanhoCatalogo);
+        carteira = cenario.cupoes(tamanhoCarteira, Cenario.Mistura.valueOf(mistura));
+        cestos = cenario.cestos(tamanhoCesto);
+    }
+
+    @Setup(Level.Iteration)
+    public void novasVendas() {
+        for (int i = 0; i < PARES; i++) {
+            cartoes[i] = Cenario.cartao("10101", carteira);
+            cartoes[i].ativar(carteira);
+            vendas[i] = cenario.venda(cestos[i % cestos.length]);
+        }
+        proximo = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARES)
+    public long usar() {
+        Cartao cartao = cartoes[proximo];
+        cartao.usar(vendas[proximo++], Cenario.CONTEXTO);
+        return cartao.getSaldo();
+    }
+}
@@ -0,0 +1,181 @@
+package desempenho;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cliente.Cartao;
+import cliente.ContextoAvaliacao;
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+import comercio.Inventario;
+import comercio.ProdutoInfo;
+import comercio.Venda;
+
+/**
+ * Dados sintéticos dos benchmarks: um inventário com um catálogo de N
+ * produtos, carteiras de cupões e cestos de compras.
+ *
+ * Tudo é gerado a partir de uma semente fixa: o mesmo cenário dá sempre
+ * os mesmos produtos, cupões e cestos, para que os resultados de versões
+ * diferentes do motor possam ser comparados entre si.
+ *
+ * DADOS:
+ * - Produtos com códigos "ddd-ddd" (como em dados/produtos.hnt), de
+ *   MARCAS marcas, com preços entre 0,50 € e 20,00 €
+ * - Cupões de produtos com 1% do catálogo (pelo menos 10 produtos), de
+ *   marca ou de compra, com 5% a 30% de desconto, válidos na DATA
+ * - Cestos com produtos escolhidos ao acaso (podem repetir-se)
+ */
+final class Cenario {
+
+    /** Semente de todos os dados */
+    static final long SEMENTE = 42;
+
+    /** Data das vendas (os cupões são válidos de 7 dias antes a 7 depois) */
+    static final LocalDate DATA = LocalDate.of(2025, 1, 15);
+
+    static final ContextoAvaliacao CONTEXTO = ContextoAvaliacao.naData(DATA);
+
+    /** Número de marcas do catálogo */
+    static final int MARCAS = 40;
+
+    /** Cestos diferentes por cenário (usados à vez, para não medir sempre o mesmo) */
+    static final int CESTOS = 64;
+
+    /**
+     * Tipos de cupões numa carteira.
+     */
+    enum Mistura {
+        PRODUTOS, MARCA, COMPRA,
+        /** Um terço de cada tipo */
+        MISTA
+    }
+
+    private final Random aleatorio = new Random(SEMENTE);
+    private final Inventario inventario = new Inventario();
+    private final List<ProdutoInfo> produtos;
+    private int proximoCupao = 1;
+
+    // ========================================================================
+    // CONSTRUTOR
+    // ========================================================================
+
+    /**
+     * Cria um inventário com um catálogo de n produtos.
+     *
+     * @param n número de produtos
+     */
+    Cenario(int n) {
+        List<ProdutoInfo> lista = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String codigo = String.format("%03d-%03d", i / 1000, i % 1000);
+            lista.add(new ProdutoInfo(codigo, marca(i % MARCAS), "Produto " + i,
+                                      50 + aleatorio.nextInt(1951)));
+        }
+        inventario.addProdutos(lista);
+        produtos = List.copyOf(lista);
+    }
+
+    private static String marca(int i) {
+        return "Marca" + i;
+    }
+
+    // ========================================================================
+    // DADOS
+    // ========================================================================
+
+    Inventario getInventario() {
+        return inventario;
+    }
+
+    List<ProdutoInfo> getProdutos() {
+        return produtos;
+    }
+
+    /**
+     * Cria cupões novos (também adicionados ao inventário).
+     *
+     * @param n número de cupões
+     * @param mistura os tipos dos cupões
+     * @return os cupões
+     */
+    List<Cupao> cupoes(int n, Mistura mistura) {
+        List<Cupao> lista = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Mistura tipo = mistura == Mistura.MISTA ? Mistura.values()[i % 3] : mistura;
+            Cupao c = cupao(tipo);
+            inventario.addCupao(c);
+            lista.add(c);
+        }
+        return lista;
+    }
+
+    private Cupao cupao(Mistura tipo) {
+        String numero = "C" + proximoCupao++;
+        float desconto = (5 + aleatorio.nextInt(26)) / 100.0f;
+        LocalDate inicio = DATA.minusDays(7);
+        LocalDate fim = DATA.plusDays(7);
+        switch (tipo) {
+            case PRODUTOS:
+                int n = Math.max(10, produtos.size() / 100);
+                List<ProdutoInfo> abrangidos = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    abrangidos.add(produtoAoAcaso());
+                return new CupaoProdutos(numero, "Desconto em produtos", abrangidos, desconto, inicio, fim);
+            case MARCA:
+                return new CupaoMarca(numero, "Desconto na marca", desconto, inicio, fim,
+                                      marca(aleatorio.nextInt(MARCAS)));
+            default:
+                return new CupaoCompra(numero, "Desconto na compra", desconto, inicio, fim);
+        }
+    }
+
+    private ProdutoInfo produtoAoAcaso() {
+        return produtos.get(aleatorio.nextInt(produtos.size()));
+    }
+
+    /**
+     * Cria CESTOS cestos, cada um com os códigos de n produtos.
+     *
+     * @param n produtos por cesto
+     * @return os cestos
+     */
+    String[][] cestos(int n) {
+        String[][] cestos = new String[CESTOS][n];
+        for (String[] cesto : cestos)
+            for (int i = 0; i < n; i++)
+                cesto[i] = produtoAoAcaso().getCodigoBarras();
+        return cestos;
+    }
+
+    /**
+     * Cria uma venda com os produtos de um cesto.
+     *
+     * @param cesto os códigos dos produtos
+     * @return a venda
+     */
+    Venda venda(String[] cesto) {
+        Venda v = inventario.novaVenda();
+        for (String codigo : cesto)
+            inventario.vendeProduto(v, codigo);
+        return v;
+    }
+
+    /**
+     * Cria um cartão com uma carteira de cupões.
+     *
+     * @param numero o número do cartão
+     * @param carteira os cupões do cartão
+     * @return o cartão
+     */
+    static Cartao cartao(String numero, List<Cupao> carteira) {
+        Cartao c = new Cartao(numero);
+        for (Cupao cupao : carteira)
+            c.addCupao(cupao);
+        return c;
+    }
+}
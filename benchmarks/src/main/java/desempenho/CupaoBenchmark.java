@@ -0,0 +1,89 @@
+package desempenho;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cliente.Cupao;
+import comercio.ProdutoInfo;
+import comercio.ProdutoVendido;
+
+/**
+ * Cupao.abrange() de cada subclasse, para linhas de venda (ProdutoVendido)
+ * e para produtos do catálogo (ProdutoInfo).
+ *
+ * Cada operação é um só abrange(); são medidas LINHAS de seguida, com
+ * cupões e produtos diferentes, para que o resultado não dependa de um
+ * só par cupão/produto.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CupaoBenchmark {
+
+    private static final int LINHAS = 1024;
+    private static final int CUPOES = 16;
+
+    @Param({"1000", "100000"})
+    public int tamanhoCatalogo;
+
+    /** PRODUTOS, MARCA ou COMPRA (ver Cenario.Mistura) */
+    @Param({"PRODUTOS", "MARCA", "COMPRA"})
+    public String tipo;
+
+    private Cupao[] cupoes;
+    private ProdutoVendido[] linhas;
+    private ProdutoInfo[] produtos;
+
+    @Setup
+    public void preparar() {
+        Cenario cenario = new Cenario(tamanhoCatalogo);
+        cupoes = cenario.cupoes(CUPOES, Cenario.Mistura.valueOf(tipo)).toArray(new Cupao[0]);
+
+        List<ProdutoInfo> catalogo = cenario.getProdutos();
+        Random aleatorio = new Random(Cenario.SEMENTE);
+        linhas = new ProdutoVendido[LINHAS];
+        produtos = new ProdutoInfo[LINHAS];
+        for (int i = 0; i < LINHAS; i++) {
+            ProdutoInfo p = catalogo.get(aleatorio.nextInt(catalogo.size()));
+            produtos[i] = p;
+            linhas[i] = new ProdutoVendido(p, p.getPreco());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINHAS)
+    public int abrangeLinha() {
+        int n = 0;
+        for (int i = 0; i < LINHAS; i++)
+            if (cupoes[i % CUPOES].abrange(linhas[i]))
+                n++;
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINHAS)
+    public int abrangeProduto() {
+        int n = 0;
+        for (int i = 0; i < LINHAS; i++)
+            if (cupoes[i % CUPOES].abrange(produtos[i]))
+                n++;
+        return n;
+    }
+}
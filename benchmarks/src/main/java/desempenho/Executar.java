@@ -0,0 +1,36 @@
+package desempenho;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arranque dos benchmarks (classe principal de benchmarks.jar): corre o
+ * JMH com os argumentos dados, acrescentando os que faltarem de:
+ *
+ *   -rf json -rff jmh-resultados.json   resultados em JSON, para comparar
+ *                                       versões (débito, percentis de
+ *                                       latência, ...)
+ *   -prof gc                            alocação por operação
+ *                                       (gc.alloc.rate.norm) e taxa de
+ *                                       alocação
+ *
+ * Os restantes argumentos são os do JMH (-h para a lista), ex:
+ *   java -jar benchmarks.jar VendaBenchmark -p tamanhoCesto=50 -rff v.json
+ */
+public final class Executar {
+
+    private Executar() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> a = new ArrayList<>(Arrays.asList(args));
+        if (!a.contains("-rf"))
+            a.addAll(List.of("-rf", "json"));
+        if (!a.contains("-rff"))
+            a.addAll(List.of("-rff", "jmh-resultados.json"));
+        if (!a.contains("-prof"))
+            a.addAll(List.of("-prof", "gc"));
+        org.openjdk.jmh.Main.main(a.toArray(new String[0]));
+    }
+}
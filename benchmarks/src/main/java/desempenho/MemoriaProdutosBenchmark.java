@@ -0,0 +1,70 @@
+package desempenho;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comercio.Catalogo;
+import comercio.Inventario;
+import comercio.ProdutoInfo;
+
+/**
+ * Memória por produto do índice de produtos: RegistoProdutos contra um
+ * HashMap<String, ProdutoInfo>.
+ *
+ * Cada operação copia o índice inteiro de PRODUTOS produtos: uma versão
+ * nova do catálogo sem alterações (Inventario.addProdutos() vazio copia o
+ * registo) e um HashMap novo a partir do outro. A cópia aloca o mesmo que
+ * o índice ocupa, por isso gc.alloc.rate.norm (com -prof gc, que o
+ * Executar junta) dá os bytes por produto do índice, sem contar os
+ * ProdutoInfo nem as Strings, que são partilhados. O tempo é o de copiar
+ * (por produto).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoriaProdutosBenchmark {
+
+    private static final int PRODUTOS = 100_000;
+
+    private Inventario inventario;
+    private Map<String, ProdutoInfo> mapa;
+
+    @Setup
+    public void preparar() {
+        Cenario cenario = new Cenario(PRODUTOS);
+        inventario = cenario.getInventario();
+        List<ProdutoInfo> produtos = cenario.getProdutos();
+        mapa = new HashMap<>();
+        for (ProdutoInfo p : produtos)
+            mapa.put(p.getCodigoBarras(), p);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRODUTOS)
+    public Catalogo registo() {
+        return inventario.addProdutos(List.of());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRODUTOS)
+    public Map<String, ProdutoInfo> hashMap() {
+        return new HashMap<>(mapa);
+    }
+}
@@ -0,0 +1,99 @@
+package desempenho;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comercio.Catalogo;
+import comercio.ProdutoInfo;
+
+/**
+ * Pesquisa de um produto pelo código de barras: Catalogo.getProduto()
+ * (RegistoProdutos, tabela de chaves numéricas) contra um
+ * HashMap<String, ProdutoInfo>, a estrutura que substituiu.
+ *
+ * Cada operação é uma pesquisa; são medidas PESQUISAS de seguida, com
+ * códigos ao acaso do catálogo. Com codigosNovos=true cada pesquisa usa
+ * uma String nova (como a que sai do leitor de códigos ou de um ficheiro),
+ * cujo hashCode() ainda não está calculado; com false usa sempre as mesmas
+ * Strings, e o HashMap reaproveita o hash guardado em cada uma. A criação
+ * da String nova pesa igual nos dois lados.
+ *
+ * A memória por produto está em MemoriaProdutosBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProdutosBenchmark {
+
+    private static final int PESQUISAS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int tamanhoCatalogo;
+
+    @Param({"true", "false"})
+    public boolean codigosNovos;
+
+    private Catalogo catalogo;
+    private Map<String, ProdutoInfo> mapa;
+    private String[] codigos;
+    private char[][] caracteres;
+
+    @Setup
+    public void preparar() {
+        Cenario cenario = new Cenario(tamanhoCatalogo);
+        catalogo = cenario.getInventario().getCatalogo();
+        List<ProdutoInfo> produtos = cenario.getProdutos();
+        mapa = new HashMap<>();
+        for (ProdutoInfo p : produtos)
+            mapa.put(p.getCodigoBarras(), p);
+
+        Random aleatorio = new Random(Cenario.SEMENTE);
+        codigos = new String[PESQUISAS];
+        caracteres = new char[PESQUISAS][];
+        for (int i = 0; i < PESQUISAS; i++) {
+            codigos[i] = produtos.get(aleatorio.nextInt(produtos.size())).getCodigoBarras();
+            caracteres[i] = codigos[i].toCharArray();
+        }
+    }
+
+    private String codigo(int i) {
+        return codigosNovos ? new String(caracteres[i]) : codigos[i];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PESQUISAS)
+    public long getProduto() {
+        long soma = 0;
+        for (int i = 0; i < PESQUISAS; i++)
+            soma += catalogo.getProduto(codigo(i)).getPreco();
+        return soma;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PESQUISAS)
+    public long hashMap() {
+        long soma = 0;
+        for (int i = 0; i < PESQUISAS; i++)
+            soma += mapa.get(codigo(i)).getPreco();
+        return soma;
+    }
+}
@@ -0,0 +1,67 @@
+package desempenho;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comercio.Inventario;
+import comercio.Venda;
+
+/**
+ * Passar um cesto na caixa (Inventario.vendeProduto() para cada produto)
+ * e ler o total de uma venda (Venda.getTotal()).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VendaBenchmark {
+
+    @Param({"1000", "100000"})
+    public int tamanhoCatalogo;
+
+    @Param({"5", "50", "500"})
+    public int tamanhoCesto;
+
+    private Inventario inventario;
+    private String[][] cestos;
+    private Venda[] vendas;
+    private int proximo;
+
+    @Setup
+    public void preparar() {
+        Cenario cenario = new Cenario(tamanhoCatalogo);
+        inventario = cenario.getInventario();
+        cestos = cenario.cestos(tamanhoCesto);
+        vendas = new Venda[cestos.length];
+        for (int i = 0; i < cestos.length; i++)
+            vendas[i] = cenario.venda(cestos[i]);
+    }
+
+    /** Uma venda nova com todos os produtos de um cesto */
+    @Benchmark
+    public Venda vendeProduto() {
+        String[] cesto = cestos[proximo++ % cestos.length];
+        Venda v = inventario.novaVenda();
+        for (String codigo : cesto)
+            inventario.vendeProduto(v, codigo);
+        return v;
+    }
+
+    @Benchmark
+    public long getTotal() {
+        return vendas[proximo++ % vendas.length].getTotal();
+    }
+}
@@ -0,0 +1,126 @@
+package comercio;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import cliente.Cartao;
+import cliente.ContextoAvaliacao;
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+
+/**
+ * Dados dos testes: um inventário pequeno (sempre igual) e pedidos de
+ * checkout gerados a partir de uma semente, alguns deles inválidos
+ * (cartão, cupão ou produto que não existe, cupão que não é do cartão).
+ */
+final class Dados {
+
+    static final LocalDate HOJE = LocalDate.of(2025, 6, 15);
+    static final ContextoAvaliacao CONTEXTO = ContextoAvaliacao.naData(HOJE);
+
+    static final int PRODUTOS = 40;
+    static final int CUPOES = 24;
+    static final int CARTOES = 30;
+    static final int CARTEIRA = 12;
+
+    private Dados() {
+    }
+
+    /**
+     * Cria o inventário: cupões dos três tipos, cada cartão com CARTEIRA
+     * cupões e um saldo inicial.
+     */
+    static Inventario inventario() {
+        Inventario inv = new Inventario();
+        List<ProdutoInfo> produtos = new ArrayList<>();
+        for (int i = 0; i < PRODUTOS; i++) {
+            produtos.add(new ProdutoInfo("P" + i, "Marca" + (i % 4), "Modelo " + i, 100 + 37 * i));
+        }
+        inv.addProdutos(produtos);
+        List<Cupao> cupoes = new ArrayList<>();
+        for (int i = 0; i < CUPOES; i++) {
+            LocalDate inicio = HOJE.minusDays(10);
+            LocalDate fim = HOJE.plusDays(10);
+            Cupao c;
+            if (i % 3 == 0)
+                c = new CupaoProdutos("C" + i, "Produtos", produtos.subList(i, i + 10), 0.05f + i / 100f, inicio, fim);
+            else if (i % 3 == 1)
+                c = new CupaoMarca("C" + i, "Marca", 0.10f, inicio, fim, "Marca" + (i % 4));
+            else
+                c = new CupaoCompra("C" + i, "Compra", 0.02f, inicio, fim);
+            inv.addCupao(c);
+            cupoes.add(c);
+        }
+        for (int i = 0; i < CARTOES; i++) {
+            Cartao k = new Cartao("K" + i, i * 10L);
+            for (int j = 0; j < CARTEIRA; j++)
+                k.addCupao(cupoes.get((i + j) % CUPOES));
+            inv.addCartao(k);
+        }
+        return inv;
+    }
+
+    /**
+     * Gera n pedidos. Os mesmos argumentos dão sempre os mesmos pedidos.
+     */
+    static List<PedidoCheckout> pedidos(int n, long semente) {
+        Random r = new Random(semente);
+        List<PedidoCheckout> pedidos = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int k = r.nextInt(CARTOES);
+            String cartao = r.nextInt(100) == 0 ? "K" + (CARTOES + 1) : "K" + k;
+
+            List<String> cupoes = new ArrayList<>();
+            // Poucos cupões por pedido, para a carteira não se esgotar logo
+            for (int j = 0; j < CARTEIRA; j++)
+                if (r.nextInt(3 * CARTEIRA) == 0)
+                    cupoes.add("C" + (k + j) % CUPOES);
+            if (r.nextInt(50) == 0)
+                cupoes.add("C" + r.nextInt(CUPOES + 1));
+
+            List<String> produtos = new ArrayList<>();
+            int linhas = 1 + r.nextInt(6);
+            for (int j = 0; j < linhas; j++)
+                produtos.add(r.nextInt(200) == 0 ? "X" + j : "P" + r.nextInt(PRODUTOS));
+            pedidos.add(new PedidoCheckout(cartao, cupoes, produtos));
+        }
+        return pedidos;
+    }
+
+    /**
+     * Processa os pedidos um a um (Inventario.processar()), com um
+     * resultado de falha para os que lançam exceção.
+     */
+    static List<String> sequencial(Inventario inv, List<PedidoCheckout> pedidos) {
+        List<String> resultados = new ArrayList<>(pedidos.size());
+        for (PedidoCheckout p : pedidos) {
+            try {
+                resultados.add(inv.processar(p, CONTEXTO).toString());
+            } catch (RuntimeException e) {
+                resultados.add(ResultadoCheckout.falhou(p, e.getMessage()).toString());
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * O estado de todos os cartões (saldo e carteira), por número.
+     */
+    static String estado(Inventario inv) {
+        List<Cartao> cartoes = new ArrayList<>(inv.getCartoes());
+        cartoes.sort(Comparator.comparing(Cartao::getNumero));
+        StringBuilder sb = new StringBuilder();
+        for (Cartao k : cartoes) {
+            sb.append(k.getNumero()).append(':').append(k.getSaldo());
+            for (Cupao c : k.getCupoes())
+                sb.append(',').append(c.getNumero());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Diario: um instantâneo mais o diário repõem o estado dos cartões, e uma
+ * escrita interrompida no fim do diário é cortada ao abrir.
+ */
+class DiarioTest {
+
+    @TempDir
+    Path pasta;
+
+    @Test
+    void instantaneoMaisDiario() throws Exception {
+        List<PedidoCheckout> pedidos = Dados.pedidos(1_000, 16);
+        Path instantaneo = pasta.resolve("inventario.bin");
+        Path diario = pasta.resolve("diario.bin");
+
+        Inventario inv = Dados.inventario();
+        Diario d = inv.abrirDiario(diario);
+        Dados.sequencial(inv, pedidos.subList(0, 500));
+        inv.guardar(instantaneo);
+        Dados.sequencial(inv, pedidos.subList(500, 1_000));
+        inv.getCartao("K3").reduzirSaldo(5);
+        d.close();
+
+        // Só os registos mais recentes do que o instantâneo são repostos
+        Inventario reposto = Inventario.carregar(instantaneo);
+        reposto.abrirDiario(diario).close();
+        assertEquals(Dados.estado(inv), Dados.estado(reposto));
+    }
+
+    @Test
+    void caudaRasgadaCortada() throws Exception {
+        Path diario = pasta.resolve("diario.bin");
+
+        Inventario inv = Dados.inventario();
+        Diario d = inv.abrirDiario(diario);
+        Dados.sequencial(inv, Dados.pedidos(300, 17));
+        d.close();
+        long tamanho = Files.size(diario);
+
+        // Um registo que ficou a meio: tamanho 50, só 3 bytes de dados
+        Files.write(diario, new byte[] {0, 0, 0, 50, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        Inventario reposto = Dados.inventario();
+        Diario r = reposto.abrirDiario(diario);
+        assertEquals(tamanho, Files.size(diario));
+        assertEquals(Dados.estado(inv), Dados.estado(reposto));
+
+        // Os registos seguintes são escritos a seguir ao último completo
+        reposto.getCartao("K0").acumularSaldo(7);
+        r.close();
+
+        Inventario depois = Dados.inventario();
+        depois.abrirDiario(diario).close();
+        assertEquals(inv.getCartao("K0").getSaldo() + 7, depois.getCartao("K0").getSaldo());
+    }
+}
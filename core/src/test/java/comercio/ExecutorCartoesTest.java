@@ -0,0 +1,132 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import cliente.Cartao;
+
+/**
+ * ExecutorCartoes: as operações de cada cartão correm pela ordem de envio,
+ * as filas vazias saem do mapa e depois de close() as operações novas
+ * falham.
+ */
+class ExecutorCartoesTest {
+
+    @Test
+    void operacoesDeCadaCartaoPelaOrdemDeEnvio() {
+        Inventario inv = Dados.inventario();
+        List<Cartao> cartoes = new ArrayList<>(inv.getCartoes());
+        // Sem locks: só o escritor da fila de cada cartão mexe na sua lista
+        Map<Cartao, List<Integer>> vistos = new HashMap<>();
+        for (Cartao k : cartoes)
+            vistos.put(k, new ArrayList<>());
+
+        List<CompletableFuture<Integer>> futuros = new ArrayList<>();
+        try (ExecutorCartoes ex = new ExecutorCartoes(inv, 4)) {
+            for (int i = 0; i < 20_000; i++) {
+                int n = i;
+                Cartao k = cartoes.get(i * 7 % cartoes.size());
+                futuros.add(ex.executar(k, c -> {
+                    vistos.get(c).add(n);
+                    return n;
+                }));
+            }
+            for (int i = 0; i < futuros.size(); i++)
+                assertEquals(i, futuros.get(i).join());
+        }
+        for (List<Integer> v : vistos.values()) {
+            for (int i = 1; i < v.size(); i++)
+                assertTrue(v.get(i - 1) < v.get(i));
+        }
+    }
+
+    @Test
+    void checkoutsIguaisAosSequenciais() {
+        List<PedidoCheckout> pedidos = Dados.pedidos(3_000, 20);
+
+        Inventario sequencial = Dados.inventario();
+        List<String> esperados = Dados.sequencial(sequencial, pedidos);
+
+        Inventario inv = Dados.inventario();
+        List<CompletableFuture<ResultadoCheckout>> futuros = new ArrayList<>();
+        try (ExecutorCartoes ex = new ExecutorCartoes(inv, 4)) {
+            for (PedidoCheckout p : pedidos)
+                futuros.add(ex.processar(p, Dados.CONTEXTO));
+            List<String> resultados = new ArrayList<>();
+            for (int i = 0; i < futuros.size(); i++) {
+                try {
+                    resultados.add(futuros.get(i).join().toString());
+                } catch (CompletionException e) {
+                    resultados.add(ResultadoCheckout.falhou(pedidos.get(i), e.getCause().getMessage()).toString());
+                }
+            }
+            assertEquals(esperados, resultados);
+        }
+        assertEquals(Dados.estado(sequencial), Dados.estado(inv));
+    }
+
+    @Test
+    void filasVaziasSaemDoMapa() throws InterruptedException {
+        Inventario inv = Dados.inventario();
+        try (ExecutorCartoes ex = new ExecutorCartoes(inv, 2)) {
+            List<CompletableFuture<Long>> futuros = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++)
+                futuros.add(ex.reduzirSaldo(inv.getCartao("K" + i % Dados.CARTOES), 0));
+            for (CompletableFuture<Long> f : futuros)
+                f.join();
+
+            // O futuro é completado antes de a fila sair do mapa
+            for (int i = 0; i < 500 && ex.getFilas() > 0; i++)
+                Thread.sleep(10);
+            assertEquals(0, ex.getFilas());
+        }
+    }
+
+    @Test
+    void depoisDeFecharAsNovasFalham() throws InterruptedException {
+        Inventario inv = Dados.inventario();
+        Cartao k0 = inv.getCartao("K0");
+        Cartao k1 = inv.getCartao("K1");
+        Cartao k2 = inv.getCartao("K2");
+        CountDownLatch aCorrer = new CountDownLatch(1);
+        CountDownLatch continuar = new CountDownLatch(1);
+
+        ExecutorCartoes ex = new ExecutorCartoes(inv, 1);
+        CompletableFuture<Integer> primeira = ex.executar(k0, c -> {
+            aCorrer.countDown();
+            try {
+                continuar.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+        aCorrer.await();
+        // Já estão na fila (do cartão ou do pool): terminam depois de close()
+        CompletableFuture<Integer> mesmoCartao = ex.executar(k0, c -> 2);
+        CompletableFuture<Integer> outroCartao = ex.executar(k1, c -> 3);
+        ex.close();
+
+        CompletableFuture<Integer> depois = ex.executar(k2, c -> 4);
+        CompletionException e = assertThrows(CompletionException.class, depois::join);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+        continuar.countDown();
+        assertEquals(1, primeira.join());
+        assertEquals(2, mesmoCartao.join());
+        assertEquals(3, outroCartao.join());
+    }
+}
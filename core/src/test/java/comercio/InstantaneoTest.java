@@ -0,0 +1,105 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+
+/**
+ * Instantaneo: gravar e ler um inventário dá o mesmo inventário.
+ */
+class InstantaneoTest {
+
+    @TempDir
+    Path pasta;
+
+    @Test
+    void gravarELerDaOMesmoInventario() throws Exception {
+        Inventario inv = Dados.inventario();
+        Diario d = inv.abrirDiario(pasta.resolve("diario.bin"));
+        Dados.sequencial(inv, Dados.pedidos(500, 15));
+        d.close();
+
+        // Um produto que só um cupão conhece e um cupão que só uma carteira tem
+        ProdutoInfo retirado = inv.getProduto("P0");
+        inv.removeProduto(retirado);
+        Cupao soNaCarteira = new CupaoCompra("C-solto", "Só na carteira", 0.15f, Dados.HOJE, Dados.HOJE.plusDays(3));
+        inv.getCartao("K0").addCupao(soNaCarteira);
+
+        Path ficheiro = pasta.resolve("inventario.bin");
+        inv.guardar(ficheiro);
+        Inventario lido = Inventario.carregar(ficheiro);
+
+        assertEquals(Dados.estado(inv), Dados.estado(lido));
+        assertEquals(produtos(inv), produtos(lido));
+        assertEquals(cupoes(inv.getCupoes()), cupoes(lido.getCupoes()));
+        assertNull(lido.getProduto("P0"));
+        assertNull(lido.getCupao("C-solto"));
+        assertEquals(cupoes(inv.getCartao("K0").getCupoes()), cupoes(lido.getCartao("K0").getCupoes()));
+        for (Cartao k : inv.getCartoes())
+            assertEquals(k.getUltimoRegisto(), lido.getCartao(k.getNumero()).getUltimoRegisto(), k.getNumero());
+
+        // O cupão de produtos continua a abranger o produto fora do catálogo
+        CupaoProdutos c0 = (CupaoProdutos) lido.getCupao("C0");
+        assertTrue(c0.getCodigosAbrangidos().contains("P0"));
+
+        // Os cupões das carteiras são os mesmos objetos que os registados
+        for (Cartao k : lido.getCartoes())
+            for (Cupao c : k.getCupoes())
+                if (!c.getNumero().equals("C-solto"))
+                    assertSame(lido.getCupao(c.getNumero()), c);
+    }
+
+    @Test
+    void ficheiroAlteradoEhRecusado() throws Exception {
+        Path ficheiro = pasta.resolve("inventario.bin");
+        Dados.inventario().guardar(ficheiro);
+        byte[] bytes = Files.readAllBytes(ficheiro);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(ficheiro, bytes);
+        assertThrows(IOException.class, () -> Inventario.carregar(ficheiro));
+    }
+
+    /** Os produtos do catálogo, em texto, por código */
+    private static List<String> produtos(Inventario inv) {
+        List<String> res = new ArrayList<>();
+        for (ProdutoInfo p : inv.getProdutos())
+            res.add(p.getCodigoBarras() + "|" + p.getMarca() + "|" + p.getModelo() + "|" + p.getPreco());
+        res.sort(Comparator.naturalOrder());
+        return res;
+    }
+
+    /** Os cupões, em texto (com os dados de cada tipo), por número */
+    private static List<String> cupoes(Iterable<Cupao> cupoes) {
+        List<String> res = new ArrayList<>();
+        for (Cupao c : cupoes) {
+            String s = c.getClass().getSimpleName() + "|" + c.getNumero() + "|" + c.getResumo() + "|"
+                       + c.getDescontoPb() + "|" + c.getInicio() + "|" + c.getFim();
+            if (c instanceof CupaoProdutos)
+                s += "|" + new TreeSet<>(((CupaoProdutos) c).getCodigosAbrangidos());
+            else if (c instanceof CupaoMarca)
+                s += "|" + ((CupaoMarca) c).getMarca();
+            res.add(s);
+        }
+        res.sort(Comparator.naturalOrder());
+        return res;
+    }
+}
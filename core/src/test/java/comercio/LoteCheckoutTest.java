@@ -0,0 +1,72 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Inventario.processarLote() tem de dar os mesmos resultados, e deixar os
+ * cartões no mesmo estado, que processar() pedido a pedido.
+ */
+class LoteCheckoutTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @TempDir
+    Path pasta;
+
+    @AfterEach
+    void fechar() {
+        pool.shutdown();
+    }
+
+    @Test
+    void loteIgualAoSequencial() {
+        List<PedidoCheckout> pedidos = Dados.pedidos(5_000, 21);
+
+        Inventario sequencial = Dados.inventario();
+        List<String> esperados = Dados.sequencial(sequencial, pedidos);
+
+        Inventario lote = Dados.inventario();
+        List<String> obtidos = new ArrayList<>();
+        for (ResultadoCheckout r : lote.processarLote(pedidos, Dados.CONTEXTO, pool))
+            obtidos.add(r.toString());
+
+        assertEquals(esperados, obtidos);
+        assertEquals(Dados.estado(sequencial), Dados.estado(lote));
+    }
+
+    @Test
+    void loteComDiarioRepoeOMesmoEstado() throws Exception {
+        List<PedidoCheckout> pedidos = Dados.pedidos(2_000, 24);
+        Path ficheiro = pasta.resolve("diario.bin");
+
+        Inventario sequencial = Dados.inventario();
+        List<String> esperados = Dados.sequencial(sequencial, pedidos);
+
+        Inventario lote = Dados.inventario();
+        lote.abrirDiario(ficheiro);
+        List<String> obtidos = new ArrayList<>();
+        for (ResultadoCheckout r : lote.processarLote(pedidos, Dados.CONTEXTO, pool))
+            obtidos.add(r.toString());
+        lote.getDiario().close();
+        assertEquals(esperados, obtidos);
+
+        Inventario reposto = Dados.inventario();
+        reposto.abrirDiario(ficheiro).close();
+        assertEquals(Dados.estado(sequencial), Dados.estado(reposto));
+    }
+
+    @Test
+    void loteVazio() {
+        assertTrue(Dados.inventario().processarLote(List.of(), Dados.CONTEXTO, pool).isEmpty());
+    }
+}
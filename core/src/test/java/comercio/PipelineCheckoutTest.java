@@ -0,0 +1,149 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cliente.Cartao;
+
+/**
+ * PipelineCheckout: os checkouts de cada cartão são feitos pela ordem de
+ * submissão, por isso os resultados e o estado final são iguais aos de
+ * processar() pedido a pedido.
+ */
+class PipelineCheckoutTest {
+
+    @TempDir
+    Path pasta;
+
+    @Test
+    void mesmaOrdemQueSequencial() {
+        List<PedidoCheckout> pedidos = Dados.pedidos(5_000, 22);
+
+        Inventario sequencial = Dados.inventario();
+        List<String> esperados = Dados.sequencial(sequencial, pedidos);
+
+        Inventario pipeline = Dados.inventario();
+        assertEquals(esperados, submeter(pipeline, pedidos, 64));
+        assertEquals(Dados.estado(sequencial), Dados.estado(pipeline));
+    }
+
+    @Test
+    void comDiarioRepoeOMesmoEstado() throws Exception {
+        List<PedidoCheckout> pedidos = Dados.pedidos(2_000, 23);
+        Path ficheiro = pasta.resolve("diario.bin");
+
+        Inventario sequencial = Dados.inventario();
+        List<String> esperados = Dados.sequencial(sequencial, pedidos);
+
+        Inventario pipeline = Dados.inventario();
+        pipeline.abrirDiario(ficheiro);
+        assertEquals(esperados, submeter(pipeline, pedidos, 256));
+        pipeline.getDiario().close();
+
+        Inventario reposto = Dados.inventario();
+        reposto.abrirDiario(ficheiro).close();
+        assertEquals(Dados.estado(sequencial), Dados.estado(reposto));
+    }
+
+    @Test
+    void pedidoInvalidoFalhaSemAfetarOsOutros() {
+        Inventario inv = Dados.inventario();
+        long saldo = inv.getCartao("K1").getSaldo();
+        try (PipelineCheckout p = new PipelineCheckout(inv, 8)) {
+            CompletableFuture<ResultadoCheckout> mau =
+                p.submeter(new PedidoCheckout("K1", List.of(), List.of("P1", "X")), Dados.CONTEXTO);
+            CompletableFuture<ResultadoCheckout> bom =
+                p.submeter(new PedidoCheckout("K1", List.of(), List.of("P1")), Dados.CONTEXTO);
+
+            CompletionException e = assertThrows(CompletionException.class, mau::join);
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+            assertEquals(saldo, bom.join().getSaldo());
+        }
+    }
+
+    @Test
+    void fecharCompletaTodosOsAceites() throws Exception {
+        Inventario inv = Dados.inventario();
+        List<PedidoCheckout> pedidos = Dados.pedidos(1_000, 25);
+        PipelineCheckout p = new PipelineCheckout(inv, 8);
+        List<List<CompletableFuture<ResultadoCheckout>>> aceites = new ArrayList<>();
+        List<Thread> caixas = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            List<CompletableFuture<ResultadoCheckout>> meus = new ArrayList<>();
+            aceites.add(meus);
+            Thread caixa = new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++)
+                        meus.add(p.submeter(pedidos.get(i % pedidos.size()), Dados.CONTEXTO));
+                } catch (IllegalStateException e) {
+                    // Fechado
+                }
+            });
+            caixas.add(caixa);
+            caixa.start();
+        }
+        Thread.sleep(50);
+        p.close();
+        for (Thread caixa : caixas)
+            caixa.join();
+
+        // Quando close() retorna, todos os pedidos aceites estão completos
+        int total = 0;
+        for (List<CompletableFuture<ResultadoCheckout>> meus : aceites)
+            for (CompletableFuture<ResultadoCheckout> f : meus) {
+                assertTrue(f.isDone());
+                total++;
+            }
+        assertTrue(total > 0);
+    }
+
+    @Test
+    void submeterNumCallbackSincronoFalha() {
+        Inventario inv = Dados.inventario();
+        Cartao k1 = inv.getCartao("K1");
+        PedidoCheckout pedido = new PedidoCheckout("K1", List.of(), List.of("P1"));
+        try (PipelineCheckout p = new PipelineCheckout(inv, 8)) {
+            CompletableFuture<CompletableFuture<ResultadoCheckout>> dentro;
+            // Com o lock do cartão, a etapa CUPÕES não passa deste pedido:
+            // o callback fica registado antes de o futuro ser completado
+            synchronized (k1) {
+                dentro = p.submeter(pedido, Dados.CONTEXTO).thenApply(r -> p.submeter(pedido, Dados.CONTEXTO));
+            }
+            CompletionException e = assertThrows(CompletionException.class, dentro::join);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+
+            // Em assíncrono funciona
+            assertEquals(k1.getSaldo(), p.submeter(pedido, Dados.CONTEXTO)
+                .thenComposeAsync(r -> p.submeter(pedido, Dados.CONTEXTO)).join().getSaldo());
+        }
+    }
+
+    /** Submete todos os pedidos e espera pelos resultados, pela ordem */
+    private static List<String> submeter(Inventario inv, List<PedidoCheckout> pedidos, int tamanho) {
+        List<CompletableFuture<ResultadoCheckout>> futuros = new ArrayList<>();
+        try (PipelineCheckout p = new PipelineCheckout(inv, tamanho)) {
+            for (PedidoCheckout pedido : pedidos)
+                futuros.add(p.submeter(pedido, Dados.CONTEXTO));
+        }
+        List<String> resultados = new ArrayList<>();
+        for (int i = 0; i < futuros.size(); i++) {
+            try {
+                resultados.add(futuros.get(i).join().toString());
+            } catch (CompletionException e) {
+                resultados.add(ResultadoCheckout.falhou(pedidos.get(i), e.getCause().getMessage()).toString());
+            }
+        }
+        return resultados;
+    }
+}
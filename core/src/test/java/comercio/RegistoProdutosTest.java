@@ -0,0 +1,105 @@
+package comercio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * RegistoProdutos: a codificação dos códigos de barras e a tabela de
+ * endereçamento aberto, comparada com um HashMap.
+ */
+class RegistoProdutosTest {
+
+    private static ProdutoInfo produto(String codigo) {
+        return new ProdutoInfo(codigo, "Marca", "Modelo", 100);
+    }
+
+    @Test
+    void codificarDistingueCodigos() {
+        assertNotEquals(0, RegistoProdutos.codificar("202-006"));
+        assertNotEquals(RegistoProdutos.codificar("0"), RegistoProdutos.codificar("00"));
+        assertNotEquals(RegistoProdutos.codificar("1-2"), RegistoProdutos.codificar("12"));
+        assertNotEquals(0, RegistoProdutos.codificar("99999999999999999"));
+
+        HashSet<Long> chaves = new HashSet<>();
+        for (int i = 0; i < 100_000; i++)
+            assertTrue(chaves.add(RegistoProdutos.codificar(String.format("%03d-%03d", i / 1000, i % 1000))));
+    }
+
+    @Test
+    void codificarRecusaOutrasFormas() {
+        assertEquals(0, RegistoProdutos.codificar(""));
+        assertEquals(0, RegistoProdutos.codificar("ABC-1"));
+        assertEquals(0, RegistoProdutos.codificar("202 006"));
+        assertEquals(0, RegistoProdutos.codificar("999999999999999999"));
+    }
+
+    @Test
+    void putSubstituiEOutrosCodigosFuncionam() {
+        RegistoProdutos r = new RegistoProdutos();
+        ProdutoInfo a = produto("202-006");
+        ProdutoInfo b = produto("202-006");
+        ProdutoInfo c = produto("ABC-1");
+        assertNull(r.put(a));
+        assertSame(a, r.put(b));
+        assertNull(r.put(c));
+
+        assertSame(b, r.get("202-006"));
+        assertSame(c, r.get("ABC-1"));
+        assertNull(r.get("202-007"));
+        assertEquals(2, r.size());
+
+        assertSame(c, r.remove("ABC-1"));
+        assertNull(r.remove("202-007"));
+        assertEquals(1, r.size());
+    }
+
+    @Test
+    void igualAUmHashMapComRemocoesECrescimento() {
+        RegistoProdutos r = new RegistoProdutos();
+        Map<String, ProdutoInfo> esperado = new HashMap<>();
+        Random aleatorio = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            String codigo = "1-" + aleatorio.nextInt(20_000);
+            if (aleatorio.nextInt(3) == 0) {
+                assertSame(esperado.remove(codigo), r.remove(codigo));
+            } else {
+                ProdutoInfo p = produto(codigo);
+                assertSame(esperado.put(codigo, p), r.put(p));
+            }
+        }
+        assertEquals(esperado.size(), r.size());
+        for (int i = 0; i < 20_000; i++)
+            assertSame(esperado.get("1-" + i), r.get("1-" + i));
+        assertEquals(new HashSet<>(esperado.values()), new HashSet<>(r.valores()));
+
+        // Nunca mais de metade cheia
+        assertTrue(r.capacidade() >= 2 * r.size());
+    }
+
+    @Test
+    void congeladoNaoMudaECopiaEIndependente() {
+        RegistoProdutos r = new RegistoProdutos();
+        r.put(produto("1-1"));
+        r.congelar();
+        assertThrows(IllegalStateException.class, () -> r.put(produto("1-2")));
+        assertThrows(IllegalStateException.class, () -> r.remove("1-1"));
+
+        RegistoProdutos copia = new RegistoProdutos(r);
+        copia.remove("1-1");
+        copia.put(produto("1-2"));
+        assertNull(copia.get("1-1"));
+        assertEquals("1-1", r.get("1-1").getCodigoBarras());
+        assertNull(r.get("1-2"));
+    }
+}
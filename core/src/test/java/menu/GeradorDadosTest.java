@@ -0,0 +1,72 @@
+package menu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * GeradorDados: a mesma semente dá os mesmos ficheiros, byte a byte, e
+ * mais cartões não mudam os que já existiam.
+ */
+class GeradorDadosTest {
+
+    private static final List<String> FICHEIROS =
+        List.of("produtos.hnt", "cupoes.hnt", "cartoes.hnt", "transacoes.hnt");
+
+    @TempDir
+    Path pasta;
+
+    private static GeradorDados gerador(long semente, long cartoes) {
+        GeradorDados g = new GeradorDados(semente);
+        g.setProdutos(500);
+        g.setMarcas(20);
+        g.setCupoes(60);
+        g.setCartoes(cartoes);
+        g.setTransacoes(300);
+        return g;
+    }
+
+    @Test
+    void mesmaSementeDaFicheirosIguais() throws IOException {
+        Path a = pasta.resolve("a");
+        Path b = pasta.resolve("b");
+        gerador(42, 100).gerar(a);
+        gerador(42, 100).gerar(b);
+        for (String f : FICHEIROS)
+            assertArrayEquals(Files.readAllBytes(a.resolve(f)), Files.readAllBytes(b.resolve(f)), f);
+
+        Path c = pasta.resolve("c");
+        gerador(43, 100).gerar(c);
+        for (String f : FICHEIROS)
+            assertFalse(Arrays.equals(Files.readAllBytes(a.resolve(f)), Files.readAllBytes(c.resolve(f))), f);
+    }
+
+    @Test
+    void maisCartoesNaoMudamOsExistentes() throws IOException {
+        Path poucos = pasta.resolve("poucos");
+        Path muitos = pasta.resolve("muitos");
+        gerador(7, 100).gerar(poucos);
+        gerador(7, 250).gerar(muitos);
+
+        // Os produtos e os cupões não dependem dos cartões
+        for (String f : List.of("produtos.hnt", "cupoes.hnt"))
+            assertArrayEquals(Files.readAllBytes(poucos.resolve(f)), Files.readAllBytes(muitos.resolve(f)), f);
+
+        List<String> antes = Files.readAllLines(poucos.resolve("cartoes.hnt"));
+        List<String> depois = Files.readAllLines(muitos.resolve("cartoes.hnt"));
+        assertEquals(100, antes.size());
+        assertEquals(250, depois.size());
+        assertEquals(antes, depois.subList(0, antes.size()));
+        assertTrue(depois.get(0).startsWith("100000000\t"), depois.get(0));
+    }
+}
@@ -0,0 +1,154 @@
+package menu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import comercio.Inventario;
+import comercio.ProdutoInfo;
+
+/**
+ * RecarregadorHnt: só as diferenças entre o ficheiro novo e o inventário
+ * (ou a versão anterior, nos cartões) são aplicadas.
+ */
+class RecarregadorHntTest {
+
+    private static final LocalDate REFERENCIA = LocalDate.of(2025, 6, 15);
+
+    @TempDir
+    Path pasta;
+
+    private Path produtos;
+    private Path cupoes;
+    private Path cartoes;
+    private Inventario inv;
+    private RecarregadorHnt recarregador;
+
+    @BeforeEach
+    void carregar() throws IOException {
+        // Só ASCII: os .hnt são lidos no charset da plataforma
+        produtos = escrever("produtos.hnt",
+            "100-001\tM1\tLeite\t100",
+            "100-002\tM1\tPao\t200",
+            "100-003\tM2\tQueijo\t300");
+        cupoes = escrever("cupoes.hnt",
+            "1\t0\t6\tProduto\tLaticinios\t10\t100-001,100-002",
+            "2\t0\t6\tMarca\tMarca M2\t20\tM2",
+            "3\t0\t6\tCompra\tCompra\t5");
+        cartoes = escrever("cartoes.hnt",
+            "10\t1,2",
+            "20\t2,3",
+            "40\t3");
+        inv = new Inventario();
+        CarregadorHnt.carregar(inv, produtos, cupoes, cartoes, REFERENCIA);
+        recarregador = new RecarregadorHnt(inv, produtos, cupoes, cartoes, REFERENCIA);
+    }
+
+    @Test
+    void produtosNovosAlteradosERemovidos() throws IOException {
+        ProdutoInfo leite = inv.getProduto("100-001");
+        escrever("produtos.hnt",
+            "100-001\tM1\tLeite\t120",
+            "100-002\tM1\tPao integral\t200",
+            "100-004\tM3\tMel\t400");
+
+        RecarregadorHnt.Resumo r = recarregador.recarregar(produtos);
+        assertEquals(1, r.getAdicionados());
+        assertEquals(2, r.getAlterados());
+        assertEquals(1, r.getRemovidos());
+
+        assertEquals(120, inv.getProduto("100-001").getPreco());
+        assertNotSame(leite, inv.getProduto("100-001"));
+        assertEquals("Pao integral", inv.getProduto("100-002").getModelo());
+        assertEquals("M3", inv.getProduto("100-004").getMarca());
+        assertNull(inv.getProduto("100-003"));
+
+        // O mesmo ficheiro outra vez não muda nada
+        assertTrue(recarregador.recarregar(produtos).semAlteracoes());
+    }
+
+    @Test
+    void cupoesSubstituidosTambemNasCarteiras() throws IOException {
+        Cupao igual = inv.getCupao("1");
+        escrever("cupoes.hnt",
+            "1\t0\t6\tProduto\tLaticinios\t10\t100-001,100-002",
+            "2\t0\t6\tMarca\tMarca M2\t25\tM2",
+            "4\t1\t3\tCompra\tNova\t5");
+
+        RecarregadorHnt.Resumo r = recarregador.recarregar(cupoes);
+        assertEquals(1, r.getAdicionados());
+        assertEquals(1, r.getAlterados());
+        assertEquals(1, r.getRemovidos());
+
+        assertSame(igual, inv.getCupao("1"));
+        assertEquals(2500, inv.getCupao("2").getDescontoPb());
+        assertEquals(REFERENCIA.plusDays(1), inv.getCupao("4").getInicio());
+        assertNull(inv.getCupao("3"));
+
+        // As carteiras têm a versão nova do 2 e já não têm o 3
+        assertSame(inv.getCupao("2"), inv.getCartao("10").getCupoes().get(1));
+        assertEquals(List.of("2"), numeros(inv.getCartao("20")));
+        assertEquals(List.of(), numeros(inv.getCartao("40")));
+    }
+
+    @Test
+    void cartoesComparadosComAVersaoAnterior() throws IOException {
+        // O cupão 1 foi usado: continua no ficheiro, mas não volta à carteira
+        Cartao k10 = inv.getCartao("10");
+        k10.removeCupao(inv.getCupao("1"));
+        escrever("cartoes.hnt",
+            "10\t1,2,3",
+            "20\t3",
+            "30\t1,9");
+
+        RecarregadorHnt.Resumo r = recarregador.recarregar(cartoes);
+        assertEquals(1, r.getAdicionados());
+        assertEquals(2, r.getAlterados());
+        assertEquals(1, r.getRemovidos());
+        assertEquals(List.of("Cartão 30: cupão 9 não existe"), r.getPendentes());
+
+        assertEquals(List.of("2", "3"), numeros(k10));
+        assertEquals(List.of("3"), numeros(inv.getCartao("20")));
+        assertEquals(List.of("1"), numeros(inv.getCartao("30")));
+        assertNull(inv.getCartao("40"));
+    }
+
+    @Test
+    void ficheiroComErroNaoAplicaNada() throws IOException {
+        escrever("produtos.hnt",
+            "100-001\tM1\tLeite\t120",
+            "100-002\tM1\tPao\tduzentos");
+
+        assertThrows(NumberFormatException.class, () -> recarregador.recarregar(produtos));
+        assertEquals(100, inv.getProduto("100-001").getPreco());
+        assertEquals(3, inv.getProdutos().size());
+    }
+
+    private Path escrever(String nome, String... linhas) throws IOException {
+        return Files.write(pasta.resolve(nome), List.of(linhas), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> numeros(Cartao k) {
+        List<String> res = new ArrayList<>();
+        for (Cupao c : k.getCupoes())
+            res.add(c.getNumero());
+        return res;
+    }
+}
@@ -0,0 +1,104 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Histograma: os limites dos baldes, o erro máximo dos percentis e a
+ * contagem com várias threads.
+ */
+class HistogramaTest {
+
+    /**
+     * O limite do balde de v: com v e um valor maior, a mediana é o maior
+     * valor do balde onde v caiu.
+     */
+    private static long limite(long v) {
+        Histograma h = new Histograma();
+        h.registar(v);
+        h.registar(Long.MAX_VALUE);
+        return h.percentil(0.5);
+    }
+
+    @Test
+    void valoresPequenosSaoExatos() {
+        for (long v = 0; v < 32; v++)
+            assertEquals(v, limite(v));
+        // A partir de 32 cada balde tem mais do que um valor
+        assertEquals(33, limite(32));
+        assertEquals(33, limite(33));
+        assertEquals(35, limite(34));
+    }
+
+    @Test
+    void baldesNasPotenciasDeDois() {
+        for (int e = 5; e < 63; e++) {
+            long p = 1L << e;
+            long largura = p >>> 4;
+            // O balde que começa na potência e o último antes dela
+            assertEquals(p + largura - 1, limite(p), "2^" + e);
+            assertEquals(p - 1, limite(p - 1), "2^" + e + " - 1");
+            assertEquals(p + largura - 1, limite(p + largura - 1), "2^" + e);
+            assertEquals(p + 2 * largura - 1, limite(p + largura), "2^" + e);
+        }
+        assertEquals(Long.MAX_VALUE, limite(Long.MAX_VALUE));
+    }
+
+    @Test
+    void erroMaximoDeUmDezasseisAvos() {
+        Random r = new Random(19);
+        for (int i = 0; i < 100_000; i++) {
+            long v = r.nextLong() >>> (1 + r.nextInt(63));
+            long l = limite(v);
+            assertTrue(l >= v && l - v <= v / 16, v + " -> " + l);
+            // O limite é o fim do balde: o valor seguinte já está noutro
+            assertEquals(l, limite(l));
+            if (l < Long.MAX_VALUE)
+                assertTrue(limite(l + 1) > l, v + " -> " + l);
+        }
+    }
+
+    @Test
+    void percentisEMaximo() {
+        Histograma h = new Histograma();
+        assertEquals(0, h.percentil(0.99));
+        for (int v = 1; v <= 1000; v++)
+            h.registar(v);
+        h.registar(-5);
+
+        assertEquals(1001, h.getContagem());
+        assertEquals(1000, h.getMaximo());
+        assertEquals(0, h.percentil(0));
+        assertEquals(1000, h.percentil(1));
+        long p50 = h.percentil(0.5);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / 16, "p50 = " + p50);
+        assertThrows(IllegalArgumentException.class, () -> h.percentil(1.5));
+
+        h.limpar();
+        assertEquals(0, h.getContagem());
+        assertEquals(0, h.getMaximo());
+    }
+
+    @Test
+    void registarComVariasThreads() throws InterruptedException {
+        Histograma h = new Histograma();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long base = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++)
+                    h.registar(base * 100_000 + i);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(400_000, h.getContagem());
+        assertEquals(399_999, h.getMaximo());
+    }
+}
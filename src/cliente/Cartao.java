@@ -1,25 +1,62 @@
 package cliente;
 
-import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import comercio.Metricas;
 import comercio.ProdutoVendido;
 import comercio.Venda;
+import comercio.VendaColunar;
 import util.Validator;
 import cliente.Cupao;
 
 /**
  * Classe que representa um cartão de fidelização na cadeia de lojas HonESta.
+ * 
+ * CONCORRÊNCIA:
+ * O mesmo cartão pode ser usado em várias caixas ao mesmo tempo. Todas as
+ * operações que alteram o cartão (ativar, usar, reduzirSaldo, acumularSaldo,
+ * addCupao, ...) são synchronized, por isso ficam serializadas POR CARTÃO:
+ * cartões diferentes nunca se bloqueiam uns aos outros. As consultas
+ * (getSaldo, getCupoes, estaAtivo) não bloqueiam.
+ * 
+ * Para que ativar + usar sejam feitos sem outra caixa pelo meio, basta
+ * fazê-los dentro de synchronized (cartao) { ... } (o lock é reentrante).
+ * Com diário, é melhor fazer lá dentro só ativar + aplicarCupoes() +
+ * creditar() e chamar confirmar() depois do bloco (ver Liquidacao), para
+ * não segurar o lock durante o fsync.
+ * 
+ * DIÁRIO:
+ * Se o cartão estiver ligado a um DiarioCartao (ver ligarDiario()), cada
+ * alteração (mudança de saldo e/ou cupões removidos da carteira) é
+ * registada no diário como UM registo: num checkout, o crédito e os
+ * cupões gastos ficam juntos, e ao repor o diário entram todos ou nenhum.
+ * Os métodos que alteram o cartão só retornam depois de o registo estar
+ * gravado em disco; se a gravação falhar, a alteração é desfeita antes de
+ * a exceção sair, e o cartão continua igual ao que está em disco. A espera
+ * pelo disco é feita depois de largar o lock do cartão: as outras caixas
+ * do mesmo cartão não ficam à espera do fsync (e, como o diário deixa de
+ * gravar depois de uma falha, as alterações feitas entretanto também são
+ * desfeitas).
+ * getUltimoRegisto() indica o último registo deste cartão, o que permite
+ * repor o diário por cima de um instantâneo sem repetir alterações.
  */
 public class Cartao {
     private String numero;
-    private long saldo;
-    private List<Cupao> cupoes = new ArrayList<>();
+    private volatile long saldo;
+    // Lista copy-on-write: a carteira muda pouco e é lida sem locks
+    private List<Cupao> cupoes = new CopyOnWriteArrayList<>();
     private List<Cupao> cupoesAtivos = new ArrayList<>();
-    private boolean ativo = false;
+    private volatile boolean ativo = false;
+    private IndiceCupoes indice;
+    private SessaoCheckout sessao;
+    private DiarioCartao diario;
+    private long ultimoRegisto;
 
     public Cartao(String numero, long saldo) {
         this.numero = Validator.requireNonBlank(numero);
@@ -38,12 +75,57 @@ public class Cartao {
         return saldo;
     }
 
-    public void addCupao(Cupao c) {
+    public synchronized void addCupao(Cupao c) {
         cupoes.add(Objects.requireNonNull(c));
     }
 
     public void removeCupao(Cupao c) {
-        cupoes.remove(c);
+        Liquidacao l;
+        synchronized (this) {
+            List<Cupao> removidos = new ArrayList<>(1);
+            removerCupao(c, removidos);
+            l = alterar(0, removidos);
+        }
+        confirmar(l);
+    }
+
+    /**
+     * Substitui os cupões da carteira que têm versões novas e remove os
+     * que deixaram de existir (ver Inventario.substituirCupoes()). As
+     * remoções são registadas no diário.
+     * 
+     * Uma venda a decorrer continua com os cupões que ativou; se usar um
+     * deles, sai da carteira a versão nova, que tem o mesmo número.
+     * 
+     * @param alterados cupão novo de cada número (null = remover)
+     */
+    public void substituirCupoes(Map<String, Cupao> alterados) {
+        // A maioria dos cartões não tem nenhum dos cupões: verificar sem lock
+        boolean afetado = false;
+        for (Cupao c : cupoes)
+            if (alterados.containsKey(c.getNumero())) {
+                afetado = true;
+                break;
+            }
+        if (!afetado)
+            return;
+
+        Liquidacao l;
+        synchronized (this) {
+            List<Cupao> removidos = new ArrayList<>();
+            for (int i = cupoes.size() - 1; i >= 0; i--) {
+                Cupao c = cupoes.get(i);
+                if (!alterados.containsKey(c.getNumero()))
+                    continue;
+                Cupao novo = alterados.get(c.getNumero());
+                if (novo == null)
+                    removerCupao(c, removidos);
+                else
+                    cupoes.set(i, novo);
+            }
+            l = alterar(0, removidos);
+        }
+        confirmar(l);
     }
 
     public List<Cupao> getCupoes() {
@@ -56,16 +138,63 @@ public class Cartao {
 
     /**
      * Ativa os cupões selecionados. Não aceita cupões que não estejam na lista de
-     * cupões do cliente
+     * cupões do cliente. Constrói também o índice usado para aplicar os cupões
+     * na venda.
      * 
      * @param ativos lista de cupões para ativar
      */
-    public void ativar(List<Cupao> ativos) {
+    public synchronized void ativar(List<Cupao> ativos) {
         ativo = true;
         if (!cupoes.containsAll(ativos))
             throw new IllegalArgumentException("Há cupões que não pertencem ao cartão");
+        cancelarSessao();
         cupoesAtivos.clear();
         cupoesAtivos.addAll(ativos);
+
+        // Ordenar cupões por desconto (MAIOR primeiro)
+        Collections.sort(cupoesAtivos, (c1, c2) ->
+            Integer.compare(c2.getDescontoPb(), c1.getDescontoPb()));
+        indice = new IndiceCupoes(cupoesAtivos);
+    }
+
+    /**
+     * Ativa os cupões selecionados e abre uma sessão de checkout para a venda:
+     * a partir daqui cada produto passado na venda recebe logo o melhor cupão
+     * (ver SessaoCheckout). Os produtos que já estejam na venda são avaliados
+     * de imediato. O usar(v) seguinte só tem de liquidar a sessão.
+     * 
+     * @param ativos lista de cupões para ativar
+     * @param v      a venda a acompanhar
+     * @return a sessão aberta
+     */
+    public SessaoCheckout ativar(List<Cupao> ativos, Venda v) {
+        return ativar(ativos, v, ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Igual a ativar(ativos, v), avaliando a validade dos cupões na data do
+     * contexto dado.
+     * 
+     * @param ativos lista de cupões para ativar
+     * @param v      a venda a acompanhar
+     * @param ctx    o contexto com a data da venda
+     * @return a sessão aberta
+     */
+    public synchronized SessaoCheckout ativar(List<Cupao> ativos, Venda v, ContextoAvaliacao ctx) {
+        ativar(ativos);
+        sessao = new SessaoCheckout(Objects.requireNonNull(v), indice, ctx);
+        return sessao;
+    }
+
+    /**
+     * Cancela a sessão de checkout aberta (se houver), retirando os cupões
+     * que já tinha aplicado à venda.
+     */
+    private void cancelarSessao() {
+        if (sessao != null) {
+            sessao.cancelar();
+            sessao = null;
+        }
     }
 
     /**
@@ -74,52 +203,232 @@ public class Cartao {
      * cupões ativos mas não usados na venda, deixam de estar ativos, mas permanecem
      * associados ao cartão. No final do uso o cartão é automaticamente desativado.
      * 
+     * Cada produto é resolvido através do índice construído em ativar(), em vez
+     * de percorrer todos os cupões ativos. A validade dos cupões é verificada
+     * para o dia de hoje.
+     * 
+     * Se a venda estiver a ser acompanhada por uma sessão de checkout (ver
+     * ativar(List, Venda)), os cupões já estão aplicados e só é preciso
+     * liquidar: acumular o saldo e remover os cupões usados.
+     * 
      * @param v a venda onde usar o cartão
      * @throws IllegalStateException se o cartão não estiver ativo
      */
-   public void usar(Venda v) {
-    if (!estaAtivo())
-        throw new IllegalStateException();
+    public void usar(Venda v) {
+        usar(v, ContextoAvaliacao.hoje());
+    }
 
-    // Ordenar cupões por desconto (MAIOR primeiro)
-    Collections.sort(cupoesAtivos, (c1, c2) -> 
-        Float.compare(c2.getDesconto(), c1.getDesconto()));
+    /**
+     * Usar o cartão numa venda, verificando a validade dos cupões na data do
+     * contexto dado (ver usar(Venda)).
+     * 
+     * @param v   a venda onde usar o cartão
+     * @param ctx o contexto com a data da venda
+     * @throws IllegalStateException se o cartão não estiver ativo
+     */
+    public void usar(Venda v, ContextoAvaliacao ctx) {
+        long inicio = Metricas.USAR.inicio();
+        Liquidacao l;
+        synchronized (this) {
+            l = aplicarCupoes(v, ctx);
+            creditar(l);
+        }
+        confirmar(l);
+        Metricas.saldoCreditado(l.getDesconto());
+        Metricas.USAR.registar(inicio);
+    }
+
+    /**
+     * A primeira parte de usar(v, ctx): aplica os cupões ativos à venda,
+     * remove os usados da carteira e desativa o cartão, mas NÃO acumula o
+     * desconto no saldo nem regista nada no diário. Isso é feito depois,
+     * de uma só vez, com creditar() e confirmar().
+     * 
+     * Serve para separar a escolha dos cupões da atualização do saldo
+     * (ver comercio.PipelineCheckout).
+     * 
+     * @param v   a venda onde usar o cartão
+     * @param ctx o contexto com a data da venda
+     * @return o desconto a acumular, os cupões removidos e as linhas com cupão
+     * @throws IllegalStateException se o cartão não estiver ativo
+     */
+    public synchronized Liquidacao aplicarCupoes(Venda v, ContextoAvaliacao ctx) {
+        if (!estaAtivo())
+            throw new IllegalStateException();
+
+        // Venda acompanhada por uma sessão: os cupões já foram aplicados
+        if (sessao != null && sessao.getVenda() == v)
+            return liquidar(sessao);
+
+        // A venda mantém o total de descontos atualizado à medida que os
+        // cupões são marcados nos produtos: o saldo a acumular é a diferença
+        long descontoAntes = v.getTotalDesconto();
+        List<Cupao> removidos = new ArrayList<>();
+        List<ProdutoVendido> linhas = new ArrayList<>();
+
+        for (ProdutoVendido pv : v.getItems()) {
+            // Se produto já tem cupão, pular
+            if (pv.getCupao() != null)
+                continue;
+
+            // Melhor cupão válido que abrange o produto (só um cupão por produto).
+            // Avaliado uma vez por linha, vale para toda a quantidade
+            Cupao c = indice == null ? null : indice.melhor(pv, ctx.getDia());
+            if (c == null)
+                continue;
 
-    // Ver quais produtos estão abrangidos por algum cupão
-    for (ProdutoVendido pv : v.getItems()) {
-        
-        // Se produto já tem cupão, pular
-        if (pv.getCupao() != null) {
-            continue;
+            // Marcar produto com cupão (a venda soma o desconto)
+            pv.setCupao(c);
+            linhas.add(pv);
+            Metricas.acerto(c);
+
+            // Remover cupão (foi usado)
+            removerCupao(c, removidos);
         }
-        
-        // Tentar aplicar cupões (do maior para o menor)
-        for (Cupao c : cupoesAtivos) {
-            //  ↑
-            // MUDANÇA: Cupao em vez de CupaoProdutos
-            
-            // Verificar se cupão está válido E abrange o produto
-            if (c.estaValido() && c.abrange(pv)) {
-                
-                // Calcular e acumular desconto
-                long descontoValor = (long) (pv.getPreco() * c.getDesconto());
-                acumularSaldo(descontoValor);
-                
-                // Marcar produto com cupão
-                pv.setCupao(c);
-                
-                // Remover cupão (foi usado)
-                cupoes.remove(c);
-                
-                // Parar (só um cupão por produto)
-                break;
+
+        // Os descontos desta utilização (a acumular no saldo)
+        long desconto = v.getTotalDesconto() - descontoAntes;
+        if (indice != null)
+            Metricas.cupoesAvaliados(indice.retirarAvaliados());
+
+        atualizarCupoes(ctx);
+        ativo = false;
+        return new Liquidacao(desconto, removidos, linhas);
+    }
+
+    /**
+     * Liquida uma sessão de checkout: remove os cupões usados e retorna o
+     * desconto previsto, a acumular. Não é preciso voltar a percorrer os
+     * produtos.
+     */
+    private Liquidacao liquidar(SessaoCheckout s) {
+        s.fechar();
+        sessao = null;
+        List<Cupao> removidos = new ArrayList<>();
+        for (Cupao c : s.getCupoesUsados())
+            removerCupao(c, removidos);
+        for (ProdutoVendido pv : s.getVenda().getItems())
+            if (pv.getCupao() != null)
+                Metricas.acerto(pv.getCupao());
+        if (indice != null)
+            Metricas.cupoesAvaliados(indice.retirarAvaliados());
+        long desconto = s.getDescontoPrevisto();
+        atualizarCupoes(s.getContexto());
+        ativo = false;
+        return new Liquidacao(desconto, removidos, s.getLinhas());
+    }
+
+    /**
+     * A segunda parte de usar(v, ctx): acumula o desconto de uma liquidação
+     * no saldo e regista no diário, num só registo, o crédito e os cupões
+     * removidos. Não espera pela gravação (ver confirmar()): quem liquida
+     * muitas vendas pode creditá-las todas e esperar uma só vez.
+     * 
+     * @param l o resultado de aplicarCupoes() neste cartão
+     * @throws IllegalStateException se a liquidação já foi creditada
+     */
+    public synchronized void creditar(Liquidacao l) {
+        if (l.creditada)
+            throw new IllegalStateException("Liquidação já creditada");
+        l.creditada = true;
+        saldo += l.getDesconto();
+        l.diario = diario;
+        l.registo = registar(l.getDesconto(), l.removidos());
+    }
+
+    /**
+     * Espera que o registo de uma liquidação creditada esteja gravado em
+     * disco. Se a gravação falhar, a liquidação é desfeita (saldo, cupões
+     * da carteira e cupões das linhas da venda) e a exceção é lançada: o
+     * cartão fica como está em disco e a venda pode ser repetida.
+     * 
+     * Não bloqueia o cartão enquanto espera.
+     * 
+     * @param l uma liquidação já creditada neste cartão
+     * @throws java.io.UncheckedIOException se a gravação falhou
+     */
+    public void confirmar(Liquidacao l) {
+        if (l.registo == 0)
+            return;
+        try {
+            l.diario.confirmar(l.registo);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                saldo -= l.getDesconto();
+                cupoes.addAll(l.removidos());
+                for (ProdutoVendido pv : l.linhas())
+                    pv.setCupao(null);
             }
+            throw e;
         }
     }
-    
-    atualizarCupoes();
-    ativo = false;
-}
+
+    /**
+     * Usar o cartão numa venda colunar (ver usar(Venda)). Não cria nenhum
+     * objeto por produto.
+     * 
+     * @param v a venda onde usar o cartão
+     * @throws IllegalStateException se o cartão não estiver ativo
+     */
+    public void usar(VendaColunar v) {
+        usar(v, ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Usar o cartão numa venda colunar, verificando a validade dos cupões na
+     * data do contexto dado (ver usar(Venda)).
+     * 
+     * @param v   a venda onde usar o cartão
+     * @param ctx o contexto com a data da venda
+     * @throws IllegalStateException se o cartão não estiver ativo
+     */
+    public void usar(VendaColunar v, ContextoAvaliacao ctx) {
+        long inicio = Metricas.USAR.inicio();
+        BitSet linhas = new BitSet();
+        Liquidacao l;
+        synchronized (this) {
+            if (!estaAtivo())
+                throw new IllegalStateException();
+
+            int dia = ctx.getDia();
+            long descontoAntes = v.getTotalDesconto();
+            List<Cupao> removidos = new ArrayList<>();
+            int n = v.getNumeroLinhas();
+            for (int i = 0; i < n; i++) {
+                // Se produto já tem cupão, pular
+                if (v.getCupao(i) != null)
+                    continue;
+
+                Cupao c = indice == null ? null : indice.melhor(v.getProduto(i), dia);
+                if (c == null)
+                    continue;
+
+                v.setCupao(i, c);
+                linhas.set(i);
+                Metricas.acerto(c);
+                removerCupao(c, removidos);
+            }
+            if (indice != null)
+                Metricas.cupoesAvaliados(indice.retirarAvaliados());
+
+            // O crédito e os cupões removidos vão num só registo do diário
+            l = alterar(v.getTotalDesconto() - descontoAntes, removidos);
+            atualizarCupoes(ctx);
+            ativo = false;
+        }
+
+        try {
+            confirmar(l);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                for (int i = linhas.nextSetBit(0); i >= 0; i = linhas.nextSetBit(i + 1))
+                    v.setCupao(i, null);
+            }
+            throw e;
+        }
+        Metricas.saldoCreditado(l.getDesconto());
+        Metricas.USAR.registar(inicio);
+    }
 
     /**
      * Retorna uma lista com os cupões disponíveis. Os cupões disponíveis são
@@ -128,9 +437,20 @@ public class Cartao {
      * @return uma lista com os cupões disponíveis
      */
     public List<Cupao> getCupoesDisponiveis() {
+        return getCupoesDisponiveis(ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Retorna uma lista com os cupões válidos na data do contexto dado.
+     * 
+     * @param ctx o contexto com a data a considerar
+     * @return uma lista com os cupões disponíveis
+     */
+    public List<Cupao> getCupoesDisponiveis(ContextoAvaliacao ctx) {
+        int dia = ctx.getDia();
         ArrayList<Cupao> disponiveis = new ArrayList<>();
         for (Cupao c : cupoes)
-            if (c.estaValido())
+            if (c.estaValido(dia))
                 disponiveis.add(c);
         return disponiveis;
     }
@@ -142,9 +462,20 @@ public class Cartao {
      * @return uma lista com os cupões que estarão disponíveis no futuro
      */
     public List<Cupao> getCupoesFuturos() {
+        return getCupoesFuturos(ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Retorna uma lista com os cupões cujo início é após a data do contexto dado.
+     * 
+     * @param ctx o contexto com a data a considerar
+     * @return uma lista com os cupões que estarão disponíveis no futuro
+     */
+    public List<Cupao> getCupoesFuturos(ContextoAvaliacao ctx) {
+        int dia = ctx.getDia();
         ArrayList<Cupao> res = new ArrayList<>();
         for (Cupao c : cupoes)
-            if (c.getInicio().isAfter(LocalDate.now()))
+            if (c.getInicioDia() > dia)
                 res.add(c);
         return res;
     }
@@ -153,12 +484,25 @@ public class Cartao {
      * Atualiza os cupões, removendo os que já passaram de validade
      */
     public void atualizarCupoes() {
+        atualizarCupoes(ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Atualiza os cupões, removendo os que já passaram de validade na data do
+     * contexto dado
+     * 
+     * @param ctx o contexto com a data a considerar
+     */
+    public synchronized void atualizarCupoes(ContextoAvaliacao ctx) {
+        int dia = ctx.getDia();
         for (int i = cupoes.size() - 1; i >= 0; i--) {
             Cupao c = cupoes.get(i);
-            if (c.getFim().isBefore(LocalDate.now()))
+            if (c.getFimDia() < dia)
                 cupoes.remove(i);
         }
+        cancelarSessao();
         cupoesAtivos.clear();
+        indice = null;
     }
 
     /**
@@ -168,9 +512,13 @@ public class Cartao {
      */
     public void reduzirSaldo(long gasto) {
         Validator.requirePositiveOrZero(gasto);
-        if (gasto > saldo)
-            throw new IllegalArgumentException();
-        saldo -= gasto;
+        Liquidacao l;
+        synchronized (this) {
+            if (gasto > saldo)
+                throw new IllegalArgumentException();
+            l = alterar(-gasto, List.of());
+        }
+        confirmar(l);
     }
 
     /**
@@ -180,7 +528,86 @@ public class Cartao {
      */
     public void acumularSaldo(long valor) {
         Validator.requirePositiveOrZero(valor);
-        saldo += valor;
+        Liquidacao l;
+        synchronized (this) {
+            l = alterar(valor, List.of());
+        }
+        confirmar(l);
+    }
+
+    // ========================================================================
+    // DIÁRIO
+    // ========================================================================
+
+    /**
+     * Liga o cartão a um diário: a partir daqui as mudanças de saldo e os
+     * cupões removidos são registados nele.
+     * 
+     * @param d o diário (null para desligar)
+     */
+    public synchronized void ligarDiario(DiarioCartao d) {
+        diario = d;
+    }
+
+    /**
+     * Retorna o número do último registo deste cartão no diário.
+     * 
+     * @return o número de sequência (0 se nunca foi registado nada)
+     */
+    public synchronized long getUltimoRegisto() {
+        return ultimoRegisto;
+    }
+
+    /**
+     * Define o número do último registo já refletido neste cartão. Usado ao
+     * ler um instantâneo ou ao repor o diário.
+     * 
+     * @param registo o número de sequência
+     */
+    public synchronized void setUltimoRegisto(long registo) {
+        ultimoRegisto = registo;
+    }
+
+    /**
+     * Remove um cupão da carteira e, se estava lá, junta-o aos removidos
+     * (a registar no diário). Um cupão ativado antes de ser substituído
+     * (ver substituirCupoes()) já não está na carteira: nesse caso
+     * remove-se a versão com o mesmo número.
+     */
+    private void removerCupao(Cupao c, List<Cupao> removidos) {
+        if (cupoes.remove(c)) {
+            removidos.add(c);
+            return;
+        }
+        for (Cupao atual : cupoes)
+            if (atual.getNumero().equals(c.getNumero())) {
+                if (cupoes.remove(atual))
+                    removidos.add(atual);
+                return;
+            }
+    }
+
+    /**
+     * Regista uma alteração no diário, num só registo.
+     * 
+     * @return o número do registo (0 se não há diário ou nada a registar)
+     */
+    private long registar(long diferenca, List<Cupao> removidos) {
+        if (diario == null || (diferenca == 0 && removidos.isEmpty()))
+            return 0;
+        ultimoRegisto = diario.alterado(this, diferenca, removidos);
+        return ultimoRegisto;
+    }
+
+    /**
+     * Muda o saldo e regista a alteração no diário, com o lock do cartão.
+     * O resultado é depois passado a confirmar(), já sem o lock: com várias
+     * caixas a confirmar ao mesmo tempo, a mesma escrita serve para todas.
+     */
+    private Liquidacao alterar(long diferenca, List<Cupao> removidos) {
+        Liquidacao l = new Liquidacao(diferenca, removidos, List.of());
+        creditar(l);
+        return l;
     }
 
 }
@@ -0,0 +1,76 @@
+package cliente;
+
+import java.time.LocalDate;
+
+/**
+ * Contexto de avaliação dos cupões numa venda (ou numa consulta à carteira).
+ *
+ * PORQUÊ?
+ * Verificar a validade de um cupão com LocalDate.now() obriga a ler o
+ * relógio, consultar o fuso horário e criar um objeto, e isso era feito
+ * para CADA par produto x cupão. O contexto captura a data do negócio UMA
+ * vez, como número de dias desde 1970-01-01 (epoch day), e é passado a
+ * todas as verificações, que passam a ser duas comparações de inteiros.
+ *
+ * Também garante que toda a venda usa a mesma data, mesmo que decorra
+ * durante a meia-noite.
+ *
+ * EXEMPLO DE USO:
+ *   ContextoAvaliacao ctx = ContextoAvaliacao.hoje();
+ *   cartao.usar(venda, ctx);
+ *   cartao.getCupoesDisponiveis(ctx);
+ */
+public final class ContextoAvaliacao {
+
+    /** Data do negócio */
+    private final LocalDate data;
+
+    /** Data do negócio em epoch days */
+    private final int dia;
+
+    private ContextoAvaliacao(LocalDate data) {
+        this.data = data;
+        this.dia = Math.toIntExact(data.toEpochDay());
+    }
+
+    /**
+     * Cria um contexto com a data de hoje (lê o relógio uma única vez).
+     *
+     * @return o contexto para o dia de hoje
+     */
+    public static ContextoAvaliacao hoje() {
+        return new ContextoAvaliacao(LocalDate.now());
+    }
+
+    /**
+     * Cria um contexto para uma data específica.
+     *
+     * @param data a data do negócio
+     * @return o contexto para essa data
+     * @throws NullPointerException se a data for null
+     */
+    public static ContextoAvaliacao naData(LocalDate data) {
+        return new ContextoAvaliacao(data);
+    }
+
+    /**
+     * Retorna a data do negócio.
+     * @return a data
+     */
+    public LocalDate getData() {
+        return data;
+    }
+
+    /**
+     * Retorna a data do negócio em epoch days.
+     * @return o número de dias desde 1970-01-01
+     */
+    public int getDia() {
+        return dia;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextoAvaliacao[" + data + "]";
+    }
+}
@@ -2,7 +2,9 @@ package cliente;
 
 import java.time.LocalDate;
 
+import comercio.ProdutoInfo;
 import comercio.ProdutoVendido;
+import util.PontosBase;
 import util.Validator;
 
 /**
@@ -44,7 +46,7 @@ import util.Validator;
  * CAMPOS COMUNS (protected):
  * - numero: identificação única do cupão
  * - resumo: descrição curta
- * - desconto: percentagem (0.0 a 1.0)
+ * - desconto: percentagem em pontos base (0 a 10000)
  * - inicio, fim: período de validade
  * 
  * MÉTODOS CONCRETOS (com implementação):
@@ -90,30 +92,34 @@ public abstract class Cupao {
     private String resumo;
     
     /**
-     * Percentagem de desconto como decimal.
+     * Percentagem de desconto em pontos base (ver util.PontosBase).
      * 
      * IMPORTANTE:
-     * - Armazenado como 0.0 a 1.0 (não como 0 a 100)
-     * - 0.15 = 15%
-     * - 0.10 = 10%
-     * - 1.00 = 100%
+     * - Armazenado como 0 a 10000 (1 ponto base = 0,01%)
+     * - 1500 = 15%
+     * - 1000 = 10%
+     * - 10000 = 100%
      * 
-     * Para mostrar: desconto * 100
-     * Para calcular: preco * desconto
+     * Para mostrar: PontosBase.formatarPercentagem(desconto)
+     * Para calcular: calcularDesconto(preco), sem vírgula flutuante
      */
-    private float desconto;
+    private int desconto;
     
     /**
-     * Data de início da validade do cupão.
+     * Data de início da validade do cupão, em epoch days
+     * (dias desde 1970-01-01).
      * Cupão só pode ser usado se data atual >= inicio
+     * 
+     * Guardado como int para que a verificação de validade seja
+     * uma simples comparação de inteiros.
      */
-    private LocalDate inicio;
+    private int inicio;
     
     /**
-     * Data de fim da validade do cupão.
+     * Data de fim da validade do cupão, em epoch days.
      * Cupão só pode ser usado se data atual <= fim
      */
-    private LocalDate fim;
+    private int fim;
 
     // ========================================================================
     // CONSTRUTOR PROTEGIDO
@@ -161,15 +167,15 @@ public abstract class Cupao {
             throw new IllegalArgumentException(
                 "Desconto deve estar entre 0 e 1 (0% a 100%)");
         }
-        this.desconto = desconto;
+        this.desconto = PontosBase.deFracao(desconto);
 
         // Validação 4: Data início antes ou igual a data fim
         if (inicio.isAfter(fim)) {
             throw new IllegalArgumentException(
                 "Data de início deve ser antes ou igual a data de fim");
         }
-        this.inicio = inicio;
-        this.fim = fim;
+        this.inicio = Math.toIntExact(inicio.toEpochDay());
+        this.fim = Math.toIntExact(fim.toEpochDay());
     }
      
     // ========================================================================
@@ -195,21 +201,41 @@ public abstract class Cupao {
     /**
      * Retorna o desconto como decimal (0.0 a 1.0).
      * 
-     * Para mostrar percentagem: getDesconto() * 100
-     * Para calcular valor: preco * getDesconto()
+     * Mantido por compatibilidade. Para calcular valores usar
+     * calcularDesconto(), que não usa vírgula flutuante.
      * 
      * @return o desconto (0.15 = 15%, 0.10 = 10%)
      */
     public float getDesconto() {
+        return PontosBase.paraFracao(desconto);
+    }
+
+    /**
+     * Retorna o desconto em pontos base.
+     * 
+     * @return o desconto (1500 = 15%, 1000 = 10%)
+     */
+    public int getDescontoPb() {
         return desconto;
     }
 
+    /**
+     * Calcula o valor do desconto deste cupão sobre um preço, em aritmética
+     * inteira e arredondado por defeito ao cêntimo (ver PontosBase.aplicar).
+     * 
+     * @param preco o preço em cêntimos
+     * @return o valor do desconto em cêntimos
+     */
+    public long calcularDesconto(long preco) {
+        return PontosBase.aplicar(preco, desconto);
+    }
+
     /**
      * Retorna a data de início da validade.
      * @return a data de início
      */
     public LocalDate getInicio() {
-        return inicio;
+        return LocalDate.ofEpochDay(inicio);
     }
 
     /**
@@ -217,6 +243,22 @@ public abstract class Cupao {
      * @return a data de fim
      */
     public LocalDate getFim() {
+        return LocalDate.ofEpochDay(fim);
+    }
+
+    /**
+     * Retorna a data de início da validade em epoch days.
+     * @return o dia de início
+     */
+    public int getInicioDia() {
+        return inicio;
+    }
+
+    /**
+     * Retorna a data de fim da validade em epoch days.
+     * @return o dia de fim
+     */
+    public int getFimDia() {
         return fim;
     }
 
@@ -239,6 +281,9 @@ public abstract class Cupao {
      * IMPLEMENTAÇÃO:
      * Chama estaValido(LocalDate.now()) para verificar hoje
      * 
+     * ATENÇÃO: lê o relógio em cada chamada. Para verificar muitos cupões
+     * usar estaValido(ContextoAvaliacao.hoje().getDia()) com o mesmo contexto.
+     * 
      * @return true se o cupão está válido hoje, false caso contrário
      */
     public boolean estaValido() {
@@ -253,20 +298,27 @@ public abstract class Cupao {
      * - data >= inicio E data <= fim
      * 
      * IMPLEMENTAÇÃO:
-     * - !data.isBefore(inicio) é o mesmo que data >= inicio
-     * - !data.isAfter(fim) é o mesmo que data <= fim
-     * 
-     * Por que usar ! (negação)?
-     * - LocalDate não tem >= ou <=
-     * - Tem isBefore() e isAfter()
-     * - Então usamos negação: "não é antes" = "é depois ou igual"
+     * Converte a data para epoch days e chama estaValido(int)
      * 
      * @param data a data a verificar
      * @return true se a data está dentro do período de validade
      */
     public boolean estaValido(LocalDate data) {
-        // data >= inicio  E  data <= fim
-        return !data.isBefore(inicio) && !data.isAfter(fim);
+        return estaValido(Math.toIntExact(data.toEpochDay()));
+    }
+
+    /**
+     * Verifica se o cupão está válido num dia dado em epoch days
+     * (ver ContextoAvaliacao.getDia()).
+     * 
+     * Como as datas estão guardadas como int, são só duas comparações.
+     * 
+     * @param dia o dia a verificar, em epoch days
+     * @return true se o dia está dentro do período de validade
+     */
+    public boolean estaValido(int dia) {
+        // dia >= inicio  E  dia <= fim
+        return dia >= inicio && dia <= fim;
     }
 
     // ========================================================================
@@ -286,11 +338,11 @@ public abstract class Cupao {
      * 
      * CupaoProdutos:
      *   - Verifica se produto está na lista de produtos abrangidos
-     *   - return abrangidos.contains(p.getInfo());
+     *   - return contem(p.getInfo());  (pesquisa O(1) por código de barras)
      * 
      * CupaoMarca:
      *   - Verifica se a marca do produto coincide com a marca do cupão
-     *   - return marca.equalsIgnoreCase(p.getInfo().getMarca());
+     *   - return p.getInfo().getMarcaId() == marcaId;
      * 
      * CupaoCompra:
      *   - Sempre retorna true (abrange todos os produtos)
@@ -310,5 +362,20 @@ public abstract class Cupao {
      */
     public abstract boolean abrange(ProdutoVendido p);
 
+    /**
+     * Verifica se este cupão abrange um produto do catálogo, sem precisar de
+     * um ProdutoVendido (usado pela VendaColunar, que não cria um objeto por
+     * produto).
+     * 
+     * Por omissão cria um ProdutoVendido temporário e chama abrange().
+     * As subclasses conhecidas redefinem-no sem criar objetos.
+     * 
+     * @param info o produto a verificar
+     * @return true se o cupão se aplica a este produto
+     */
+    public boolean abrange(ProdutoInfo info) {
+        return abrange(new ProdutoVendido(info, info.getPreco()));
+    }
+
    
     }
@@ -1,7 +1,9 @@
 package cliente;
 
 import java.time.LocalDate;
+import comercio.ProdutoInfo;
 import comercio.ProdutoVendido;
+import util.PontosBase;
 
 /**
  * Cupão que dá desconto em TODA a compra.
@@ -66,6 +68,11 @@ public class CupaoCompra extends Cupao{
         return true;
     }
 
+    @Override
+    public boolean abrange(ProdutoInfo info) {
+        return true;
+    }
+
      // ========================================================================
     // toString - Opcional, mas útil
     // ========================================================================
@@ -77,10 +84,10 @@ public class CupaoCompra extends Cupao{
      */
     @Override
     public String toString() {
-        return String.format("CupaoCompra[%s] %s - %.0f%%",
+        return String.format("CupaoCompra[%s] %s - %s",
             getNumero(),
             getResumo(),
-            getDesconto() * 100);
+            PontosBase.formatarPercentagem(getDescontoPb()));
     }
 }
     
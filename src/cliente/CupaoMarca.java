@@ -1,6 +1,8 @@
 package cliente;
 
 import java.time.LocalDate;
+import comercio.DicionarioMarcas;
+import comercio.ProdutoInfo;
 import comercio.ProdutoVendido;
 import util.Validator;
 /**
@@ -38,6 +40,12 @@ public class CupaoMarca extends Cupao {
      */
     private String marca;
 
+    /**
+     * Id da marca no DicionarioMarcas.
+     * Permite comparar marcas com uma simples comparação de inteiros.
+     */
+    private int marcaId;
+
 
      // ========================================================================
     // CONSTRUTOR
@@ -59,7 +67,8 @@ public class CupaoMarca extends Cupao {
      */
     public CupaoMarca(String numero, String resumo, float desconto, LocalDate inicio, LocalDate fim, String marca) {
         super(numero, resumo, desconto, inicio, fim);
-        this.marca = Validator.requireNonBlank(marca);
+        this.marcaId = DicionarioMarcas.codificar(Validator.requireNonBlank(marca));
+        this.marca = DicionarioMarcas.getNome(marcaId);
     }
 
        // ========================================================================
@@ -69,6 +78,10 @@ public class CupaoMarca extends Cupao {
         return marca;
     }
 
+    public int getMarcaId(){
+        return marcaId;
+    }
+
       // ========================================================================
     // IMPLEMENTAÇÃO DO MÉTODO ABSTRATO
     // ========================================================================
@@ -78,12 +91,13 @@ public class CupaoMarca extends Cupao {
      * 
      * LÓGICA:
      * Compara a marca do produto com a marca do cupão.
-     * Usa equalsIgnoreCase() para ignorar maiúsculas/minúsculas.
+     * As marcas estão codificadas no DicionarioMarcas (que já ignora
+     * maiúsculas/minúsculas), por isso basta comparar os ids.
      * 
      * FLUXO:
      * 1. Valida se produto não é null
-     * 2. Obtém marca do produto
-     * 3. Compara com marca do cupão (ignorando capitalização)
+     * 2. Obtém o id da marca do produto
+     * 3. Compara com o id da marca do cupão
      * 
      * EXEMPLOS:
      * Cupão tem marca "Albicereal":
@@ -101,8 +115,12 @@ public class CupaoMarca extends Cupao {
             return false;
         }
 
-        String marcaProduto = p.getInfo().getMarca();
-        return this.marca.equalsIgnoreCase(marcaProduto);
+        return p.getInfo().getMarcaId() == marcaId;
+    }
+
+    @Override
+    public boolean abrange(ProdutoInfo info) {
+        return info != null && info.getMarcaId() == marcaId;
     }
     
     
@@ -3,8 +3,11 @@ package cliente;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import comercio.ProdutoInfo;
 import comercio.ProdutoVendido;
@@ -28,12 +31,23 @@ public class CupaoProdutos extends Cupao {
     // ========================================================================
     
     /**
-     * Lista de produtos abrangidos por este cupão.
+     * Produtos abrangidos por este cupão, indexados pelo código de barras.
      * 
      * ÚNICO CAMPO DESTA CLASSE!
      * Os outros (numero, resumo, desconto, inicio, fim) estão no PAI.
+     * 
+     * PORQUÊ UM MAPA?
+     * - Verificar se um produto está abrangido é O(1), mesmo com milhares
+     *   de produtos no cupão (numa lista era uma pesquisa linear)
+     * - Códigos repetidos no ficheiro de cupões ficam só uma vez
+     * - LinkedHashMap mantém a ordem de inserção para getAbrangidos()
+     * 
+     * CONCORRÊNCIA:
+     * O mapa nunca é alterado depois de publicado: addProduto/removeProduto
+     * criam uma cópia e trocam a referência (volatile). Assim as caixas
+     * verificam produtos sem locks enquanto o cupão é alterado.
      */
-    private List<ProdutoInfo> abrangidos = new ArrayList<>();
+    private volatile Map<String, ProdutoInfo> abrangidos = new LinkedHashMap<>();
 
      // ========================================================================
     // CONSTRUTORES
@@ -51,7 +65,11 @@ public class CupaoProdutos extends Cupao {
      */
     public CupaoProdutos(String numero, String resumo, List<ProdutoInfo> abrangidos, float desconto, LocalDate inicio, LocalDate fim) {
         super(numero, resumo, desconto, inicio, fim);
-        this.abrangidos.addAll(abrangidos);
+        Map<String, ProdutoInfo> mapa = new LinkedHashMap<>();
+        for (ProdutoInfo p : abrangidos)
+            if (p != null)
+                mapa.put(p.getCodigoBarras(), p);
+        this.abrangidos = mapa;
     }
 
      /**
@@ -71,15 +89,47 @@ public class CupaoProdutos extends Cupao {
       // ========================================================================
     // MÉTODOS PARA GERIR PRODUTOS
     // ========================================================================
-    public void addProduto(ProdutoInfo p){
-        abrangidos.add(Objects.requireNonNull(p));
+    public synchronized void addProduto(ProdutoInfo p){
+        Map<String, ProdutoInfo> copia = new LinkedHashMap<>(abrangidos);
+        copia.put(Objects.requireNonNull(p).getCodigoBarras(), p);
+        abrangidos = copia;
     }
-    public void removeProduto(ProdutoInfo p){
-        abrangidos.remove(p);
+    public synchronized void removeProduto(ProdutoInfo p){
+        if (p == null || !abrangidos.containsKey(p.getCodigoBarras()))
+            return;
+        Map<String, ProdutoInfo> copia = new LinkedHashMap<>(abrangidos);
+        copia.remove(p.getCodigoBarras());
+        abrangidos = copia;
     }
 
+    /**
+     * Retorna a lista (sem repetidos) dos produtos abrangidos, pela ordem em
+     * que foram adicionados.
+     * 
+     * @return lista não modificável dos produtos abrangidos
+     */
     public List<ProdutoInfo> getAbrangidos() {
-        return Collections.unmodifiableList(abrangidos);
+        return Collections.unmodifiableList(new ArrayList<>(abrangidos.values()));
+    }
+
+    /**
+     * Retorna os códigos de barras dos produtos abrangidos.
+     * 
+     * @return conjunto não modificável dos códigos abrangidos
+     */
+    public Set<String> getCodigosAbrangidos() {
+        return Collections.unmodifiableSet(abrangidos.keySet());
+    }
+
+    /**
+     * Verifica se um produto está na lista de abrangidos (pesquisa O(1) pelo
+     * código de barras).
+     * 
+     * @param p o produto a verificar
+     * @return true se o produto está abrangido
+     */
+    public boolean contem(ProdutoInfo p) {
+        return p != null && abrangidos.containsKey(p.getCodigoBarras());
     }
 
 
@@ -104,8 +154,19 @@ public class CupaoProdutos extends Cupao {
      */
     @Override
     public boolean abrange(ProdutoVendido p) {
-        return (p.getCupao() == null || p.getCupao().getDesconto() < getDesconto())
-        && abrangidos.contains(p.getInfo());
+        return (p.getCupao() == null || p.getCupao().getDescontoPb() < getDescontoPb())
+        && contem(p.getInfo());
+    }
+
+    /**
+     * Verifica se o produto do catálogo está na lista de abrangidos.
+     * 
+     * @param info o produto a verificar
+     * @return true se cupão abrange o produto
+     */
+    @Override
+    public boolean abrange(ProdutoInfo info) {
+        return contem(info);
     }
 
      // ========================================================================
@@ -122,7 +183,7 @@ public class CupaoProdutos extends Cupao {
     public boolean aplicar(Cartao c, ProdutoVendido p) {
     if (!abrange(p))
         return false;
-    c.acumularSaldo((long) (p.getPreco() * this.getDesconto()));
+    c.acumularSaldo(this.calcularDesconto(p.getPreco()));
     //                                      ↑
     //                          ESTE cupão (this)
     p.setCupao(this);
@@ -0,0 +1,38 @@
+package cliente;
+
+import java.util.List;
+
+/**
+ * Diário onde um cartão regista as alterações que não podem ser perdidas:
+ * mudanças de saldo e cupões removidos da carteira.
+ *
+ * Cada registo recebe um número de sequência crescente. O cartão regista a
+ * alteração enquanto tem o seu lock (a ordem no diário é a ordem real) e
+ * depois chama confirmar(), que só retorna quando o registo está gravado
+ * em disco. Várias caixas a confirmar ao mesmo tempo partilham a mesma
+ * escrita (ver comercio.Diario).
+ *
+ * Uma alteração (por exemplo, um checkout: o crédito e os cupões gastos)
+ * é UM registo: ao repor o diário é aplicada toda ou não é aplicada.
+ */
+public interface DiarioCartao {
+
+    /**
+     * Regista uma alteração a um cartão, num só registo.
+     *
+     * @param c o cartão
+     * @param diferenca valor acumulado (positivo) ou gasto (negativo), em cêntimos
+     * @param removidos os cupões removidos da carteira (pode ser vazia)
+     * @return o número de sequência do registo
+     */
+    long alterado(Cartao c, long diferenca, List<Cupao> removidos);
+
+    /**
+     * Espera até que o registo com o número dado (e todos os anteriores)
+     * esteja gravado em disco.
+     *
+     * @param registo o número de sequência
+     * @throws java.io.UncheckedIOException se a gravação falhou
+     */
+    void confirmar(long registo);
+}
@@ -0,0 +1,178 @@
+package cliente;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import comercio.ProdutoInfo;
+import comercio.ProdutoVendido;
+
+/**
+ * Índice dos cupões ativos de um cartão, construído no momento da ativação.
+ *
+ * PORQUÊ UM ÍNDICE?
+ * Sem índice, cada produto vendido é comparado com TODOS os cupões ativos
+ * (produtos x cupões chamadas a abrange()). Com o índice, cada produto
+ * é resolvido com poucas pesquisas em HashMap:
+ * - código de barras → cupões de produtos que o abrangem
+ * - id da marca (DicionarioMarcas) → cupões de marca, num array
+ * - lista separada com os cupões de compra (abrangem tudo)
+ *
+ * ORDEM:
+ * Os cupões são guardados pela sua posição (rank) na lista ordenada por
+ * desconto (MAIOR primeiro). Cada entrada do índice guarda os ranks por
+ * ordem crescente, por isso o melhor cupão de cada entrada é o primeiro
+ * que estiver válido. Em caso de empate no desconto ganha o que foi
+ * ativado primeiro, tal como na pesquisa linear original.
+ */
+class IndiceCupoes {
+
+    private static final int[] VAZIO = new int[0];
+
+    /** Cupões ativos, ordenados por desconto (maior primeiro). */
+    private final Cupao[] ordenados;
+
+    /** código de barras → ranks dos CupaoProdutos que abrangem o produto */
+    private final Map<String, int[]> porProduto = new HashMap<>();
+
+    /** id da marca → ranks dos CupaoMarca dessa marca (ids são densos) */
+    private final int[][] porMarca;
+
+    /** ranks dos CupaoCompra */
+    private final int[] compra;
+
+    /** ranks de outros tipos de cupão, avaliados com abrange() */
+    private final int[] outros;
+
+    /**
+     * Cupões avaliados desde o último retirarAvaliados() (ver Metricas).
+     * Um int simples: o índice só é usado por uma thread de cada vez (a
+     * que tem o lock do cartão, ou a da venda numa sessão de checkout).
+     */
+    private int avaliados;
+
+    /**
+     * Constrói o índice para uma lista de cupões já ordenada por desconto.
+     *
+     * @param ativos cupões ativos, do maior para o menor desconto
+     */
+    IndiceCupoes(List<Cupao> ativos) {
+        ordenados = ativos.toArray(new Cupao[0]);
+
+        Map<String, List<Integer>> produtos = new HashMap<>();
+        Map<Integer, List<Integer>> marcas = new HashMap<>();
+        List<Integer> compras = new ArrayList<>();
+        List<Integer> restantes = new ArrayList<>();
+
+        for (int rank = 0; rank < ordenados.length; rank++) {
+            Cupao c = ordenados[rank];
+            if (c instanceof CupaoProdutos) {
+                // Os códigos já vêm sem repetidos (ver CupaoProdutos)
+                for (String codigo : ((CupaoProdutos) c).getCodigosAbrangidos())
+                    produtos.computeIfAbsent(codigo, k -> new ArrayList<>()).add(rank);
+            } else if (c instanceof CupaoMarca) {
+                marcas.computeIfAbsent(((CupaoMarca) c).getMarcaId(), k -> new ArrayList<>()).add(rank);
+            } else if (c instanceof CupaoCompra) {
+                compras.add(rank);
+            } else {
+                restantes.add(rank);
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> e : produtos.entrySet())
+            porProduto.put(e.getKey(), paraArray(e.getValue()));
+        int maiorMarca = -1;
+        for (int id : marcas.keySet())
+            maiorMarca = Math.max(maiorMarca, id);
+        porMarca = new int[maiorMarca + 1][];
+        for (Map.Entry<Integer, List<Integer>> e : marcas.entrySet())
+            porMarca[e.getKey()] = paraArray(e.getValue());
+        compra = paraArray(compras);
+        outros = paraArray(restantes);
+    }
+
+    /**
+     * Retorna o melhor cupão válido que abrange o produto, isto é, o de maior
+     * desconto (e, em caso de empate, o ativado primeiro).
+     *
+     * @param pv o produto vendido
+     * @param dia o dia da venda, em epoch days (ver ContextoAvaliacao)
+     * @return o melhor cupão, ou null se nenhum se aplica
+     */
+    Cupao melhor(ProdutoVendido pv, int dia) {
+        return melhor(pv.getInfo(), pv, dia);
+    }
+
+    /**
+     * Igual a melhor(ProdutoVendido, int), mas a partir do produto do
+     * catálogo (usado pela VendaColunar).
+     *
+     * @param info o produto
+     * @param dia o dia da venda, em epoch days (ver ContextoAvaliacao)
+     * @return o melhor cupão, ou null se nenhum se aplica
+     */
+    Cupao melhor(ProdutoInfo info, int dia) {
+        return melhor(info, null, dia);
+    }
+
+    private Cupao melhor(ProdutoInfo info, ProdutoVendido pv, int dia) {
+        int melhor = ordenados.length;
+
+        if (info != null) {
+            melhor = primeiroValido(porProduto.getOrDefault(info.getCodigoBarras(), VAZIO), melhor, dia);
+            int marca = info.getMarcaId();
+            if (marca < porMarca.length && porMarca[marca] != null)
+                melhor = primeiroValido(porMarca[marca], melhor, dia);
+        }
+        melhor = primeiroValido(compra, melhor, dia);
+
+        // Tipos de cupão desconhecidos: pesquisa linear com abrange()
+        for (int rank : outros) {
+            if (rank >= melhor)
+                break;
+            Cupao c = ordenados[rank];
+            avaliados++;
+            if (c.estaValido(dia) && (pv != null ? c.abrange(pv) : c.abrange(info))) {
+                melhor = rank;
+                break;
+            }
+        }
+
+        return melhor < ordenados.length ? ordenados[melhor] : null;
+    }
+
+    /**
+     * Procura o primeiro cupão válido de uma entrada do índice com rank
+     * inferior ao melhor encontrado até agora.
+     */
+    private int primeiroValido(int[] ranks, int melhor, int dia) {
+        for (int rank : ranks) {
+            if (rank >= melhor)
+                break;
+            avaliados++;
+            if (ordenados[rank].estaValido(dia))
+                return rank;
+        }
+        return melhor;
+    }
+
+    /**
+     * Retorna quantos cupões foram avaliados desde a última chamada e
+     * volta a contar do zero.
+     *
+     * @return o número de cupões avaliados
+     */
+    int retirarAvaliados() {
+        int n = avaliados;
+        avaliados = 0;
+        return n;
+    }
+
+    private static int[] paraArray(List<Integer> lista) {
+        int[] res = new int[lista.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = lista.get(i);
+        return res;
+    }
+}
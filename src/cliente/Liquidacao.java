@@ -0,0 +1,82 @@
+package cliente;
+
+import java.util.Collections;
+import java.util.List;
+
+import comercio.ProdutoVendido;
+
+/**
+ * O resultado de aplicar os cupões de um cartão a uma venda
+ * (Cartao.aplicarCupoes()): o desconto a acumular no saldo, os cupões
+ * retirados da carteira e as linhas da venda que receberam cupão.
+ *
+ * UMA UNIDADE NO DIÁRIO:
+ * Cartao.creditar() acumula o desconto e regista o crédito e as remoções
+ * dos cupões num só registo do diário: depois de um crash, ao repor o
+ * diário, o checkout aparece todo ou não aparece. Se a gravação falhar,
+ * Cartao.confirmar() desfaz a liquidação (saldo, carteira e cupões das
+ * linhas), para que o cartão continue igual ao que está em disco.
+ *
+ * EXEMPLO DE USO (o que Cartao.usar() faz, em passos separados):
+ *   Liquidacao l;
+ *   synchronized (cartao) {
+ *       l = cartao.aplicarCupoes(venda, ctx);
+ *       cartao.creditar(l);
+ *   }
+ *   cartao.confirmar(l);   // espera pelo disco sem o lock do cartão
+ */
+public final class Liquidacao {
+
+    private final long desconto;
+    private final List<Cupao> removidos;
+    private final List<ProdutoVendido> linhas;
+
+    // Escritos por Cartao.creditar(), com o lock do cartão
+    DiarioCartao diario;
+    long registo;
+    boolean creditada;
+
+    Liquidacao(long desconto, List<Cupao> removidos, List<ProdutoVendido> linhas) {
+        this.desconto = desconto;
+        this.removidos = removidos;
+        this.linhas = linhas;
+    }
+
+    /**
+     * Retorna o desconto a acumular no saldo.
+     *
+     * @return o desconto em cêntimos
+     */
+    public long getDesconto() {
+        return desconto;
+    }
+
+    /**
+     * Retorna os cupões retirados da carteira.
+     *
+     * @return lista não modificável dos cupões removidos
+     */
+    public List<Cupao> getCupoesRemovidos() {
+        return Collections.unmodifiableList(removidos);
+    }
+
+    /**
+     * Retorna o número do registo no diário.
+     *
+     * @return o número de sequência (0 se ainda não foi creditada, ou se o
+     *         cartão não tem diário)
+     */
+    public long getRegisto() {
+        return registo;
+    }
+
+    /** Cupões a devolver à carteira se a liquidação for desfeita */
+    List<Cupao> removidos() {
+        return removidos;
+    }
+
+    /** Linhas a que esta liquidação deu cupão */
+    List<ProdutoVendido> linhas() {
+        return linhas;
+    }
+}
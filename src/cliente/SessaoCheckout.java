@@ -0,0 +1,198 @@
+package cliente;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import comercio.OuvinteVenda;
+import comercio.ProdutoVendido;
+import comercio.Venda;
+
+/**
+ * Sessão de checkout: aplica os cupões ativos de um cartão à medida que os
+ * produtos são passados na caixa.
+ *
+ * PORQUÊ?
+ * Sem sessão, todos os descontos são calculados de uma vez em Cartao.usar(),
+ * no momento em que o cliente paga. Com a sessão, cada produto é avaliado
+ * logo que entra na venda (Inventario.vendeProduto → Venda → sessão) e o
+ * pagamento só tem de acumular o saldo e remover os cupões usados.
+ *
+ * FUNCIONAMENTO:
+ * - Criada por Cartao.ativar(cupoes, venda), fica como OuvinteVenda da venda
+ * - Linha nova sem cupão → procura o melhor cupão no índice e aplica-o
+ * - Mudança de quantidade / remoção de linha → acerta o desconto previsto
+ *   e o número de usos de cada cupão. Um cupão cujas linhas foram todas
+ *   removidas deixa de contar como usado
+ * - Cartao.usar(venda) liquida a sessão: acumula getDescontoPrevisto()
+ *   e remove do cartão os cupões de getCupoesUsados()
+ *
+ * Como cada cupão abrange um produto independentemente dos outros produtos
+ * da venda, o melhor cupão de uma linha nunca muda por causa de outra linha.
+ *
+ * EXEMPLO DE USO:
+ *   SessaoCheckout s = cartao.ativar(cupoes, venda);
+ *   inventario.vendeProduto(venda, "202-006");
+ *   s.getDescontoPrevisto();   // já inclui o desconto da massa
+ *   cartao.usar(venda);        // só liquida
+ */
+public class SessaoCheckout implements OuvinteVenda {
+
+    private final Venda venda;
+    private final IndiceCupoes indice;
+    private final ContextoAvaliacao ctx;
+
+    /** Linhas a que esta sessão aplicou um cupão */
+    private final Map<ProdutoVendido, Cupao> aplicados = new IdentityHashMap<>();
+
+    /** Número de unidades em que cada cupão foi aplicado pela sessão */
+    private final Map<Cupao, Integer> usos = new HashMap<>();
+
+    /** Soma dos descontos aplicados pela sessão (em cêntimos) */
+    private long descontoPrevisto;
+
+    private boolean aberta = true;
+
+    /**
+     * Cria a sessão e aplica já os cupões às linhas que a venda tiver.
+     *
+     * @param venda a venda a acompanhar
+     * @param indice índice dos cupões ativos
+     * @param ctx contexto com a data da venda
+     */
+    SessaoCheckout(Venda venda, IndiceCupoes indice, ContextoAvaliacao ctx) {
+        this.venda = venda;
+        this.indice = indice;
+        this.ctx = ctx;
+        for (ProdutoVendido linha : venda.getItems())
+            linhaAdicionada(linha);
+        venda.setOuvinte(this);
+    }
+
+    // ========================================================================
+    // OUVINTE DA VENDA
+    // ========================================================================
+
+    @Override
+    public void linhaAdicionada(ProdutoVendido linha) {
+        if (!aberta || linha.getCupao() != null)
+            return;
+        Cupao c = indice.melhor(linha, ctx.getDia());
+        if (c == null)
+            return;
+        linha.setCupao(c);
+        aplicados.put(linha, c);
+        registar(linha, c, linha.getQuantidade());
+    }
+
+    @Override
+    public void quantidadeAlterada(ProdutoVendido linha, int diferenca) {
+        Cupao c = aplicados.get(linha);
+        if (aberta && c != null)
+            registar(linha, c, diferenca);
+    }
+
+    @Override
+    public void linhaRemovida(ProdutoVendido linha) {
+        Cupao c = aplicados.remove(linha);
+        if (aberta && c != null)
+            registar(linha, c, -linha.getQuantidade());
+    }
+
+    @Override
+    public boolean acompanha(ProdutoVendido linha) {
+        return aberta && aplicados.get(linha) == linha.getCupao();
+    }
+
+    private void registar(ProdutoVendido linha, Cupao c, int n) {
+        descontoPrevisto += n * c.calcularDesconto(linha.getPreco());
+        usos.merge(c, n, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    // ========================================================================
+    // CONSULTAS
+    // ========================================================================
+
+    /**
+     * Retorna a venda acompanhada por esta sessão.
+     * @return a venda
+     */
+    public Venda getVenda() {
+        return venda;
+    }
+
+    /**
+     * Retorna o contexto (data) com que os cupões são avaliados.
+     * @return o contexto
+     */
+    public ContextoAvaliacao getContexto() {
+        return ctx;
+    }
+
+    /**
+     * Retorna o saldo que o cartão vai acumular se a venda terminar agora.
+     * @return o desconto previsto em cêntimos
+     */
+    public long getDescontoPrevisto() {
+        return descontoPrevisto;
+    }
+
+    /**
+     * Retorna os cupões que estão aplicados a pelo menos uma linha.
+     * @return conjunto não modificável dos cupões usados
+     */
+    public Set<Cupao> getCupoesUsados() {
+        return Collections.unmodifiableSet(usos.keySet());
+    }
+
+    /**
+     * Retorna as linhas que ainda têm o cupão aplicado por esta sessão.
+     * @return as linhas
+     */
+    List<ProdutoVendido> getLinhas() {
+        List<ProdutoVendido> linhas = new ArrayList<>(aplicados.size());
+        for (Map.Entry<ProdutoVendido, Cupao> e : aplicados.entrySet())
+            if (e.getKey().getCupao() == e.getValue())
+                linhas.add(e.getKey());
+        return linhas;
+    }
+
+    /**
+     * Indica se a sessão ainda está a acompanhar a venda.
+     * @return true se está aberta
+     */
+    public boolean estaAberta() {
+        return aberta;
+    }
+
+    // ========================================================================
+    // FECHO
+    // ========================================================================
+
+    /**
+     * Fecha a sessão depois de liquidada: os cupões ficam nas linhas.
+     */
+    void fechar() {
+        aberta = false;
+        if (venda.getOuvinte() == this)
+            venda.setOuvinte(null);
+    }
+
+    /**
+     * Fecha a sessão sem liquidar: retira os cupões que aplicou às linhas,
+     * deixando a venda como estava antes da ativação.
+     */
+    void cancelar() {
+        fechar();
+        for (Map.Entry<ProdutoVendido, Cupao> e : aplicados.entrySet())
+            if (e.getKey().getCupao() == e.getValue())
+                e.getKey().setCupao(null);
+        aplicados.clear();
+        usos.clear();
+        descontoPrevisto = 0;
+    }
+}
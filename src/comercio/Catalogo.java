@@ -0,0 +1,192 @@
+package comercio;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Uma versão do catálogo de produtos: o conjunto de produtos (e preços)
+ * tal como estava num dado momento.
+ *
+ * IMUTÁVEL:
+ * Depois de publicada, uma versão nunca muda. Alterar o catálogo (adicionar
+ * ou remover produtos, mudar preços) cria uma versão NOVA, construída à
+ * parte a partir da anterior; o Inventario publica-a de uma só vez e as
+ * versões antigas continuam intactas para quem ainda as está a usar.
+ *
+ * PORQUÊ?
+ * - Quem lê (as caixas) nunca usa locks: basta ler a referência para a
+ *   versão atual e pesquisar nela
+ * - Uma venda fixa a versão com que começou (ver Venda.getCatalogo()), por
+ *   isso uma mudança de preços a meio nunca deixa um carrinho com metade
+ *   dos produtos a um preço e metade a outro
+ * - Cada linha da venda sabe de que versão veio o seu preço
+ *   (ProdutoVendido.getVersaoCatalogo())
+ *
+ * PREÇOS:
+ * Numa versão nova, um produto com preço alterado é um ProdutoInfo NOVO
+ * (ProdutoInfo.comPreco()); o antigo, que pertence às versões anteriores,
+ * não é tocado. Os produtos publicados num catálogo não devem ser alterados
+ * com ProdutoInfo.setPreco() (usar Inventario.alterarPrecos()).
+ *
+ * EXEMPLO:
+ *   Catalogo c = inventario.getCatalogo();
+ *   c.getVersao();              // 7
+ *   c.getProduto("202-006");    // preço da versão 7, sempre
+ */
+public final class Catalogo {
+
+    // ========================================================================
+    // CAMPOS
+    // ========================================================================
+
+    /** Número desta versão (a primeira, vazia, é a 1) */
+    private final long versao;
+
+    /** Produtos desta versão. Nunca é alterado depois de publicado */
+    private final RegistoProdutos produtos;
+
+    // ========================================================================
+    // CONSTRUTORES
+    // ========================================================================
+
+    /**
+     * Cria a primeira versão, sem produtos.
+     */
+    Catalogo() {
+        this(1, new RegistoProdutos());
+    }
+
+    private Catalogo(long versao, RegistoProdutos produtos) {
+        produtos.congelar();
+        this.versao = versao;
+        this.produtos = produtos;
+    }
+
+    // ========================================================================
+    // CONSULTAS
+    // ========================================================================
+
+    /**
+     * Retorna o número desta versão. Versões mais recentes têm números maiores.
+     *
+     * @return o número da versão
+     */
+    public long getVersao() {
+        return versao;
+    }
+
+    /**
+     * Retorna o produto com um dado código de barras nesta versão.
+     *
+     * @param codigoBarras o código de barras
+     * @return o produto, ou null se não existir nesta versão
+     */
+    public ProdutoInfo getProduto(String codigoBarras) {
+        return codigoBarras == null ? null : produtos.get(codigoBarras);
+    }
+
+    /**
+     * Retorna todos os produtos desta versão.
+     *
+     * @return coleção não modificável dos produtos
+     */
+    public Collection<ProdutoInfo> getProdutos() {
+        return Collections.unmodifiableCollection(produtos.valores());
+    }
+
+    /**
+     * Retorna o número de produtos desta versão.
+     *
+     * @return o número de produtos
+     */
+    public int getQuantidade() {
+        return produtos.size();
+    }
+
+    // ========================================================================
+    // NOVAS VERSÕES (usadas pelo Inventario)
+    // ========================================================================
+
+    /**
+     * Cria a versão seguinte com produtos adicionados (ou substituídos, se
+     * já existir um produto com o mesmo código).
+     *
+     * @param novos os produtos a adicionar
+     * @return a nova versão
+     */
+    Catalogo com(Collection<ProdutoInfo> novos) {
+        RegistoProdutos r = new RegistoProdutos(produtos);
+        for (ProdutoInfo p : novos)
+            r.put(p);
+        return new Catalogo(versao + 1, r);
+    }
+
+    /**
+     * Cria a versão seguinte sem os produtos com os códigos dados.
+     * Códigos que não existem são ignorados.
+     *
+     * @param codigos os códigos de barras a remover
+     * @return a nova versão
+     */
+    Catalogo sem(Collection<String> codigos) {
+        RegistoProdutos r = new RegistoProdutos(produtos);
+        for (String codigo : codigos)
+            r.remove(codigo);
+        return new Catalogo(versao + 1, r);
+    }
+
+    /**
+     * Cria a versão seguinte com produtos adicionados ou substituídos e
+     * outros removidos, de uma só vez (usado ao recarregar o ficheiro dos
+     * produtos).
+     *
+     * @param novos os produtos a adicionar ou substituir
+     * @param removidos os códigos de barras a remover
+     * @return a nova versão
+     */
+    Catalogo alterado(Collection<ProdutoInfo> novos, Collection<String> removidos) {
+        RegistoProdutos r = new RegistoProdutos(produtos);
+        for (String codigo : removidos)
+            r.remove(codigo);
+        for (ProdutoInfo p : novos)
+            r.put(p);
+        return new Catalogo(versao + 1, r);
+    }
+
+    /**
+     * Cria a versão seguinte com preços alterados. Cada produto alterado é
+     * copiado com o novo preço; os desta versão ficam como estavam.
+     *
+     * @param precos novo preço (em cêntimos) de cada código de barras
+     * @return a nova versão
+     * @throws IllegalArgumentException se algum código não existir ou algum
+     *         preço for negativo (nesse caso não é criada nenhuma versão)
+     */
+    Catalogo comPrecos(Map<String, Long> precos) {
+        RegistoProdutos r = new RegistoProdutos(produtos);
+        for (Map.Entry<String, Long> e : precos.entrySet()) {
+            ProdutoInfo p = getProduto(e.getKey());
+            if (p == null) {
+                throw new IllegalArgumentException(
+                    "Produto com código " + e.getKey() + " não existe no catálogo!");
+            }
+            r.put(p.comPreco(e.getValue()));
+        }
+        return new Catalogo(versao + 1, r);
+    }
+
+    // ========================================================================
+    // toString
+    // ========================================================================
+
+    /**
+     * Retorna uma representação textual do catálogo.
+     *
+     * @return string com a versão e o número de produtos
+     */
+    @Override
+    public String toString() {
+        return String.format("Catalogo v%d: %d produtos", versao, getQuantidade());
+    }
+}
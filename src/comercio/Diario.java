@@ -0,0 +1,377 @@
+package comercio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import cliente.DiarioCartao;
+
+/**
+ * Diário (write-ahead log) das alterações aos cartões: mudanças de saldo e
+ * cupões removidos das carteiras. Sem ele, um crash perde os saldos
+ * acumulados desde o último instantâneo.
+ *
+ * ESCRITA EM GRUPO (group commit):
+ * - registar (alterado) só põe o registo numa fila e dá-lhe um número de
+ *   sequência; não toca no disco
+ * - uma thread escritora tira TODOS os registos da fila, escreve-os de uma
+ *   vez (FileChannel) e faz um só force() (fsync)
+ * - confirmar(n) espera que o registo n esteja gravado
+ * Enquanto um fsync decorre, os registos de outras caixas acumulam-se na
+ * fila e vão todos no fsync seguinte: com muitas caixas, cada fsync serve
+ * muitas vendas.
+ *
+ * FORMATO:
+ *   int MAGIA ("HNTD"), int versão
+ *   registos: int tamanho, dados, int CRC32 dos dados
+ *     dados: long número, byte tipo, string cartão,
+ *            ALTERACAO: long diferença, int n, n x string número do cupão
+ *   (strings = int tamanho + bytes UTF-8)
+ * Um registo incompleto ou com CRC errado no fim do ficheiro (escrita
+ * interrompida por um crash) é ignorado e cortado ao abrir.
+ *
+ * Um checkout (crédito + cupões gastos) é um só registo ALTERACAO, com um
+ * só CRC: depois de um crash ou é reposto todo ou não é reposto.
+ *
+ * ARRANQUE:
+ *   Inventario inv = Inventario.carregar(instantaneo);
+ *   inv.abrirDiario(diario);   // repõe o diário e continua a escrever nele
+ * Cada cartão do instantâneo sabe o número do seu último registo
+ * (Cartao.getUltimoRegisto()), por isso só são repostos os registos mais
+ * recentes do que o instantâneo, mesmo que este tenha sido gravado com
+ * caixas a trabalhar.
+ */
+public final class Diario implements DiarioCartao, Closeable {
+
+    /** "HNTD" em ASCII */
+    private static final int MAGIA = 0x484E5444;
+
+    private static final int VERSAO = 1;
+
+    private static final int CABECALHO = 8;
+
+    private static final byte TIPO_ALTERACAO = 0;
+
+    // ========================================================================
+    // CAMPOS
+    // ========================================================================
+
+    private final FileChannel canal;
+    private final Thread escritor;
+
+    // Protegidos pelo lock do diário
+    private List<ByteBuffer> pendentes = new ArrayList<>();
+    private long ultimoRegisto;
+    private long registoGravado;
+    private long escritas;
+    private IOException falha;
+    private boolean fechado;
+
+    private Diario(FileChannel canal, long ultimoRegisto) {
+        this.canal = canal;
+        this.ultimoRegisto = ultimoRegisto;
+        this.registoGravado = ultimoRegisto;
+        this.escritor = new Thread(this::escrever, "diario-escritor");
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    // ========================================================================
+    // ABRIR / REPOR
+    // ========================================================================
+
+    /**
+     * Abre (ou cria) um diário, repondo primeiro nos cartões do inventário
+     * os registos que ainda não refletem. Não liga os cartões ao diário
+     * (ver Inventario.abrirDiario()).
+     *
+     * @param ficheiro o ficheiro do diário
+     * @param inv o inventário onde repor os registos
+     * @return o diário, pronto a receber registos novos
+     * @throws IOException se o ficheiro não puder ser lido/escrito ou não
+     *         for um diário
+     */
+    static Diario abrir(Path ficheiro, Inventario inv) throws IOException {
+        long fimValido = CABECALHO;
+        long ultimo = 0;
+        if (Files.exists(ficheiro) && Files.size(ficheiro) > 0) {
+            long[] res = repor(ficheiro, inv);
+            fimValido = res[0];
+            ultimo = res[1];
+        }
+        for (Cartao c : inv.getCartoes())
+            ultimo = Math.max(ultimo, c.getUltimoRegisto());
+
+        FileChannel canal = FileChannel.open(ficheiro,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Ficheiro novo: escrever o cabeçalho
+            if (canal.size() < CABECALHO) {
+                ByteBuffer cab = ByteBuffer.allocate(CABECALHO).putInt(MAGIA).putInt(VERSAO).flip();
+                while (cab.hasRemaining())
+                    canal.write(cab, CABECALHO - cab.remaining());
+            }
+            // Cortar um registo meio escrito no fim
+            canal.truncate(fimValido);
+            canal.position(fimValido);
+            canal.force(true);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+        return new Diario(canal, ultimo);
+    }
+
+    /**
+     * Lê o diário e aplica aos cartões os registos mais recentes do que
+     * cada um.
+     *
+     * @return { posição a seguir ao último registo válido, maior número lido }
+     */
+    private static long[] repor(Path ficheiro, Inventario inv) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.READ)) {
+            buf = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        if (buf.limit() < CABECALHO || buf.getInt(0) != MAGIA)
+            throw new IOException("Ficheiro não é um diário dos cartões: " + ficheiro);
+        if (buf.getInt(4) != VERSAO)
+            throw new IOException("Versão do diário não suportada: " + buf.getInt(4));
+
+        int pos = CABECALHO;
+        long ultimo = 0;
+        CRC32 crc = new CRC32();
+        while (buf.limit() - pos >= 4) {
+            int tamanho = buf.getInt(pos);
+            if (tamanho <= 0 || buf.limit() - pos - 8 < tamanho)
+                break;
+            ByteBuffer dados = buf.slice(pos + 4, tamanho);
+            crc.reset();
+            crc.update(dados.duplicate());
+            if ((int) crc.getValue() != buf.getInt(pos + 4 + tamanho))
+                break;
+
+            long registo = dados.getLong();
+            aplicar(inv, registo, dados);
+            ultimo = Math.max(ultimo, registo);
+            pos += 8 + tamanho;
+        }
+        return new long[] { pos, ultimo };
+    }
+
+    private static void aplicar(Inventario inv, long registo, ByteBuffer dados) throws IOException {
+        byte tipo = dados.get();
+        if (tipo != TIPO_ALTERACAO)
+            throw new IOException("Tipo de registo desconhecido no diário: " + tipo);
+        Cartao c = inv.getCartao(lerTexto(dados));
+        // Cartões que não existem (criados depois do instantâneo) são ignorados
+        if (c == null || registo <= c.getUltimoRegisto())
+            return;
+
+        long diferenca = dados.getLong();
+        for (int n = dados.getInt(); n > 0; n--)
+            removerCupao(c, lerTexto(dados));
+        alterarSaldo(c, registo, diferenca);
+        c.setUltimoRegisto(registo);
+    }
+
+    private static void alterarSaldo(Cartao c, long registo, long diferenca) throws IOException {
+        try {
+            if (diferenca >= 0)
+                c.acumularSaldo(diferenca);
+            else
+                c.reduzirSaldo(-diferenca);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Diário inconsistente com o instantâneo no registo " + registo, e);
+        }
+    }
+
+    private static void removerCupao(Cartao c, String numero) {
+        for (Cupao cp : c.getCupoes())
+            if (cp.getNumero().equals(numero)) {
+                c.removeCupao(cp);
+                return;
+            }
+    }
+
+    private static String lerTexto(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // ========================================================================
+    // REGISTAR (DiarioCartao)
+    // ========================================================================
+
+    @Override
+    public long alterado(Cartao c, long diferenca, List<Cupao> removidos) {
+        byte[] cartao = c.getNumero().getBytes(StandardCharsets.UTF_8);
+        byte[][] numeros = new byte[removidos.size()][];
+        int tamanho = 8 + 1 + 4 + cartao.length + 8 + 4;
+        for (int i = 0; i < numeros.length; i++) {
+            numeros[i] = removidos.get(i).getNumero().getBytes(StandardCharsets.UTF_8);
+            tamanho += 4 + numeros[i].length;
+        }
+        ByteBuffer dados = ByteBuffer.allocate(tamanho);
+        dados.position(8);
+        dados.put(TIPO_ALTERACAO).putInt(cartao.length).put(cartao).putLong(diferenca).putInt(numeros.length);
+        for (byte[] numero : numeros)
+            dados.putInt(numero.length).put(numero);
+        return acrescentar(dados);
+    }
+
+    /**
+     * Dá o número ao registo (nos primeiros 8 bytes dos dados) e põe-no na
+     * fila da thread escritora.
+     */
+    private long acrescentar(ByteBuffer dados) {
+        ByteBuffer registo = ByteBuffer.allocate(4 + dados.capacity() + 4);
+        synchronized (this) {
+            if (fechado)
+                throw new IllegalStateException("Diário fechado");
+            long numero = ++ultimoRegisto;
+            dados.putLong(0, numero);
+
+            CRC32 crc = new CRC32();
+            crc.update(dados.array());
+            registo.putInt(dados.capacity()).put(dados.array()).putInt((int) crc.getValue()).flip();
+
+            pendentes.add(registo);
+            notifyAll();
+            return numero;
+        }
+    }
+
+    @Override
+    public void confirmar(long registo) {
+        boolean interrompido = false;
+        synchronized (this) {
+            while (registoGravado < registo && falha == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Não desistir: quem chama precisa da garantia de gravação
+                    interrompido = true;
+                }
+            }
+            if (registoGravado < registo)
+                throw new UncheckedIOException("Falha ao gravar o diário", falha);
+        }
+        if (interrompido)
+            Thread.currentThread().interrupt();
+    }
+
+    // ========================================================================
+    // THREAD ESCRITORA
+    // ========================================================================
+
+    private void escrever() {
+        while (true) {
+            List<ByteBuffer> lote;
+            long ate;
+            synchronized (this) {
+                while (pendentes.isEmpty() && !fechado) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Só sai quando o diário for fechado
+                    }
+                }
+                if (pendentes.isEmpty())
+                    return;
+                lote = pendentes;
+                pendentes = new ArrayList<>();
+                ate = ultimoRegisto;
+            }
+
+            try {
+                ByteBuffer[] bufs = lote.toArray(new ByteBuffer[0]);
+                long falta = 0;
+                for (ByteBuffer b : bufs)
+                    falta += b.remaining();
+                while (falta > 0)
+                    falta -= canal.write(bufs);
+                canal.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    falha = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                registoGravado = ate;
+                escritas++;
+                notifyAll();
+            }
+        }
+    }
+
+    // ========================================================================
+    // CONSULTAS E FECHO
+    // ========================================================================
+
+    /**
+     * Retorna o número do último registo (gravado ou ainda na fila).
+     *
+     * @return o número de sequência
+     */
+    public synchronized long getUltimoRegisto() {
+        return ultimoRegisto;
+    }
+
+    /**
+     * Retorna o número de escritas (fsync) já feitas. Com várias caixas ao
+     * mesmo tempo é muito menor do que o número de registos.
+     *
+     * @return o número de escritas
+     */
+    public synchronized long getEscritas() {
+        return escritas;
+    }
+
+    /**
+     * Grava os registos pendentes e fecha o ficheiro. Depois de fechado,
+     * registar lança IllegalStateException.
+     *
+     * @throws IOException se a última gravação falhou
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (fechado)
+                return;
+            fechado = true;
+            notifyAll();
+        }
+        boolean interrompido = false;
+        while (escritor.isAlive()) {
+            try {
+                escritor.join();
+            } catch (InterruptedException e) {
+                interrompido = true;
+            }
+        }
+        canal.close();
+        if (interrompido)
+            Thread.currentThread().interrupt();
+        synchronized (this) {
+            if (falha != null)
+                throw falha;
+        }
+    }
+}
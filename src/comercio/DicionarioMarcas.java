@@ -0,0 +1,86 @@
+package comercio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário partilhado das marcas conhecidas pelo sistema.
+ *
+ * CODIFICAÇÃO POR DICIONÁRIO:
+ * Cada marca diferente recebe um número inteiro (id), atribuído pela ordem
+ * em que aparece pela primeira vez. As marcas são comparadas ignorando
+ * maiúsculas/minúsculas, por isso "Albicereal" e "ALBICEREAL" têm o mesmo id.
+ *
+ * VANTAGENS:
+ * - Comparar marcas passa a ser comparar dois int (CupaoMarca.abrange)
+ * - Cada marca é guardada uma só vez em memória, em vez de uma vez por
+ *   produto (todos os produtos partilham a mesma String)
+ * - Os ids são densos (0, 1, 2, ...) e podem ser usados como índice de array
+ *
+ * EXEMPLO:
+ *   int id = DicionarioMarcas.codificar("Albicereal");  // ex: 3
+ *   DicionarioMarcas.codificar("albicereal");           // 3 outra vez
+ *   DicionarioMarcas.getNome(3);                        // "Albicereal"
+ */
+public final class DicionarioMarcas {
+
+    /** marca (em minúsculas) → id */
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** id → nome da marca, tal como foi vista pela primeira vez */
+    private static final List<String> nomes = new ArrayList<>();
+
+    private DicionarioMarcas() {
+    }
+
+    /**
+     * Retorna o id de uma marca, registando-a no dicionário se ainda não
+     * existir.
+     *
+     * @param marca a marca a codificar
+     * @return o id da marca
+     * @throws NullPointerException se a marca for null
+     */
+    public static int codificar(String marca) {
+        String chave = marca.toLowerCase(Locale.ROOT);
+        Integer id = ids.get(chave);
+        if (id != null)
+            return id;
+        synchronized (nomes) {
+            id = ids.get(chave);
+            if (id == null) {
+                id = nomes.size();
+                nomes.add(marca);
+                ids.put(chave, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Retorna o nome de uma marca a partir do seu id.
+     *
+     * @param id o id da marca
+     * @return o nome da marca
+     * @throws IndexOutOfBoundsException se o id não existir
+     */
+    public static String getNome(int id) {
+        synchronized (nomes) {
+            return nomes.get(id);
+        }
+    }
+
+    /**
+     * Retorna o número de marcas registadas.
+     *
+     * @return o número de marcas
+     */
+    public static int getQuantidade() {
+        synchronized (nomes) {
+            return nomes.size();
+        }
+    }
+}
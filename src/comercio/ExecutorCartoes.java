@@ -0,0 +1,340 @@
+package comercio;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import cliente.Cartao;
+import cliente.ContextoAvaliacao;
+import cliente.Cupao;
+
+/**
+ * Modo de execução em que cada cartão tem a sua própria fila de operações
+ * (mailbox) e um só "escritor": as operações sobre um cartão são postas na
+ * fila dele e executadas uma de cada vez, por ordem de chegada. Quem pede
+ * recebe logo um CompletableFuture e não fica bloqueado à espera do cartão.
+ *
+ * PORQUÊ?
+ * Com locks, um cartão muito usado (cartões de frota, usados em dezenas de
+ * caixas ao mesmo tempo) põe as threads dessas caixas todas à espera umas
+ * das outras. Aqui ninguém espera: as operações acumulam-se na fila do
+ * cartão e uma só thread de cada vez as executa, seguidas. Os locks do
+ * Cartao continuam lá, mas nunca há disputa por eles (só o escritor da fila
+ * lhes toca), por isso custam quase nada. Cartões diferentes têm filas
+ * diferentes e correm em paralelo em todos os núcleos.
+ *
+ * COMO FUNCIONA:
+ * - Uma fila por cartão com operações pendentes: uma ConcurrentLinkedQueue
+ *   e uma marca "agendada"
+ * - Quem põe uma operação numa fila que não está agendada agenda-a no
+ *   ForkJoinPool (modo FIFO); a tarefa executa até LOTE operações seguidas
+ *   e volta a agendar-se se ainda houver mais, para não monopolizar uma
+ *   thread com um só cartão
+ * - A marca "agendada" garante um só escritor por cartão e que cada
+ *   execução vê tudo o que a anterior escreveu
+ * - Uma fila que fica vazia sai do mapa: só os cartões com operações
+ *   pendentes ocupam memória, mesmo com dezenas de milhões de cartões. Pôr
+ *   uma operação e retirar a fila são feitos com compute() na mesma chave
+ *   do ConcurrentHashMap, por isso nunca há duas filas ativas para o mesmo
+ *   cartão (uma operação que chega depois de a fila sair vai para uma nova)
+ * - Depois de close(), as operações novas (e as que estavam à espera de
+ *   serem agendadas) falham com RejectedExecutionException
+ *
+ * CHECKOUT:
+ * Num checkout, ativar e usar têm de ser seguidos. processar() põe os dois
+ * numa só operação; procurar os produtos e criar a venda é feito antes,
+ * fora da fila. ativar() e usar() separados só servem quando quem chama
+ * já garante a ordem (ex: uma só caixa por cartão).
+ *
+ * ATENÇÃO:
+ * Os cartões usados por este executor não devem ser alterados ao mesmo
+ * tempo por outras vias (Cartao diretamente, Inventario.processar()).
+ * As operações não devem bloquear por muito tempo (o diário, se estiver
+ * aberto, espera pela escrita em disco: usar um diário torna cada
+ * operação tão lenta como um fsync partilhado).
+ *
+ * EXEMPLO:
+ *   ExecutorCartoes ex = new ExecutorCartoes(inventario);
+ *   ex.processar(pedido).thenAccept(r -> System.out.println(r.getSaldo()));
+ *   ex.close();
+ */
+public final class ExecutorCartoes implements AutoCloseable {
+
+    /** Operações executadas seguidas antes de dar a vez a outros cartões */
+    private static final int LOTE = 64;
+
+    private final Inventario inventario;
+    private final ExecutorService executor;
+    private final Map<String, Fila> filas = new ConcurrentHashMap<>();
+
+    // ========================================================================
+    // CONSTRUTORES
+    // ========================================================================
+
+    /**
+     * Cria um executor com uma thread por núcleo.
+     *
+     * @param inventario o inventário dos cartões
+     */
+    public ExecutorCartoes(Inventario inventario) {
+        this(inventario, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Cria um executor.
+     *
+     * @param inventario o inventário dos cartões
+     * @param threads número de threads que executam as filas
+     * @throws IllegalArgumentException se threads não for positivo
+     */
+    public ExecutorCartoes(Inventario inventario, int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Número de threads deve ser positivo");
+        this.inventario = Objects.requireNonNull(inventario);
+        this.executor = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("cartoes-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, true);
+    }
+
+    // ========================================================================
+    // OPERAÇÕES
+    // ========================================================================
+
+    /**
+     * Executa uma operação qualquer sobre um cartão, na fila desse cartão.
+     *
+     * @param c o cartão
+     * @param operacao o que fazer com o cartão (executado pelo escritor da fila)
+     * @return o resultado da operação, ou a exceção que ela lançou
+     */
+    public <T> CompletableFuture<T> executar(Cartao c, Function<Cartao, T> operacao) {
+        Objects.requireNonNull(operacao);
+        CompletableFuture<T> futuro = new CompletableFuture<>();
+        enviar(c, new Tarefa() {
+            @Override
+            public void run() {
+                try {
+                    futuro.complete(operacao.apply(c));
+                } catch (Throwable t) {
+                    futuro.completeExceptionally(t);
+                }
+            }
+
+            @Override
+            public void rejeitar(RejectedExecutionException e) {
+                futuro.completeExceptionally(e);
+            }
+        });
+        return futuro;
+    }
+
+    /**
+     * Faz um checkout completo (como Inventario.processar()). O cartão, os
+     * cupões e os produtos são procurados já, na thread de quem chama; só
+     * ativar + usar vão para a fila do cartão, como uma só operação.
+     *
+     * @param pedido o cartão, os cupões e os produtos
+     * @return o resultado; falha com IllegalArgumentException se o cartão,
+     *         algum cupão ou algum produto não existir
+     */
+    public CompletableFuture<ResultadoCheckout> processar(PedidoCheckout pedido) {
+        return processar(pedido, ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Igual a processar(pedido), com a data do contexto dado.
+     *
+     * @param pedido o cartão, os cupões e os produtos
+     * @param ctx o contexto com a data da venda
+     * @return o resultado (ou a exceção)
+     */
+    public CompletableFuture<ResultadoCheckout> processar(PedidoCheckout pedido, ContextoAvaliacao ctx) {
+        Cartao card;
+        List<Cupao> cp;
+        Venda v;
+        try {
+            card = inventario.cartaoDe(pedido);
+            cp = inventario.cupoesDe(pedido);
+            v = inventario.vendaDe(pedido);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return executar(card, k -> inventario.liquidar(k, cp, v, ctx));
+    }
+
+    /**
+     * Ativa cupões num cartão (ver Cartao.ativar(List)).
+     *
+     * @param c o cartão
+     * @param ativos os cupões a ativar
+     * @return concluído quando os cupões estiverem ativos
+     */
+    public CompletableFuture<Void> ativar(Cartao c, List<Cupao> ativos) {
+        return executar(c, k -> {
+            k.ativar(ativos);
+            return null;
+        });
+    }
+
+    /**
+     * Usa um cartão numa venda (ver Cartao.usar(Venda)).
+     *
+     * @param c o cartão
+     * @param v a venda
+     * @return concluído com o saldo do cartão depois da venda
+     */
+    public CompletableFuture<Long> usar(Cartao c, Venda v) {
+        return executar(c, k -> {
+            k.usar(v);
+            return k.getSaldo();
+        });
+    }
+
+    /**
+     * Retira saldo de um cartão (ver Cartao.reduzirSaldo()).
+     *
+     * @param c o cartão
+     * @param gasto o valor a retirar, em cêntimos
+     * @return concluído com o saldo que ficou
+     */
+    public CompletableFuture<Long> reduzirSaldo(Cartao c, long gasto) {
+        return executar(c, k -> {
+            k.reduzirSaldo(gasto);
+            return k.getSaldo();
+        });
+    }
+
+    /**
+     * Acrescenta um cupão à carteira de um cartão (ver Cartao.addCupao()).
+     *
+     * @param c o cartão
+     * @param cupao o cupão
+     * @return concluído quando o cupão estiver na carteira
+     */
+    public CompletableFuture<Void> addCupao(Cartao c, Cupao cupao) {
+        return executar(c, k -> {
+            k.addCupao(cupao);
+            return null;
+        });
+    }
+
+    /**
+     * Retorna o número de cartões que têm fila (com operações pendentes ou
+     * a executar). Para testes e diagnóstico.
+     *
+     * @return o número de filas no mapa
+     */
+    int getFilas() {
+        return filas.size();
+    }
+
+    /**
+     * Pára as threads. As operações já agendadas são terminadas primeiro;
+     * as que chegarem depois falham com RejectedExecutionException.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // ========================================================================
+    // FILAS
+    // ========================================================================
+
+    /**
+     * Põe uma operação na fila do cartão (criando a fila, se o cartão não
+     * tiver nenhuma) e agenda a fila.
+     */
+    private void enviar(Cartao c, Tarefa operacao) {
+        Objects.requireNonNull(c, "Cartão não pode ser null");
+        Fila f = filas.compute(c.getNumero(), (n, antiga) -> {
+            // Cartão novo, fila retirada, ou cartão substituído no
+            // inventário com o mesmo número
+            Fila fila = antiga != null && antiga.cartao == c ? antiga : new Fila(c);
+            fila.operacoes.add(operacao);
+            return fila;
+        });
+        f.agendar();
+    }
+
+    /** Uma operação na fila de um cartão */
+    private interface Tarefa extends Runnable {
+        /** O executor foi fechado: a operação nunca vai correr */
+        void rejeitar(RejectedExecutionException e);
+    }
+
+    /**
+     * A fila de operações de um cartão.
+     */
+    private final class Fila implements Runnable {
+        private final Cartao cartao;
+        private final ConcurrentLinkedQueue<Tarefa> operacoes = new ConcurrentLinkedQueue<>();
+
+        /** true enquanto há uma tarefa agendada ou a executar esta fila */
+        private final AtomicBoolean agendada = new AtomicBoolean();
+
+        Fila(Cartao cartao) {
+            this.cartao = cartao;
+        }
+
+        void agendar() {
+            if (!agendada.compareAndSet(false, true))
+                return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                rejeitar(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LOTE; i++) {
+                Tarefa op = operacoes.poll();
+                if (op == null)
+                    break;
+                op.run();
+            }
+            agendada.set(false);
+            // Uma operação que chegou depois do último poll() pode não ter
+            // agendado a fila (ainda estava marcada): agendar aqui
+            if (!operacoes.isEmpty())
+                agendar();
+            else
+                retirar();
+        }
+
+        /**
+         * Tira a fila do mapa se continuar vazia e parada. Feito com a chave
+         * bloqueada: uma operação enviada ao mesmo tempo ou entra antes
+         * (e a fila fica) ou vai para uma fila nova.
+         */
+        private void retirar() {
+            filas.computeIfPresent(cartao.getNumero(),
+                (n, f) -> f == this && operacoes.isEmpty() && !agendada.get() ? null : f);
+        }
+
+        /** O executor foi fechado: falham todas as operações da fila */
+        private void rejeitar(RejectedExecutionException e) {
+            for (Tarefa op; (op = operacoes.poll()) != null; )
+                op.rejeitar(e);
+            agendada.set(false);
+            if (operacoes.isEmpty())
+                retirar();
+            else
+                agendar();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package comercio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+import util.PontosBase;
+
+/**
+ * Instantâneo binário do inventário: produtos, cupões, cartões, saldos e
+ * carteiras, num só ficheiro que se lê em milissegundos.
+ *
+ * PORQUÊ?
+ * Os ficheiros .hnt são texto (lento de interpretar) e as datas dos cupões
+ * são relativas ao dia da leitura. O instantâneo guarda tudo já
+ * convertido: datas absolutas (dias desde 1970), descontos em pontos base,
+ * referências por índice. Os ficheiros .hnt só são precisos para a
+ * importação inicial.
+ *
+ * FORMATO (big-endian, strings = int tamanho + bytes UTF-8):
+ *   int    MAGIA ("HNTI")
+ *   int    versão
+ *   long   criado em (milissegundos desde 1970)
+ *   MARCAS    int n; n × string
+ *   PRODUTOS  int n; n × { byte noCatalogo, string código, int marca,
+ *                          string modelo, long preço }
+ *   CUPÕES    int n; n × { byte tipo, byte registado, string número,
+ *                          string resumo, int pontos base, int dia início,
+ *                          int dia fim, dados do tipo }
+ *               Produtos: int k; k × int produto
+ *               Marca:    string marca
+ *               Compra:   (nada)
+ *   CARTÕES   int n; n × { string número, long saldo, long último registo
+ *                          no diário, int k; k × int cupão }
+ *   int    CRC32 de tudo o que vem antes
+ *
+ * NOTAS:
+ * - Os cupões de produtos referem produtos pelo índice. Produtos que um
+ *   cupão abrange mas que já não estão no catálogo são guardados à parte
+ *   (noCatalogo = 0) e não voltam ao catálogo
+ * - Cupões que estão na carteira de um cartão mas já não estão registados
+ *   no inventário também são guardados (registado = 0)
+ * - O saldo, a carteira e o último registo no diário de cada cartão são
+ *   lidos com o lock do cartão, por isso cada cartão fica consistente
+ *   mesmo com caixas a trabalhar (e o Diario sabe o que repor)
+ * - A escrita é feita num ficheiro temporário que substitui o antigo só
+ *   no fim: um instantâneo nunca fica meio escrito
+ * - A leitura mapeia o ficheiro em memória (FileChannel.map) e confirma o
+ *   CRC antes de criar qualquer objeto
+ */
+final class Instantaneo {
+
+    /** "HNTI" em ASCII */
+    private static final int MAGIA = 0x484E5449;
+
+    private static final int VERSAO = 1;
+
+    private static final byte TIPO_PRODUTOS = 0;
+    private static final byte TIPO_MARCA = 1;
+    private static final byte TIPO_COMPRA = 2;
+
+    private Instantaneo() {
+    }
+
+    // ========================================================================
+    // ESCRITA
+    // ========================================================================
+
+    /**
+     * Escreve o instantâneo de um inventário.
+     *
+     * @param inv o inventário
+     * @param destino o ficheiro a criar (ou substituir)
+     * @throws IOException se a escrita falhar (o ficheiro antigo fica intacto)
+     */
+    static void escrever(Inventario inv, Path destino) throws IOException {
+        // Produtos: primeiro os do catálogo, depois os que só os cupões conhecem
+        List<ProdutoInfo> produtos = new ArrayList<>(inv.getCatalogo().getProdutos());
+        int noCatalogo = produtos.size();
+        Map<String, Integer> indiceProduto = new HashMap<>();
+        for (int i = 0; i < produtos.size(); i++)
+            indiceProduto.put(produtos.get(i).getCodigoBarras(), i);
+
+        // Cupões: primeiro os registados, depois os que só as carteiras têm
+        List<Cupao> cupoes = new ArrayList<>(inv.getCupoes());
+        int registados = cupoes.size();
+        Map<Cupao, Integer> indiceCupao = new IdentityHashMap<>();
+        for (int i = 0; i < cupoes.size(); i++)
+            indiceCupao.put(cupoes.get(i), i);
+
+        // Cartões: saldo e carteira lidos juntos, com o lock do cartão
+        List<Cartao> cartoes = new ArrayList<>(inv.getCartoes());
+        long[] saldos = new long[cartoes.size()];
+        long[] registos = new long[cartoes.size()];
+        List<List<Cupao>> carteiras = new ArrayList<>();
+        for (int i = 0; i < cartoes.size(); i++) {
+            Cartao c = cartoes.get(i);
+            synchronized (c) {
+                saldos[i] = c.getSaldo();
+                registos[i] = c.getUltimoRegisto();
+                carteiras.add(new ArrayList<>(c.getCupoes()));
+            }
+            for (Cupao cp : carteiras.get(i))
+                if (!indiceCupao.containsKey(cp)) {
+                    indiceCupao.put(cp, cupoes.size());
+                    cupoes.add(cp);
+                }
+        }
+        // Produtos abrangidos, lidos uma só vez (a lista pode mudar entretanto)
+        Map<Cupao, List<ProdutoInfo>> abrangidos = new IdentityHashMap<>();
+        for (Cupao c : cupoes)
+            if (c instanceof CupaoProdutos)
+                for (ProdutoInfo p : abrangidos.computeIfAbsent(c, x -> ((CupaoProdutos) x).getAbrangidos()))
+                    if (!indiceProduto.containsKey(p.getCodigoBarras())) {
+                        indiceProduto.put(p.getCodigoBarras(), produtos.size());
+                        produtos.add(p);
+                    }
+
+        // Marcas
+        List<String> marcas = new ArrayList<>();
+        Map<String, Integer> indiceMarca = new HashMap<>();
+        for (ProdutoInfo p : produtos)
+            indiceMarca.computeIfAbsent(p.getMarca(), m -> {
+                marcas.add(m);
+                return marcas.size() - 1;
+            });
+
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            BufferedOutputStream bos = new BufferedOutputStream(fos, 1 << 16);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bos, crc));
+
+            out.writeInt(MAGIA);
+            out.writeInt(VERSAO);
+            out.writeLong(System.currentTimeMillis());
+
+            out.writeInt(marcas.size());
+            for (String m : marcas)
+                escreverTexto(out, m);
+
+            out.writeInt(produtos.size());
+            for (int i = 0; i < produtos.size(); i++) {
+                ProdutoInfo p = produtos.get(i);
+                out.writeByte(i < noCatalogo ? 1 : 0);
+                escreverTexto(out, p.getCodigoBarras());
+                out.writeInt(indiceMarca.get(p.getMarca()));
+                escreverTexto(out, p.getModelo());
+                out.writeLong(p.getPreco());
+            }
+
+            out.writeInt(cupoes.size());
+            for (int i = 0; i < cupoes.size(); i++) {
+                Cupao c = cupoes.get(i);
+                out.writeByte(tipo(c));
+                out.writeByte(i < registados ? 1 : 0);
+                escreverTexto(out, c.getNumero());
+                escreverTexto(out, c.getResumo());
+                out.writeInt(c.getDescontoPb());
+                out.writeInt(c.getInicioDia());
+                out.writeInt(c.getFimDia());
+                if (c instanceof CupaoProdutos) {
+                    List<ProdutoInfo> lista = abrangidos.get(c);
+                    out.writeInt(lista.size());
+                    for (ProdutoInfo p : lista)
+                        out.writeInt(indiceProduto.get(p.getCodigoBarras()));
+                } else if (c instanceof CupaoMarca) {
+                    escreverTexto(out, ((CupaoMarca) c).getMarca());
+                }
+            }
+
+            out.writeInt(cartoes.size());
+            for (int i = 0; i < cartoes.size(); i++) {
+                escreverTexto(out, cartoes.get(i).getNumero());
+                out.writeLong(saldos[i]);
+                out.writeLong(registos[i]);
+                out.writeInt(carteiras.get(i).size());
+                for (Cupao c : carteiras.get(i))
+                    out.writeInt(indiceCupao.get(c));
+            }
+
+            out.flush();
+            new DataOutputStream(bos).writeInt((int) crc.getValue());
+            bos.flush();
+            fos.getFD().sync();
+        }
+
+        try {
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte tipo(Cupao c) {
+        if (c instanceof CupaoProdutos)
+            return TIPO_PRODUTOS;
+        if (c instanceof CupaoMarca)
+            return TIPO_MARCA;
+        if (c instanceof CupaoCompra)
+            return TIPO_COMPRA;
+        throw new IllegalArgumentException(
+            "Tipo de cupão não suportado no instantâneo: " + c.getClass().getName());
+    }
+
+    private static void escreverTexto(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    // ========================================================================
+    // LEITURA
+    // ========================================================================
+
+    /**
+     * Lê um instantâneo para um inventário novo.
+     *
+     * @param origem o ficheiro do instantâneo
+     * @return o inventário lido
+     * @throws IOException se o ficheiro não puder ser lido ou estiver
+     *         corrompido / numa versão desconhecida
+     */
+    static Inventario ler(Path origem) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel canal = FileChannel.open(origem, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE)
+                throw new IOException("Instantâneo demasiado grande: " + origem);
+            buf = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+
+        if (buf.limit() < 20 || buf.getInt(0) != MAGIA)
+            throw new IOException("Ficheiro não é um instantâneo do inventário: " + origem);
+        int versao = buf.getInt(4);
+        if (versao != VERSAO)
+            throw new IOException("Versão do instantâneo não suportada: " + versao);
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(0, buf.limit() - 4));
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - 4))
+            throw new IOException("Instantâneo corrompido (CRC errado): " + origem);
+
+        try {
+            return ler(buf.position(16));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Instantâneo corrompido: " + origem, e);
+        }
+    }
+
+    private static Inventario ler(MappedByteBuffer buf) {
+        Inventario inv = new Inventario();
+
+        String[] marcas = new String[buf.getInt()];
+        for (int i = 0; i < marcas.length; i++)
+            marcas[i] = lerTexto(buf);
+
+        ProdutoInfo[] produtos = new ProdutoInfo[buf.getInt()];
+        List<ProdutoInfo> catalogo = new ArrayList<>(produtos.length);
+        for (int i = 0; i < produtos.length; i++) {
+            boolean noCatalogo = buf.get() == 1;
+            String codigo = lerTexto(buf);
+            String marca = marcas[buf.getInt()];
+            String modelo = lerTexto(buf);
+            produtos[i] = new ProdutoInfo(codigo, marca, modelo, buf.getLong());
+            if (noCatalogo)
+                catalogo.add(produtos[i]);
+        }
+        inv.addProdutos(catalogo);
+
+        Cupao[] cupoes = new Cupao[buf.getInt()];
+        for (int i = 0; i < cupoes.length; i++) {
+            byte tipo = buf.get();
+            boolean registado = buf.get() == 1;
+            String numero = lerTexto(buf);
+            String resumo = lerTexto(buf);
+            float desconto = PontosBase.paraFracao(buf.getInt());
+            LocalDate inicio = LocalDate.ofEpochDay(buf.getInt());
+            LocalDate fim = LocalDate.ofEpochDay(buf.getInt());
+            switch (tipo) {
+                case TIPO_PRODUTOS:
+                    List<ProdutoInfo> abrangidos = new ArrayList<>();
+                    for (int k = buf.getInt(); k > 0; k--)
+                        abrangidos.add(produtos[buf.getInt()]);
+                    cupoes[i] = new CupaoProdutos(numero, resumo, abrangidos, desconto, inicio, fim);
+                    break;
+                case TIPO_MARCA:
+                    cupoes[i] = new CupaoMarca(numero, resumo, desconto, inicio, fim, lerTexto(buf));
+                    break;
+                case TIPO_COMPRA:
+                    cupoes[i] = new CupaoCompra(numero, resumo, desconto, inicio, fim);
+                    break;
+                default:
+                    throw new IndexOutOfBoundsException("Tipo de cupão desconhecido: " + tipo);
+            }
+            if (registado)
+                inv.addCupao(cupoes[i]);
+        }
+
+        for (int n = buf.getInt(); n > 0; n--) {
+            Cartao c = new Cartao(lerTexto(buf), buf.getLong());
+            c.setUltimoRegisto(buf.getLong());
+            for (int k = buf.getInt(); k > 0; k--)
+                c.addCupao(cupoes[buf.getInt()]);
+            inv.addCartao(c);
+        }
+
+        if (buf.remaining() != 4)
+            throw new IndexOutOfBoundsException("Dados a mais no fim do instantâneo");
+        return inv;
+    }
+
+    private static String lerTexto(MappedByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -1,13 +1,23 @@
 package comercio;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import cliente.Cartao;
+import cliente.ContextoAvaliacao;
 import cliente.Cupao;
+import cliente.Liquidacao;
 
 /**
  * Classe que representa o inventário da empresa HonESTa.
@@ -17,11 +27,44 @@ import cliente.Cupao;
  * - Todos os cupões existentes
  * - Todos os cartões de clientes
  * 
- * USA HASHMAP:
- * Usa HashMap para busca rápida por código/número.
+ * USA CONCURRENTHASHMAP:
+ * Usa mapas para busca rápida por código/número.
  * Muito mais rápido que ArrayList quando precisamos
  * encontrar algo específico!
  * 
+ * CONCORRÊNCIA:
+ * O mesmo inventário pode ser partilhado por várias caixas. Os mapas são
+ * ConcurrentHashMap: as pesquisas nunca bloqueiam e podem decorrer ao mesmo
+ * tempo que se adicionam ou removem cupões e cartões. As alterações a cada
+ * cartão são serializadas pelo próprio Cartao (ou, em alternativa, pela
+ * fila de cada cartão no ExecutorCartoes, sem threads à espera de locks).
+ * Cada Venda pertence a uma só caixa e não é partilhada.
+ * 
+ * CATÁLOGO VERSIONADO:
+ * Os produtos estão num Catalogo imutável, publicado numa AtomicReference.
+ * Adicionar/remover produtos ou mudar preços constrói uma versão nova à
+ * parte e troca-a de uma só vez; quem lê nunca usa locks e cada venda fica
+ * com a versão com que começou (ver Venda e Catalogo). Para mudar muitos
+ * produtos de uma vez, usar addProdutos() / alterarPrecos(), que criam uma
+ * só versão.
+ * 
+ * INSTANTÂNEO:
+ * guardar() / carregar() gravam e leem o inventário inteiro (produtos,
+ * cupões, cartões, saldos e carteiras) num ficheiro binário (ver
+ * Instantaneo). Uma caixa que reinicia fica pronta em milissegundos; os
+ * ficheiros .hnt só são precisos para a importação inicial.
+ * 
+ * RECARGA:
+ * atualizarCatalogo() e substituirCupoes() aplicam de uma vez as diferenças
+ * encontradas ao recarregar um ficheiro .hnt (ver menu.RecarregadorHnt).
+ * As vendas a decorrer não são afetadas: continuam com a versão do
+ * catálogo que fixaram e com os cupões que já ativaram.
+ * 
+ * DIÁRIO:
+ * abrirDiario() repõe por cima do inventário as alterações aos cartões
+ * (saldos, cupões usados) gravadas depois do instantâneo e liga todos os
+ * cartões ao Diario, para que as próximas também fiquem gravadas.
+ * 
  * EXEMPLO DE USO:
  * - getProduto("202-006") → busca instantânea!
  * - getCartao("10101") → busca instantânea!
@@ -33,9 +76,13 @@ public class Inventario {
     // CAMPOS - Inicializados na declaração (FORMA 1)
     // ========================================================================
     
-    private Map<String, ProdutoInfo> produtos = new HashMap<>();
-    private Map<String, Cartao> cartoes = new HashMap<>();
-    private Map<String, Cupao> cupoes = new HashMap<>();
+    // Versão atual do catálogo de produtos (trocada inteira a cada alteração)
+    private final AtomicReference<Catalogo> catalogo = new AtomicReference<>(new Catalogo());
+    private Map<String, Cartao> cartoes = new ConcurrentHashMap<>();
+    private Map<String, Cupao> cupoes = new ConcurrentHashMap<>();
+    
+    // Diário onde os cartões registam as suas alterações (null = nenhum)
+    private volatile Diario diario;
     
     
     // ========================================================================
@@ -47,10 +94,27 @@ public class Inventario {
      * 
      * @param p o produto a adicionar
      * @throws NullPointerException se produto for null
+     * @deprecated cada chamada publica uma versão nova do catálogo, que
+     *             copia todos os produtos: adicionar N produtos um a um
+     *             custa O(N²). Usar addProdutos() com todos de uma vez.
      */
+    @Deprecated
     public void addProduto(ProdutoInfo p) {
         Objects.requireNonNull(p, "Produto não pode ser null");
-        produtos.put(p.getCodigoBarras(), p);
+        addProdutos(List.of(p));
+    }
+    
+    /**
+     * Adiciona vários produtos ao inventário, numa só versão nova do catálogo.
+     * 
+     * @param novos os produtos a adicionar
+     * @return a nova versão do catálogo
+     * @throws NullPointerException se algum produto for null
+     */
+    public Catalogo addProdutos(Collection<ProdutoInfo> novos) {
+        for (ProdutoInfo p : novos)
+            Objects.requireNonNull(p, "Produto não pode ser null");
+        return catalogo.updateAndGet(c -> c.com(novos));
     }
     
     /**
@@ -60,10 +124,56 @@ public class Inventario {
      */
     public void removeProduto(ProdutoInfo p) {
         if (p != null) {
-            produtos.remove(p.getCodigoBarras());
+            catalogo.updateAndGet(c -> c.sem(List.of(p.getCodigoBarras())));
         }
     }
     
+    /**
+     * Altera os preços de vários produtos, numa só versão nova do catálogo.
+     * As vendas já começadas continuam com os preços antigos.
+     * 
+     * @param precos novo preço (em cêntimos) de cada código de barras
+     * @return a nova versão do catálogo
+     * @throws IllegalArgumentException se algum código não existir ou algum
+     *         preço for negativo (nesse caso nenhum preço é alterado)
+     */
+    public Catalogo alterarPrecos(Map<String, Long> precos) {
+        return catalogo.updateAndGet(c -> c.comPrecos(precos));
+    }
+    
+    /**
+     * Adiciona ou substitui uns produtos e remove outros, numa só versão nova
+     * do catálogo: nenhuma venda vê só parte das alterações.
+     * 
+     * @param novos os produtos a adicionar ou substituir
+     * @param removidos os códigos de barras dos produtos a remover
+     * @return a nova versão do catálogo
+     * @throws NullPointerException se algum produto for null
+     */
+    public Catalogo atualizarCatalogo(Collection<ProdutoInfo> novos, Collection<String> removidos) {
+        for (ProdutoInfo p : novos)
+            Objects.requireNonNull(p, "Produto não pode ser null");
+        return catalogo.updateAndGet(c -> c.alterado(novos, removidos));
+    }
+    
+    /**
+     * Retorna a versão atual do catálogo de produtos.
+     * 
+     * @return o catálogo em vigor
+     */
+    public Catalogo getCatalogo() {
+        return catalogo.get();
+    }
+    
+    /**
+     * Cria uma venda que usa a versão atual do catálogo.
+     * 
+     * @return a nova venda
+     */
+    public Venda novaVenda() {
+        return new Venda(getCatalogo());
+    }
+    
     /**
      * Retorna qual o produto que tem um dado código de barras.
      * 
@@ -71,7 +181,7 @@ public class Inventario {
      * @return o produto com o código de barras, ou null caso não exista
      */
     public ProdutoInfo getProduto(String codigoBarras) {
-        return produtos.get(codigoBarras);
+        return getCatalogo().getProduto(codigoBarras);
     }
     
     /**
@@ -80,7 +190,7 @@ public class Inventario {
      * @return coleção não modificável de todos os produtos
      */
     public Collection<ProdutoInfo> getProdutos() {
-        return Collections.unmodifiableCollection(produtos.values());
+        return getCatalogo().getProdutos();
     }
     
     
@@ -96,6 +206,8 @@ public class Inventario {
      */
     public void addCartao(Cartao c) {
         Objects.requireNonNull(c, "Cartão não pode ser null");
+        if (diario != null)
+            c.ligarDiario(diario);
         cartoes.put(c.getNumero(), c);
     }
     
@@ -117,7 +229,7 @@ public class Inventario {
      * @return o cartão com o número pedido, ou null caso não exista
      */
     public Cartao getCartao(String numero) {
-        return cartoes.get(numero);
+        return numero == null ? null : cartoes.get(numero);
     }
     
     /**
@@ -156,6 +268,37 @@ public class Inventario {
         }
     }
     
+    /**
+     * Substitui cupões por versões novas (com o mesmo número) e remove
+     * outros, no inventário e nas carteiras dos cartões. Cupões novos que
+     * ainda não existiam são só adicionados ao inventário.
+     * 
+     * Os cartões que estejam a meio de uma venda continuam com os cupões
+     * que ativaram (ver Cartao.substituirCupoes()).
+     * 
+     * @param novos os cupões a adicionar ou substituir
+     * @param removidos os números dos cupões a remover
+     * @throws NullPointerException se algum cupão for null
+     */
+    public void substituirCupoes(Collection<Cupao> novos, Collection<String> removidos) {
+        Map<String, Cupao> alterados = new HashMap<>();
+        for (Cupao c : novos)
+            alterados.put(Objects.requireNonNull(c, "Cupão não pode ser null").getNumero(), c);
+        for (String numero : removidos)
+            alterados.put(numero, null);
+        
+        // Primeiro o inventário (as novas ativações já veem as versões
+        // novas), depois as carteiras
+        for (Map.Entry<String, Cupao> e : alterados.entrySet()) {
+            if (e.getValue() == null)
+                cupoes.remove(e.getKey());
+            else
+                cupoes.put(e.getKey(), e.getValue());
+        }
+        for (Cartao k : cartoes.values())
+            k.substituirCupoes(alterados);
+    }
+    
     /**
      * Retorna o cupão com um dado número.
      * 
@@ -163,7 +306,7 @@ public class Inventario {
      * @return o cupão com o número pedido, ou null caso não exista
      */
     public Cupao getCupao(String numero) {
-        return cupoes.get(numero);
+        return numero == null ? null : cupoes.get(numero);
     }
     
     /**
@@ -176,19 +319,80 @@ public class Inventario {
     }
     
     
+    // ========================================================================
+    // INSTANTÂNEO
+    // ========================================================================
+    
+    /**
+     * Grava o inventário num instantâneo binário. O ficheiro anterior (se
+     * existir) só é substituído quando o novo estiver completo.
+     * 
+     * @param ficheiro o ficheiro a criar
+     * @throws IOException se a escrita falhar
+     */
+    public void guardar(Path ficheiro) throws IOException {
+        Instantaneo.escrever(this, ficheiro);
+    }
+    
+    /**
+     * Cria um inventário a partir de um instantâneo gravado com guardar().
+     * 
+     * @param ficheiro o ficheiro do instantâneo
+     * @return o inventário lido
+     * @throws IOException se o ficheiro não puder ser lido ou estiver corrompido
+     */
+    public static Inventario carregar(Path ficheiro) throws IOException {
+        return Instantaneo.ler(ficheiro);
+    }
+    
+    
+    /**
+     * Abre o diário dos cartões: repõe nos cartões os registos gravados
+     * depois do instantâneo (ver Cartao.getUltimoRegisto()) e liga todos os
+     * cartões, atuais e futuros, ao diário.
+     * 
+     * @param ficheiro o ficheiro do diário (criado se não existir)
+     * @return o diário aberto
+     * @throws IOException se o diário não puder ser lido ou escrito
+     * @throws IllegalStateException se já houver um diário aberto
+     */
+    public synchronized Diario abrirDiario(Path ficheiro) throws IOException {
+        if (diario != null)
+            throw new IllegalStateException("O inventário já tem um diário aberto");
+        Diario d = Diario.abrir(ficheiro, this);
+        diario = d;
+        for (Cartao c : cartoes.values())
+            c.ligarDiario(d);
+        return d;
+    }
+    
+    /**
+     * Retorna o diário dos cartões.
+     * 
+     * @return o diário (ou null se não foi aberto nenhum)
+     */
+    public Diario getDiario() {
+        return diario;
+    }
+    
+    
     // ========================================================================
     // MÉTODOS ESPECIAIS
     // ========================================================================
     
     /**
      * Adiciona um produto à venda usando o código de barras.
+     * Se o produto já estiver na venda, aumenta a quantidade da sua linha.
+     * O produto é procurado na versão do catálogo fixada pela venda (a
+     * atual, se for o primeiro produto).
      * 
      * @param v a venda onde adicionar o produto
      * @param codigoBarras o código de barras do produto
      * @throws IllegalArgumentException se produto não existe
      */
     public void vendeProduto(Venda v, String codigoBarras) {
-        ProdutoInfo produto = getProduto(codigoBarras);
+        long inicio = Metricas.VENDE_PRODUTO.inicio();
+        ProdutoInfo produto = v.fixarCatalogo(getCatalogo()).getProduto(codigoBarras);
         
         if (produto == null) {
             throw new IllegalArgumentException(
@@ -196,7 +400,181 @@ public class Inventario {
                 // CORREÇÕES: ↑ acento    ↑ espaço antes       ↑ "inventário" correto
         }
         
-        ProdutoVendido pv = new ProdutoVendido(produto, produto.getPreco());
-        v.adicionarProduto(pv);
+        // Produtos repetidos juntam-se na mesma linha (ver Venda)
+        v.adicionarProduto(produto, produto.getPreco());
+        Metricas.itemLido();
+        Metricas.VENDE_PRODUTO.registar(inicio);
+    }
+    
+    /**
+     * Adiciona um produto a uma venda colunar usando o código de barras.
+     * Não cria nenhum objeto por produto (ver VendaColunar).
+     * 
+     * @param v a venda onde adicionar o produto
+     * @param codigoBarras o código de barras do produto
+     * @throws IllegalArgumentException se produto não existe
+     */
+    public void vendeProduto(VendaColunar v, String codigoBarras) {
+        long inicio = Metricas.VENDE_PRODUTO.inicio();
+        ProdutoInfo produto = v.fixarCatalogo(getCatalogo()).getProduto(codigoBarras);
+        
+        if (produto == null) {
+            throw new IllegalArgumentException(
+                "Produto com código " + codigoBarras + " não existe no inventário!");
+        }
+        
+        v.adicionarProduto(produto, produto.getPreco());
+        Metricas.itemLido();
+        Metricas.VENDE_PRODUTO.registar(inicio);
+    }
+    
+    /**
+     * Faz um checkout completo, como Main.processaVenda(): cria a venda,
+     * passa os produtos, ativa os cupões no cartão e usa-o. A validade dos
+     * cupões é verificada para o dia de hoje.
+     * 
+     * @param pedido o cartão, os cupões e os produtos
+     * @return o resultado (total, desconto acumulado, saldo final)
+     * @throws IllegalArgumentException se o cartão, algum cupão ou algum
+     *         produto não existir, ou se algum cupão não estiver no cartão
+     */
+    public ResultadoCheckout processar(PedidoCheckout pedido) {
+        return processar(pedido, ContextoAvaliacao.hoje());
+    }
+    
+    /**
+     * Igual a processar(pedido), avaliando a validade dos cupões na data do
+     * contexto dado (ex: para reprocessar vendas de outros dias).
+     * 
+     * Tudo é verificado antes de tocar no cartão: um pedido com erros não
+     * altera nada. Ativar + usar são feitos com o lock do cartão, por isso
+     * pedidos do mesmo cartão em caixas diferentes não se misturam; a
+     * espera pelo diário é feita já sem o lock (ver liquidar()).
+     * 
+     * @param pedido o cartão, os cupões e os produtos
+     * @param ctx o contexto com a data da venda
+     * @return o resultado (total, desconto acumulado, saldo final)
+     * @throws IllegalArgumentException se o cartão, algum cupão ou algum
+     *         produto não existir, ou se algum cupão não estiver no cartão
+     */
+    public ResultadoCheckout processar(PedidoCheckout pedido, ContextoAvaliacao ctx) {
+        Cartao card = cartaoDe(pedido);
+        List<Cupao> cp = cupoesDe(pedido);
+        Venda v = vendaDe(pedido);
+        return liquidar(card, cp, v, ctx);
+    }
+    
+    /**
+     * Liquida muitos checkouts de uma vez (ex: as encomendas de uma vaga de
+     * picking), em paralelo num pool só para os lotes (e não no
+     * ForkJoinPool comum), com a data de hoje.
+     * 
+     * @param pedidos os pedidos
+     * @return um resultado por pedido, pela mesma ordem
+     * @see #processarLote(List, ContextoAvaliacao, ForkJoinPool)
+     */
+    public List<ResultadoCheckout> processarLote(List<PedidoCheckout> pedidos) {
+        return processarLote(pedidos, ContextoAvaliacao.hoje(), LoteCheckout.pool());
+    }
+    
+    /**
+     * Liquida muitos checkouts de uma vez, em paralelo.
+     * 
+     * Os pedidos são agrupados por cartão e os grupos são liquidados em
+     * paralelo no pool dado; dentro de cada grupo os pedidos são feitos
+     * pela ordem da lista. O estado final de cada cartão é o mesmo que se
+     * os pedidos fossem processados um a um com processar() (ver
+     * LoteCheckout).
+     * 
+     * Um pedido com erros (cartão, cupão ou produto que não existe, ...)
+     * não interrompe os outros: o seu resultado traz a mensagem de erro
+     * (ver ResultadoCheckout.isOk()).
+     * 
+     * @param pedidos os pedidos
+     * @param ctx o contexto com a data das vendas
+     * @param pool o pool onde correr
+     * @return um resultado por pedido, pela mesma ordem (não modificável)
+     */
+    public List<ResultadoCheckout> processarLote(List<PedidoCheckout> pedidos, ContextoAvaliacao ctx,
+                                                 ForkJoinPool pool) {
+        return LoteCheckout.processar(this, pedidos, ctx, pool);
+    }
+    
+    /**
+     * Procura o cartão de um pedido.
+     * 
+     * @throws IllegalArgumentException se não existir
+     */
+    Cartao cartaoDe(PedidoCheckout pedido) {
+        Cartao card = getCartao(pedido.getCartao());
+        if (card == null) {
+            throw new IllegalArgumentException(
+                "Cartão " + pedido.getCartao() + " não existe no inventário!");
+        }
+        return card;
+    }
+    
+    /**
+     * Procura os cupões a ativar de um pedido.
+     * 
+     * @throws IllegalArgumentException se algum não existir
+     */
+    List<Cupao> cupoesDe(PedidoCheckout pedido) {
+        ArrayList<Cupao> cp = new ArrayList<>(pedido.getCupoes().size());
+        for (String ccode : pedido.getCupoes()) {
+            Cupao c = getCupao(ccode);
+            if (c == null) {
+                throw new IllegalArgumentException(
+                    "Cupão " + ccode + " não existe no inventário!");
+            }
+            cp.add(c);
+        }
+        return cp;
+    }
+    
+    /**
+     * Cria a venda de um pedido (não toca em nenhum cartão).
+     * 
+     * @throws IllegalArgumentException se algum produto não existir
+     */
+    Venda vendaDe(PedidoCheckout pedido) {
+        Venda v = novaVenda();
+        for (String prod : pedido.getProdutos())
+            vendeProduto(v, prod);
+        return v;
+    }
+    
+    /**
+     * A parte do checkout que altera o cartão: ativar + usar. Ativar, aplicar
+     * os cupões e creditar o desconto são feitos com o lock do cartão; a
+     * espera pela gravação no diário (Cartao.confirmar()) é feita depois de
+     * o largar, para que as outras caixas do mesmo cartão não fiquem à
+     * espera do fsync. O saldo do resultado é o do fim deste checkout.
+     * 
+     * @throws IllegalArgumentException se algum cupão não estiver no cartão
+     */
+    ResultadoCheckout liquidar(Cartao card, List<Cupao> cp, Venda v, ContextoAvaliacao ctx) {
+        long inicio = Metricas.USAR.inicio();
+        Liquidacao l;
+        long saldo;
+        synchronized (card) {
+            // ativar() também verifica, mas só depois de marcar o cartão ativo
+            if (!card.getCupoes().containsAll(cp))
+                throw new IllegalArgumentException("Há cupões que não pertencem ao cartão");
+            card.ativar(cp);
+            l = card.aplicarCupoes(v, ctx);
+            card.creditar(l);
+            saldo = card.getSaldo();
+        }
+        card.confirmar(l);
+        Metricas.saldoCreditado(l.getDesconto());
+        Metricas.USAR.registar(inicio);
+        
+        LinkedHashSet<String> usados = new LinkedHashSet<>();
+        for (ProdutoVendido p : v.getItems())
+            if (p.getCupao() != null)
+                usados.add(p.getCupao().getNumero());
+        return new ResultadoCheckout(card.getNumero(), v.getTotal(), v.getTotalDesconto(),
+                                     saldo, new ArrayList<>(usados));
     }
 }
\ No newline at end of file
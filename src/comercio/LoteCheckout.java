@@ -0,0 +1,185 @@
+package comercio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import cliente.ContextoAvaliacao;
+
+/**
+ * Liquidação de muitos checkouts de uma vez (ver Inventario.processarLote()).
+ *
+ * COMO FUNCIONA:
+ * 1. Os pedidos são agrupados por cartão, mantendo a ordem em que
+ *    aparecem: cada grupo é uma lista de posições na lista de entrada
+ * 2. Os grupos são divididos ao meio recursivamente (RecursiveAction)
+ *    num ForkJoinPool; threads livres roubam metades às ocupadas. Uma
+ *    tarefa com LIMIAR pedidos ou menos já não se divide: processa os
+ *    seus grupos (vários cartões pequenos) seguidos
+ * 3. Dentro de um grupo, os pedidos são processados um a um, pela ordem
+ *    de entrada, com Inventario.processar()
+ *
+ * Como cada cartão só é tocado pela tarefa do seu grupo, e sempre pela
+ * ordem de entrada, o estado final de cada cartão é igual ao de processar
+ * os pedidos um a um. Cada resultado é escrito na posição do seu pedido;
+ * o join() das tarefas garante que todos ficam visíveis no fim.
+ *
+ * Os grupos maiores vão para o início, para que um cartão com muitos
+ * pedidos comece logo e não fique sozinho a acabar no fim.
+ *
+ * DIÁRIO:
+ * Com o diário aberto, cada pedido espera pela escrita em disco. Essa
+ * espera é feita dentro de ForkJoinPool.managedBlock(): enquanto uma
+ * thread espera, o pool pode pôr outra a trabalhar, e os registos de mais
+ * pedidos vão no mesmo fsync (ver Diario). Sem pool dado, o lote corre
+ * num pool só dele (pool()), e não no ForkJoinPool comum, que é partilhado
+ * por toda a JVM (streams paralelas, CompletableFuture, ...).
+ */
+final class LoteCheckout extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pedidos a partir dos quais uma tarefa se divide em duas */
+    private static final int LIMIAR = 32;
+
+    private final Inventario inventario;
+    private final List<PedidoCheckout> pedidos;
+    private final ContextoAvaliacao ctx;
+    private final int[][] grupos;
+    /** acumulado[g] = número de pedidos dos grupos antes de g */
+    private final int[] acumulado;
+    private final int inicio;
+    private final int fim;
+    private final ResultadoCheckout[] resultados;
+
+    private LoteCheckout(Inventario inventario, List<PedidoCheckout> pedidos, ContextoAvaliacao ctx,
+                         int[][] grupos, int[] acumulado, int inicio, int fim,
+                         ResultadoCheckout[] resultados) {
+        this.inventario = inventario;
+        this.pedidos = pedidos;
+        this.ctx = ctx;
+        this.grupos = grupos;
+        this.acumulado = acumulado;
+        this.inicio = inicio;
+        this.fim = fim;
+        this.resultados = resultados;
+    }
+
+    /**
+     * Processa os pedidos e retorna um resultado por pedido, pela ordem
+     * de entrada.
+     */
+    static List<ResultadoCheckout> processar(Inventario inventario, List<PedidoCheckout> pedidos,
+                                             ContextoAvaliacao ctx, ForkJoinPool pool) {
+        List<PedidoCheckout> lista = List.copyOf(pedidos);
+        if (lista.isEmpty())
+            return List.of();
+        ResultadoCheckout[] resultados = new ResultadoCheckout[lista.size()];
+        int[][] grupos = agrupar(lista);
+        int[] acumulado = new int[grupos.length + 1];
+        for (int g = 0; g < grupos.length; g++)
+            acumulado[g + 1] = acumulado[g] + grupos[g].length;
+        pool.invoke(new LoteCheckout(inventario, lista, ctx, grupos, acumulado, 0, grupos.length, resultados));
+        return Collections.unmodifiableList(Arrays.asList(resultados));
+    }
+
+    /**
+     * O pool dos lotes sem pool dado: uma thread por núcleo, criado na
+     * primeira utilização.
+     */
+    static ForkJoinPool pool() {
+        return PoolLotes.POOL;
+    }
+
+    private static final class PoolLotes {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("lote-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Agrupa as posições dos pedidos por cartão, maiores grupos primeiro.
+     */
+    private static int[][] agrupar(List<PedidoCheckout> pedidos) {
+        Map<String, List<Integer>> porCartao = new LinkedHashMap<>();
+        for (int i = 0; i < pedidos.size(); i++)
+            porCartao.computeIfAbsent(pedidos.get(i).getCartao(), k -> new ArrayList<>()).add(i);
+
+        int[][] grupos = new int[porCartao.size()][];
+        int g = 0;
+        for (List<Integer> posicoes : porCartao.values()) {
+            int[] grupo = new int[posicoes.size()];
+            for (int j = 0; j < grupo.length; j++)
+                grupo[j] = posicoes.get(j);
+            grupos[g++] = grupo;
+        }
+        Arrays.sort(grupos, (a, b) -> Integer.compare(b.length, a.length));
+        return grupos;
+    }
+
+    @Override
+    protected void compute() {
+        if (fim == inicio)
+            return;
+        if (fim - inicio > 1 && acumulado[fim] - acumulado[inicio] > LIMIAR) {
+            int meio = (inicio + fim) >>> 1;
+            invokeAll(new LoteCheckout(inventario, pedidos, ctx, grupos, acumulado, inicio, meio, resultados),
+                      new LoteCheckout(inventario, pedidos, ctx, grupos, acumulado, meio, fim, resultados));
+            return;
+        }
+        if (inventario.getDiario() == null) {
+            liquidar();
+            return;
+        }
+        Espera espera = new Espera();
+        try {
+            ForkJoinPool.managedBlock(espera);
+        } catch (InterruptedException e) {
+            // Espera.block() não lança: só por segurança
+            Thread.currentThread().interrupt();
+            if (!espera.feita)
+                liquidar();
+        }
+    }
+
+    /** Processa os pedidos dos grupos desta tarefa */
+    private void liquidar() {
+        for (int g = inicio; g < fim; g++)
+            for (int i : grupos[g])
+                resultados[i] = processar(pedidos.get(i));
+    }
+
+    /** liquidar() como espera bloqueante (fsync do diário), ver managedBlock() */
+    private final class Espera implements ForkJoinPool.ManagedBlocker {
+        boolean feita;
+
+        @Override
+        public boolean block() {
+            liquidar();
+            feita = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return feita;
+        }
+    }
+
+    private ResultadoCheckout processar(PedidoCheckout p) {
+        try {
+            return inventario.processar(p, ctx);
+        } catch (RuntimeException e) {
+            return ResultadoCheckout.falhou(p, e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+}
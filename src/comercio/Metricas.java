@@ -0,0 +1,393 @@
+package comercio;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+import util.Histograma;
+
+/**
+ * Métricas do motor, sempre ligadas: latências (p50, p99, p99.9) de
+ * Cartao.usar(), Inventario.vendeProduto() e dos carregadores dos .hnt, e
+ * contadores de produtos passados, cupões avaliados, cupões aplicados
+ * por tipo e saldo creditado nos checkouts.
+ *
+ * CUSTO:
+ * - Latências: Histograma (um incremento atómico, sem locks) e duas
+ *   leituras de System.nanoTime() (~25-50 ns cada). vendeProduto() é tão
+ *   rápido (~100 ns) que só 1 em cada 64 chamadas, ao acaso, é medida; as
+ *   outras latências medem todas as chamadas
+ * - Contadores: LongAdder (cada thread soma na sua célula, sem disputa)
+ * - -Dcupoes.metricas=false desliga tudo; ATIVAS é uma constante e o JIT
+ *   remove as medições
+ *
+ * CONSULTA:
+ * - JMX (jconsole, VisualVM, ...), depois de publicar():
+ *     honesta.cupoes:type=Latencia,name=usar         (e vendeProduto,
+ *                                                     lerFicheiro, carregar)
+ *     honesta.cupoes:type=Contadores
+ * - getResumo(): tudo em texto; com -Dcupoes.metricas.relatorio=N,
+ *   publicar() escreve-o em System.err a cada N segundos
+ *
+ * As latências são em nanossegundos no JMX e em microssegundos no resumo.
+ */
+public final class Metricas {
+
+    /** false com -Dcupoes.metricas=false */
+    public static final boolean ATIVAS = !"false".equalsIgnoreCase(System.getProperty("cupoes.metricas"));
+
+    private static final String DOMINIO = "honesta.cupoes";
+
+    /**
+     * Cartao.usar() (vendas normais e colunares) e, no PipelineCheckout,
+     * aplicarCupoes() mais a liquidação (crédito e gravação no diário)
+     */
+    public static final Latencia USAR = new Latencia("usar", 1);
+
+    /** Inventario.vendeProduto(), 1 em cada 64 chamadas */
+    public static final Latencia VENDE_PRODUTO = new Latencia("vendeProduto", 64);
+
+    /** A leitura e conversão de um ficheiro .hnt (CarregadorHnt) */
+    public static final Latencia LER_FICHEIRO = new Latencia("lerFicheiro", 1);
+
+    /** CarregadorHnt.carregar(): os três ficheiros e a ligação entre eles */
+    public static final Latencia CARREGAR = new Latencia("carregar", 1);
+
+    private static final List<Latencia> LATENCIAS = List.of(USAR, VENDE_PRODUTO, LER_FICHEIRO, CARREGAR);
+
+    private static final Contadores CONTADORES = new Contadores();
+
+    private static boolean publicadas;
+
+    private Metricas() {
+    }
+
+    // ========================================================================
+    // CONTAR (caminho crítico)
+    // ========================================================================
+
+    /**
+     * Conta um produto passado numa venda.
+     */
+    public static void itemLido() {
+        if (ATIVAS)
+            CONTADORES.itensLidos.increment();
+    }
+
+    /**
+     * Conta cupões avaliados (validade verificada) ao escolher o melhor
+     * cupão para as linhas de uma venda.
+     *
+     * @param n número de cupões avaliados
+     */
+    public static void cupoesAvaliados(int n) {
+        if (ATIVAS && n != 0)
+            CONTADORES.cupoesAvaliados.add(n);
+    }
+
+    /**
+     * Conta um cupão aplicado a uma linha de uma venda.
+     *
+     * @param c o cupão
+     */
+    public static void acerto(Cupao c) {
+        if (!ATIVAS)
+            return;
+        if (c instanceof CupaoProdutos)
+            CONTADORES.acertosProdutos.increment();
+        else if (c instanceof CupaoMarca)
+            CONTADORES.acertosMarca.increment();
+        else if (c instanceof CupaoCompra)
+            CONTADORES.acertosCompra.increment();
+        else
+            CONTADORES.acertosOutros.increment();
+    }
+
+    /**
+     * Conta o desconto creditado num checkout, depois de gravado. Não é
+     * chamado por Cartao.acumularSaldo(), para que os créditos manuais e
+     * os repostos do diário ao arrancar não entrem na conta.
+     *
+     * @param valor o valor, em cêntimos
+     */
+    public static void saldoCreditado(long valor) {
+        if (ATIVAS && valor != 0)
+            CONTADORES.saldoCreditado.add(valor);
+    }
+
+    // ========================================================================
+    // PUBLICAR E RESUMO
+    // ========================================================================
+
+    /**
+     * Regista os MBeans no servidor JMX da plataforma (só na primeira
+     * chamada) e, com -Dcupoes.metricas.relatorio=N, começa a escrever o
+     * resumo em System.err a cada N segundos.
+     *
+     * @throws IllegalStateException se os MBeans não puderem ser registados
+     */
+    public static synchronized void publicar() {
+        if (publicadas)
+            return;
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Latencia l : LATENCIAS) {
+                servidor.registerMBean(new StandardMBean(l, LatenciaMBean.class),
+                    new ObjectName(DOMINIO + ":type=Latencia,name=" + l.nome));
+            }
+            servidor.registerMBean(new StandardMBean(CONTADORES, ContadoresMBean.class),
+                new ObjectName(DOMINIO + ":type=Contadores"));
+        } catch (JMException e) {
+            throw new IllegalStateException("Erro ao registar as métricas no JMX", e);
+        }
+        publicadas = true;
+
+        String segundos = System.getProperty("cupoes.metricas.relatorio");
+        if (segundos != null)
+            relatorio(Long.parseLong(segundos), TimeUnit.SECONDS, System.err);
+    }
+
+    /**
+     * Escreve o resumo periodicamente, numa thread daemon.
+     *
+     * @param periodo o intervalo entre resumos
+     * @param unidade a unidade do intervalo
+     * @param out onde escrever
+     * @return a tarefa (cancel() pára os resumos)
+     * @throws IllegalArgumentException se o período não for positivo
+     */
+    public static ScheduledFuture<?> relatorio(long periodo, TimeUnit unidade, PrintStream out) {
+        if (periodo <= 0)
+            throw new IllegalArgumentException("Período do relatório deve ser positivo");
+        ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metricas");
+            t.setDaemon(true);
+            return t;
+        });
+        return s.scheduleAtFixedRate(() -> out.println(getResumo()), periodo, periodo, unidade);
+    }
+
+    /**
+     * Retorna as latências e os contadores, em texto (uma métrica por
+     * linha, nome \t valor).
+     *
+     * @return o resumo
+     */
+    public static String getResumo() {
+        StringBuilder sb = new StringBuilder();
+        for (Latencia l : LATENCIAS) {
+            sb.append(String.format("%s_n\t%d%n%s_p50_us\t%.1f%n%s_p99_us\t%.1f%n%s_p999_us\t%.1f%n%s_max_us\t%.1f%n",
+                l.nome, l.getContagem(), l.nome, l.getP50() / 1000.0, l.nome, l.getP99() / 1000.0,
+                l.nome, l.getP999() / 1000.0, l.nome, l.getMaximo() / 1000.0));
+        }
+        Contadores c = CONTADORES;
+        sb.append(String.format("itens_lidos\t%d%ncupoes_avaliados\t%d%n" +
+                                "acertos_produtos\t%d%nacertos_marca\t%d%nacertos_compra\t%d%n" +
+                                "acertos_outros\t%d%nsaldo_creditado\t%d",
+            c.getItensLidos(), c.getCupoesAvaliados(), c.getAcertosProdutos(), c.getAcertosMarca(),
+            c.getAcertosCompra(), c.getAcertosOutros(), c.getSaldoCreditado()));
+        return sb.toString();
+    }
+
+    /**
+     * Apaga todas as latências e contadores.
+     */
+    public static void limpar() {
+        for (Latencia l : LATENCIAS)
+            l.limpar();
+        CONTADORES.limpar();
+    }
+
+    // ========================================================================
+    // LATÊNCIAS
+    // ========================================================================
+
+    /**
+     * Atributos JMX de uma latência (em nanossegundos).
+     */
+    public interface LatenciaMBean {
+        long getContagem();
+        long getP50();
+        long getP99();
+        long getP999();
+        long getMaximo();
+        void limpar();
+    }
+
+    /**
+     * A latência de uma operação. Uso:
+     *   long inicio = Metricas.USAR.inicio();
+     *   ...
+     *   Metricas.USAR.registar(inicio);
+     */
+    public static final class Latencia implements LatenciaMBean {
+        private final String nome;
+        private final Histograma histograma = new Histograma();
+
+        /** 0 = medir todas; senão taxa - 1 (taxa potência de 2) */
+        private final int mascara;
+
+        private Latencia(String nome, int taxa) {
+            this.nome = nome;
+            this.mascara = taxa - 1;
+        }
+
+        /**
+         * Marca o início de uma operação.
+         *
+         * @return o instante de início, ou 0 se esta operação não é medida
+         */
+        public long inicio() {
+            if (!ATIVAS || (mascara != 0 && (ThreadLocalRandom.current().nextInt() & mascara) != 0))
+                return 0;
+            return System.nanoTime();
+        }
+
+        /**
+         * Conta o fim de uma operação.
+         *
+         * @param inicio o valor retornado por inicio()
+         */
+        public void registar(long inicio) {
+            if (inicio != 0)
+                histograma.registar(System.nanoTime() - inicio);
+        }
+
+        /**
+         * Conta uma operação já medida por quem chama (ex: feita em partes,
+         * em threads diferentes). Só deve ser chamado se inicio() não
+         * retornou 0 para essa operação.
+         *
+         * @param duracao a duração, em nanossegundos
+         */
+        public void registarDuracao(long duracao) {
+            histograma.registar(duracao);
+        }
+
+        /**
+         * Retorna o histograma das latências medidas.
+         *
+         * @return o histograma (em nanossegundos)
+         */
+        public Histograma getHistograma() {
+            return histograma;
+        }
+
+        /** Número de operações medidas (em vendeProduto, uma amostra) */
+        @Override
+        public long getContagem() {
+            return histograma.getContagem();
+        }
+
+        @Override
+        public long getP50() {
+            return histograma.percentil(0.5);
+        }
+
+        @Override
+        public long getP99() {
+            return histograma.percentil(0.99);
+        }
+
+        @Override
+        public long getP999() {
+            return histograma.percentil(0.999);
+        }
+
+        @Override
+        public long getMaximo() {
+            return histograma.getMaximo();
+        }
+
+        @Override
+        public void limpar() {
+            histograma.limpar();
+        }
+    }
+
+    // ========================================================================
+    // CONTADORES
+    // ========================================================================
+
+    /**
+     * Atributos JMX dos contadores.
+     */
+    public interface ContadoresMBean {
+        long getItensLidos();
+        long getCupoesAvaliados();
+        long getAcertosProdutos();
+        long getAcertosMarca();
+        long getAcertosCompra();
+        long getAcertosOutros();
+        /** Em cêntimos */
+        long getSaldoCreditado();
+        void limpar();
+    }
+
+    private static final class Contadores implements ContadoresMBean {
+        final LongAdder itensLidos = new LongAdder();
+        final LongAdder cupoesAvaliados = new LongAdder();
+        final LongAdder acertosProdutos = new LongAdder();
+        final LongAdder acertosMarca = new LongAdder();
+        final LongAdder acertosCompra = new LongAdder();
+        final LongAdder acertosOutros = new LongAdder();
+        final LongAdder saldoCreditado = new LongAdder();
+
+        @Override
+        public long getItensLidos() {
+            return itensLidos.sum();
+        }
+
+        @Override
+        public long getCupoesAvaliados() {
+            return cupoesAvaliados.sum();
+        }
+
+        @Override
+        public long getAcertosProdutos() {
+            return acertosProdutos.sum();
+        }
+
+        @Override
+        public long getAcertosMarca() {
+            return acertosMarca.sum();
+        }
+
+        @Override
+        public long getAcertosCompra() {
+            return acertosCompra.sum();
+        }
+
+        @Override
+        public long getAcertosOutros() {
+            return acertosOutros.sum();
+        }
+
+        @Override
+        public long getSaldoCreditado() {
+            return saldoCreditado.sum();
+        }
+
+        @Override
+        public void limpar() {
+            for (LongAdder a : List.of(itensLidos, cupoesAvaliados, acertosProdutos, acertosMarca,
+                                       acertosCompra, acertosOutros, saldoCreditado))
+                a.reset();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package comercio;
+
+/**
+ * Interface para quem quer ser avisado das alterações às linhas de uma venda.
+ *
+ * É usada pela sessão de checkout (cliente.SessaoCheckout) para aplicar os
+ * cupões à medida que os produtos são passados na caixa, em vez de os
+ * aplicar todos de uma vez no fim.
+ *
+ * Os avisos são dados DEPOIS de a venda ter atualizado os seus totais.
+ */
+public interface OuvinteVenda {
+
+    /**
+     * Foi adicionada uma nova linha à venda.
+     *
+     * @param linha a linha adicionada
+     */
+    void linhaAdicionada(ProdutoVendido linha);
+
+    /**
+     * A quantidade de uma linha mudou.
+     *
+     * @param linha a linha alterada
+     * @param diferenca unidades somadas (positivo) ou retiradas (negativo)
+     */
+    void quantidadeAlterada(ProdutoVendido linha, int diferenca);
+
+    /**
+     * Uma linha foi removida da venda.
+     *
+     * @param linha a linha removida
+     */
+    void linhaRemovida(ProdutoVendido linha);
+
+    /**
+     * Indica se o cupão de uma linha foi aplicado por este ouvinte e se ele
+     * ainda acompanha as suas mudanças de quantidade. A venda só junta uma
+     * unidade nova a uma linha com cupão se for assim: caso contrário o
+     * desconto da nova unidade não chegaria ao cartão.
+     *
+     * @param linha uma linha com cupão
+     * @return true se as unidades somadas a esta linha são contadas
+     */
+    default boolean acompanha(ProdutoVendido linha) {
+        return false;
+    }
+}
@@ -0,0 +1,62 @@
+package comercio;
+
+import java.util.List;
+import java.util.Objects;
+
+import util.Validator;
+
+/**
+ * Um pedido de checkout: o cartão do cliente, os cupões que quer ativar e
+ * os códigos de barras dos produtos passados na caixa.
+ *
+ * É o que Main.processaVenda() recebia como parâmetros, num só objeto
+ * imutável que pode ser posto em filas, enviado pela rede ou processado
+ * em lote (ver Inventario.processar()).
+ *
+ * EXEMPLO:
+ *   PedidoCheckout p = new PedidoCheckout("10101",
+ *       List.of("1001", "1501"), List.of("125-008", "206-012"));
+ *   ResultadoCheckout r = inventario.processar(p);
+ */
+public final class PedidoCheckout {
+
+    private final String cartao;
+    private final List<String> cupoes;
+    private final List<String> produtos;
+
+    /**
+     * Cria um pedido.
+     *
+     * @param cartao o número do cartão (não vazio)
+     * @param cupoes os números dos cupões a ativar (pode ser vazia)
+     * @param produtos os códigos de barras dos produtos, pela ordem da caixa
+     * @throws IllegalArgumentException se o número do cartão for vazio
+     * @throws NullPointerException se alguma lista (ou elemento) for null
+     */
+    public PedidoCheckout(String cartao, List<String> cupoes, List<String> produtos) {
+        this.cartao = Validator.requireNonBlank(cartao);
+        this.cupoes = List.copyOf(Objects.requireNonNull(cupoes));
+        this.produtos = List.copyOf(Objects.requireNonNull(produtos));
+    }
+
+    /** @return o número do cartão */
+    public String getCartao() {
+        return cartao;
+    }
+
+    /** @return os números dos cupões a ativar (lista imutável) */
+    public List<String> getCupoes() {
+        return cupoes;
+    }
+
+    /** @return os códigos de barras dos produtos (lista imutável) */
+    public List<String> getProdutos() {
+        return produtos;
+    }
+
+    @Override
+    public String toString() {
+        return "PedidoCheckout[cartão " + cartao + ", " + cupoes.size() + " cupões, "
+            + produtos.size() + " produtos]";
+    }
+}
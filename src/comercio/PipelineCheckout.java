@@ -0,0 +1,498 @@
+package comercio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cliente.Cartao;
+import cliente.ContextoAvaliacao;
+import cliente.Cupao;
+import cliente.Liquidacao;
+
+/**
+ * Motor de checkout em pipeline (opcional): cada pedido passa por quatro
+ * etapas, cada uma na sua thread, em vez de ser feito todo numa só.
+ *
+ * ETAPAS:
+ *   LER      códigos de barras → ProdutoInfo (uma versão do catálogo por
+ *            lote), cartão e cupões
+ *   PREÇO    cria a Venda e os ProdutoVendido
+ *   CUPÕES   ativa os cupões no cartão e escolhe o melhor para cada linha
+ *            (Cartao.aplicarCupoes()); remove os usados da carteira
+ *   SALDO    acumula o desconto no cartão e regista-o no diário, junto
+ *            com os cupões removidos (Cartao.creditar()); no fim do lote
+ *            espera uma só vez pela gravação e completa os
+ *            CompletableFuture dos pedidos
+ *
+ * ANEL (ring buffer):
+ * Os pedidos ocupam posições (Evento) de um anel com tamanho fixo, criadas
+ * uma vez no início e reutilizadas: as listas de cada posição não são
+ * recriadas a cada pedido. Cada etapa tem um contador (Sequencia) com o
+ * número do último evento que tratou; uma etapa só trata os eventos que
+ * a anterior já publicou, e quem submete só reutiliza uma posição depois
+ * de a etapa SALDO a ter libertado. Não há locks nem filas entre etapas:
+ * só leituras e escritas de contadores volatile.
+ *
+ * LOTES:
+ * Cada etapa trata de seguida TODOS os eventos disponíveis e só depois
+ * publica o seu contador (uma escrita volatile por lote, não por evento).
+ * Com carga alta os lotes crescem e o custo por pedido desce; com carga
+ * baixa cada pedido passa logo. A etapa SALDO credita o lote todo sem
+ * esperar pelo diário e só depois espera pelo registo mais alto do lote
+ * (que garante todos os anteriores): uma espera por lote, não por pedido.
+ * Se a gravação falhar, cada liquidação do lote que não ficou gravada é
+ * desfeita (Cartao.confirmar()) e o seu pedido falha.
+ *
+ * CONTRAPRESSÃO E LATÊNCIA:
+ * Com o anel cheio, submeter() espera: a quantidade de pedidos em curso
+ * (e portanto o tempo de espera de cada um) tem um máximo.
+ *
+ * FECHO:
+ * close() primeiro impede submissões novas e espera que as que já
+ * passaram a verificação publiquem o seu evento; só depois lê o último
+ * número dado, espera que a etapa SALDO lá chegue e pára as etapas.
+ * Todos os pedidos aceites por submeter() são completados.
+ *
+ * ESPERA:
+ * Uma etapa sem trabalho tenta de novo algumas vezes (onSpinWait), depois
+ * cede o processador (yield) e por fim dorme 50 µs de cada vez: reage
+ * depressa com carga e não gasta um núcleo inteiro quando está parada.
+ *
+ * CONSISTÊNCIA:
+ * As etapas CUPÕES e SALDO tratam os eventos pela ordem de chegada e uma
+ * de cada vez, por isso os checkouts de um mesmo cartão são feitos pela
+ * ordem de submissão. Entre as duas o saldo ainda não inclui o desconto
+ * (fica atrasado alguns eventos). Ativar + aplicar os cupões são feitos
+ * com o lock do cartão, como em Inventario.processar().
+ *
+ * EXEMPLO:
+ *   try (PipelineCheckout p = new PipelineCheckout(inventario, 1024)) {
+ *       p.submeter(pedido).thenAccept(r -> ...);
+ *   }
+ * Os callbacks do CompletableFuture correm na thread da etapa SALDO: para
+ * trabalho pesado usar thenAcceptAsync(). Um callback síncrono não pode
+ * chamar submeter() nem close(): com o anel cheio, a etapa SALDO ficaria
+ * à espera de si própria. Por isso ambos lançam IllegalStateException se
+ * forem chamados nessa thread; usar thenAcceptAsync()/thenComposeAsync().
+ */
+public final class PipelineCheckout implements AutoCloseable {
+
+    // ========================================================================
+    // CAMPOS
+    // ========================================================================
+
+    private final Inventario inventario;
+    private final Evento[] anel;
+    private final int mascara;
+
+    /** Próximo número a dar a um pedido */
+    private final AtomicLong cursor = new AtomicLong();
+
+    private final Sequencia lidos = new Sequencia();
+    private final Sequencia precos = new Sequencia();
+    private final Sequencia cupoes = new Sequencia();
+    private final Sequencia liquidados = new Sequencia();
+
+    private final List<Thread> etapas = new ArrayList<>();
+    /** A thread da etapa SALDO, onde os futuros são completados */
+    private final Thread threadSaldo;
+    /** Sem submissões novas (close() começou) */
+    private volatile boolean fechado;
+    /** Submissões que já passaram a verificação de fechado e ainda não publicaram */
+    private final AtomicInteger aSubmeter = new AtomicInteger();
+    /** As etapas terminam quando ficarem sem eventos */
+    private volatile boolean parar;
+
+    /** Eventos creditados no lote atual da etapa SALDO (só essa thread) */
+    private final List<Evento> creditados = new ArrayList<>();
+
+    // ========================================================================
+    // CONSTRUTOR E FECHO
+    // ========================================================================
+
+    /**
+     * Cria o pipeline e arranca as quatro etapas.
+     *
+     * @param inventario o inventário (produtos, cupões e cartões)
+     * @param tamanho número de posições do anel (arredondado para potência de 2)
+     * @throws IllegalArgumentException se o tamanho não for positivo
+     */
+    public PipelineCheckout(Inventario inventario, int tamanho) {
+        if (tamanho <= 0)
+            throw new IllegalArgumentException("Tamanho do anel deve ser positivo");
+        this.inventario = inventario;
+        int n = Integer.highestOneBit(tamanho);
+        if (n < tamanho)
+            n <<= 1;
+        anel = new Evento[n];
+        for (int i = 0; i < n; i++)
+            anel[i] = new Evento();
+        mascara = n - 1;
+
+        iniciar("pipeline-ler", null, lidos, this::ler, null);
+        iniciar("pipeline-preco", lidos, precos, this::precificar, null);
+        iniciar("pipeline-cupoes", precos, cupoes, this::aplicarCupoes, null);
+        threadSaldo = iniciar("pipeline-saldo", cupoes, liquidados, this::liquidar, this::confirmarLote);
+    }
+
+    /**
+     * Espera que os pedidos já submetidos terminem e pára as etapas. As
+     * chamadas a submeter() que começarem depois falham.
+     *
+     * @throws IllegalStateException se for chamado num callback síncrono
+     *         de um pedido (thread da etapa SALDO)
+     */
+    @Override
+    public void close() {
+        verificarThread();
+        fechado = true;
+        // Quem viu fechado == false ainda publica o seu evento
+        int tentativas = 0;
+        while (aSubmeter.get() > 0)
+            tentativas = esperar(tentativas);
+
+        long ultimo = cursor.get() - 1;
+        tentativas = 0;
+        while (liquidados.valor < ultimo)
+            tentativas = esperar(tentativas);
+        parar = true;
+        for (Thread t : etapas) {
+            boolean interrompido = false;
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrompido = true;
+                }
+            }
+            if (interrompido)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // ========================================================================
+    // SUBMETER
+    // ========================================================================
+
+    /**
+     * Submete um checkout, com a data de hoje.
+     *
+     * @param pedido o cartão, os cupões e os produtos
+     * @return o resultado; falha com IllegalArgumentException se o cartão,
+     *         algum cupão ou algum produto não existir
+     */
+    public CompletableFuture<ResultadoCheckout> submeter(PedidoCheckout pedido) {
+        return submeter(pedido, ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Submete um checkout. Se o anel estiver cheio, espera por uma posição.
+     *
+     * @param pedido o cartão, os cupões e os produtos
+     * @param ctx o contexto com a data da venda
+     * @return o resultado (ou a exceção)
+     * @throws IllegalStateException se o pipeline estiver fechado, ou se
+     *         for chamado num callback síncrono de um pedido (thread da
+     *         etapa SALDO)
+     */
+    public CompletableFuture<ResultadoCheckout> submeter(PedidoCheckout pedido, ContextoAvaliacao ctx) {
+        verificarThread();
+        // Anunciar antes de ver fechado: close() espera por quem passou
+        aSubmeter.incrementAndGet();
+        try {
+            if (fechado)
+                throw new IllegalStateException("Pipeline fechado");
+            long seq = cursor.getAndIncrement();
+
+            // Esperar que a etapa SALDO liberte a posição (volta anterior do anel)
+            int tentativas = 0;
+            while (seq - anel.length > liquidados.valor)
+                tentativas = esperar(tentativas);
+
+            Evento e = anel[(int) seq & mascara];
+            CompletableFuture<ResultadoCheckout> futuro = new CompletableFuture<>();
+            e.preparar(pedido, ctx, futuro);
+            e.publicado = seq;
+            return futuro;
+        } finally {
+            aSubmeter.decrementAndGet();
+        }
+    }
+
+    /**
+     * Na thread da etapa SALDO (callback síncrono de um pedido), esperar
+     * por uma posição livre ou pelo fim dos pedidos nunca acaba.
+     */
+    private void verificarThread() {
+        if (Thread.currentThread() == threadSaldo)
+            throw new IllegalStateException(
+                "Pipeline usado num callback síncrono: usar thenAcceptAsync() ou thenComposeAsync()");
+    }
+
+    // ========================================================================
+    // ETAPAS
+    // ========================================================================
+
+    /**
+     * Arranca uma etapa: trata em lote os eventos que a etapa anterior já
+     * publicou (ou, na primeira, os já submetidos) e publica o seu contador.
+     * fimLote (se não for null) corre depois de cada lote, antes de o
+     * publicar.
+     *
+     * @return a thread da etapa
+     */
+    private Thread iniciar(String nome, Sequencia anterior, Sequencia propria,
+                           Tratamento tratamento, Runnable fimLote) {
+        Thread t = new Thread(() -> {
+            long proximo = 0;
+            int tentativas = 0;
+            while (true) {
+                long ate = anterior != null ? anterior.valor : submetidos(proximo);
+                if (ate < proximo) {
+                    if (parar)
+                        return;
+                    tentativas = esperar(tentativas);
+                    continue;
+                }
+                tentativas = 0;
+                Catalogo catalogo = inventario.getCatalogo();
+                for (long s = proximo; s <= ate; s++)
+                    tratar(anel[(int) s & mascara], catalogo, tratamento);
+                if (fimLote != null)
+                    fimLote.run();
+                propria.valor = ate;
+                proximo = ate + 1;
+            }
+        }, nome);
+        t.setDaemon(true);
+        etapas.add(t);
+        t.start();
+        return t;
+    }
+
+    /** Último evento submetido seguido a partir de proximo (ou proximo - 1) */
+    private long submetidos(long proximo) {
+        long s = proximo;
+        while (anel[(int) s & mascara].publicado == s)
+            s++;
+        return s - 1;
+    }
+
+    private static void tratar(Evento e, Catalogo catalogo, Tratamento tratamento) {
+        try {
+            tratamento.tratar(e, catalogo);
+        } catch (RuntimeException ex) {
+            if (e.erro == null)
+                e.erro = ex;
+        }
+    }
+
+    /** O trabalho de uma etapa sobre um evento */
+    @FunctionalInterface
+    private interface Tratamento {
+        void tratar(Evento e, Catalogo catalogo);
+    }
+
+    /** LER: cartão, cupões e produtos (da versão do catálogo do lote) */
+    private void ler(Evento e, Catalogo catalogo) {
+        e.cartao = inventario.cartaoDe(e.pedido);
+        e.cupoes.addAll(inventario.cupoesDe(e.pedido));
+        e.catalogo = catalogo;
+        for (String codigo : e.pedido.getProdutos()) {
+            ProdutoInfo p = catalogo.getProduto(codigo);
+            if (p == null) {
+                throw new IllegalArgumentException(
+                    "Produto com código " + codigo + " não existe no inventário!");
+            }
+            e.produtos.add(p);
+        }
+    }
+
+    /** PREÇO: a venda e as suas linhas */
+    private void precificar(Evento e, Catalogo catalogo) {
+        if (e.erro != null)
+            return;
+        Venda v = new Venda(e.catalogo);
+        for (ProdutoInfo p : e.produtos)
+            v.adicionarProduto(p, p.getPreco());
+        e.venda = v;
+    }
+
+    /** CUPÕES: ativar e escolher os cupões; o desconto fica para a etapa seguinte */
+    private void aplicarCupoes(Evento e, Catalogo catalogo) {
+        if (e.erro != null)
+            return;
+        Cartao card = e.cartao;
+        synchronized (card) {
+            if (!card.getCupoes().containsAll(e.cupoes))
+                throw new IllegalArgumentException("Há cupões que não pertencem ao cartão");
+            card.ativar(e.cupoes);
+            long inicio = Metricas.USAR.inicio();
+            e.liquidacao = card.aplicarCupoes(e.venda, e.ctx);
+            if (inicio != 0) {
+                e.medir = true;
+                e.duracaoCupoes = System.nanoTime() - inicio;
+            }
+        }
+    }
+
+    /**
+     * SALDO: acumular o desconto (sem esperar pelo diário). O pedido só é
+     * completado em confirmarLote(); um pedido com erro falha já.
+     */
+    private void liquidar(Evento e, Catalogo catalogo) {
+        if (e.erro != null) {
+            e.futuro.completeExceptionally(e.erro);
+            e.limpar();
+            return;
+        }
+        try {
+            if (e.medir)
+                e.inicioSaldo = System.nanoTime();
+            e.cartao.creditar(e.liquidacao);
+            e.saldo = e.cartao.getSaldo();
+            creditados.add(e);
+        } catch (RuntimeException ex) {
+            e.futuro.completeExceptionally(ex);
+            e.limpar();
+        }
+    }
+
+    /**
+     * Fim de um lote da etapa SALDO: espera uma vez pelo registo mais alto
+     * do lote, completa os pedidos e liberta as posições.
+     */
+    private void confirmarLote() {
+        if (creditados.isEmpty())
+            return;
+        long ultimo = 0;
+        for (Evento e : creditados)
+            ultimo = Math.max(ultimo, e.liquidacao.getRegisto());
+        Diario diario = inventario.getDiario();
+        if (diario != null && ultimo > 0) {
+            try {
+                diario.confirmar(ultimo);
+            } catch (RuntimeException ex) {
+                // Cada Cartao.confirmar() abaixo desfaz a sua liquidação se
+                // o registo dela não ficou gravado
+            }
+        }
+        for (Evento e : creditados) {
+            CompletableFuture<ResultadoCheckout> futuro = e.futuro;
+            try {
+                // Já gravado: retorna logo (e cobre um cartão com outro diário)
+                e.cartao.confirmar(e.liquidacao);
+                Metricas.saldoCreditado(e.liquidacao.getDesconto());
+                // aplicarCupoes() mais creditar() até à gravação; não conta
+                // o tempo à espera entre as duas etapas
+                if (e.medir)
+                    Metricas.USAR.registarDuracao(e.duracaoCupoes + System.nanoTime() - e.inicioSaldo);
+
+                LinkedHashSet<String> usados = new LinkedHashSet<>();
+                for (ProdutoVendido p : e.venda.getItems())
+                    if (p.getCupao() != null)
+                        usados.add(p.getCupao().getNumero());
+                futuro.complete(new ResultadoCheckout(e.cartao.getNumero(), e.venda.getTotal(),
+                    e.venda.getTotalDesconto(), e.saldo, new ArrayList<>(usados)));
+            } catch (RuntimeException ex) {
+                futuro.completeExceptionally(ex);
+            } finally {
+                e.limpar();
+            }
+        }
+        creditados.clear();
+    }
+
+    // ========================================================================
+    // ESPERA
+    // ========================================================================
+
+    private static int esperar(int tentativas) {
+        if (tentativas < 100)
+            Thread.onSpinWait();
+        else if (tentativas < 200)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50_000);
+        return tentativas + 1;
+    }
+
+    // ========================================================================
+    // EVENTOS E SEQUÊNCIAS
+    // ========================================================================
+
+    /**
+     * Uma posição do anel. Cada campo é escrito por uma etapa e lido pelas
+     * seguintes depois de esta publicar o seu contador.
+     */
+    private static final class Evento {
+        /** Número do pedido nesta posição (escrito por último ao submeter) */
+        volatile long publicado = -1;
+
+        PedidoCheckout pedido;
+        ContextoAvaliacao ctx;
+        CompletableFuture<ResultadoCheckout> futuro;
+
+        Catalogo catalogo;
+        final List<ProdutoInfo> produtos = new ArrayList<>();
+        Cartao cartao;
+        final List<Cupao> cupoes = new ArrayList<>();
+        Venda venda;
+        Liquidacao liquidacao;
+        /** Saldo do cartão logo depois de creditar este pedido */
+        long saldo;
+        /** Para Metricas.USAR: este pedido é medido */
+        boolean medir;
+        /** Duração de aplicarCupoes() na etapa CUPÕES, em nanossegundos */
+        long duracaoCupoes;
+        /** Início de creditar() na etapa SALDO (System.nanoTime()) */
+        long inicioSaldo;
+        RuntimeException erro;
+
+        void preparar(PedidoCheckout pedido, ContextoAvaliacao ctx,
+                      CompletableFuture<ResultadoCheckout> futuro) {
+            this.pedido = pedido;
+            this.ctx = ctx;
+            this.futuro = futuro;
+        }
+
+        /** Larga as referências do pedido (a posição fica à espera do próximo) */
+        void limpar() {
+            pedido = null;
+            ctx = null;
+            futuro = null;
+            catalogo = null;
+            produtos.clear();
+            cartao = null;
+            cupoes.clear();
+            venda = null;
+            liquidacao = null;
+            medir = false;
+            duracaoCupoes = 0;
+            inicioSaldo = 0;
+            erro = null;
+        }
+    }
+
+    /**
+     * Contador de uma etapa. Os campos de enchimento (p*, q*) ficam antes e
+     * depois do valor, para que contadores de etapas diferentes não
+     * partilhem a mesma linha de cache (false sharing).
+     */
+    private static class EnchimentoEsquerdo {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class ValorSequencia extends EnchimentoEsquerdo {
+        /** Último evento tratado (-1 = nenhum) */
+        volatile long valor = -1;
+    }
+
+    private static final class Sequencia extends ValorSequencia {
+        long q1, q2, q3, q4, q5, q6, q7;
+    }
+}
@@ -17,8 +17,9 @@ public class ProdutoInfo {
     
     private String codigoBarras;  // Ex: "202-006"
     private String marca;          // Ex: "Albicereal"
+    private int marcaId;           // id da marca no DicionarioMarcas
     private String modelo;         // Ex: "Massa Esparguete"
-    private long preco;            // Ex: 231 (= 2.31€)
+    private volatile long preco;   // Ex: 231 (= 2.31€), volatile: lido por várias caixas
     
     
     // ========================================================================
@@ -58,7 +59,9 @@ public class ProdutoInfo {
         
         // Se passou todas as validações, atribui os valores
         this.codigoBarras = codigoBarras;
-        this.marca = marca;
+        // A marca é guardada uma só vez no dicionário partilhado
+        this.marcaId = DicionarioMarcas.codificar(marca);
+        this.marca = DicionarioMarcas.getNome(marcaId);
         this.modelo = modelo;
         this.preco = preco;
     }
@@ -84,6 +87,15 @@ public class ProdutoInfo {
         return marca;
     }
     
+    /**
+     * Retorna o id da marca no DicionarioMarcas.
+     * Produtos da mesma marca (ignorando maiúsculas/minúsculas) têm o mesmo id.
+     * @return o id da marca
+     */
+    public int getMarcaId() {
+        return marcaId;
+    }
+    
     /**
      * Retorna o modelo/nome do produto.
      * @return o modelo
@@ -109,6 +121,10 @@ public class ProdutoInfo {
      * Altera o preço do produto.
      * Útil para promoções e atualizações de preço.
      * 
+     * ATENÇÃO: um produto já publicado num Catalogo deve mudar de preço
+     * através de Inventario.alterarPrecos(), que cria uma nova versão do
+     * catálogo sem alterar as vendas em curso.
+     * 
      * @param preco o novo preço em cêntimos (não pode ser negativo)
      * @throws IllegalArgumentException se o preço for negativo
      */
@@ -122,6 +138,18 @@ public class ProdutoInfo {
     }
     
     
+    /**
+     * Cria uma cópia deste produto com outro preço. Este produto não muda.
+     * 
+     * @param preco o novo preço em cêntimos (não pode ser negativo)
+     * @return o novo produto
+     * @throws IllegalArgumentException se o preço for negativo
+     */
+    public ProdutoInfo comPreco(long preco) {
+        return new ProdutoInfo(codigoBarras, marca, modelo, preco);
+    }
+    
+    
     // ========================================================================
     // MÉTODO AUXILIAR
     // ========================================================================
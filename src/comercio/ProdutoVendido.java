@@ -18,7 +18,8 @@ import cliente.CupaoProdutos;
  * RESPONSABILIDADES:
  * - Guardar qual produto foi vendido (através de ProdutoInfo)
  * - Guardar o preço DESTA venda específica (pode ser diferente!)
- * - Guardar o cupão aplicado (se houver)
+ * - Guardar a quantidade (passar 24 iogurtes iguais dá UMA linha com 24)
+ * - Guardar o cupão aplicado (se houver), que vale para toda a quantidade
  */
 public class ProdutoVendido {
     
@@ -49,6 +50,25 @@ public class ProdutoVendido {
      */
     private Cupao cupao;
     
+    /**
+     * Venda a que este produto pertence (null se ainda não foi adicionado).
+     * A venda é avisada quando o cupão muda, para manter os totais
+     * de desconto atualizados.
+     */
+    Venda venda;
+    
+    /**
+     * Número de unidades deste produto, ao mesmo preço, nesta linha da venda.
+     * Só a Venda pode alterar a quantidade (ver Venda.adicionarProduto).
+     */
+    private int quantidade;
+    
+    /**
+     * Versão do Catalogo de onde veio o preço desta linha
+     * (0 = a linha não foi criada a partir de um catálogo).
+     */
+    long versaoCatalogo;
+    
     
     // ========================================================================
     // CONSTRUTOR
@@ -64,8 +84,24 @@ public class ProdutoVendido {
      * @param preco preço DESTA venda (pode ser diferente do original)
      */
     public ProdutoVendido(ProdutoInfo info, long preco) {
+        this(info, preco, 1);
+    }
+    
+    /**
+     * Cria uma linha de venda com várias unidades do mesmo produto.
+     * 
+     * @param info informação geral do produto
+     * @param preco preço unitário DESTA venda
+     * @param quantidade número de unidades (pelo menos 1)
+     * @throws IllegalArgumentException se a quantidade não for positiva
+     */
+    public ProdutoVendido(ProdutoInfo info, long preco, int quantidade) {
+        if (quantidade <= 0) {
+            throw new IllegalArgumentException("Quantidade tem de ser positiva!");
+        }
         this.info = info;
         this.preco = preco;
+        this.quantidade = quantidade;
         this.cupao = null;  // Inicialmente sem cupão
     }
     
@@ -110,6 +146,53 @@ public class ProdutoVendido {
         return cupao;
     }
     
+    /**
+     * Retorna o número de unidades desta linha.
+     * 
+     * @return a quantidade
+     */
+    public int getQuantidade() {
+        return quantidade;
+    }
+    
+    /**
+     * Retorna a versão do catálogo de onde veio o preço desta linha.
+     * 
+     * @return a versão do catálogo, ou 0 se a linha não veio de um catálogo
+     */
+    public long getVersaoCatalogo() {
+        return versaoCatalogo;
+    }
+    
+    /**
+     * Retorna o preço de todas as unidades (preço x quantidade).
+     * 
+     * @return o preço total da linha em cêntimos
+     */
+    public long getPrecoTotal() {
+        return preco * quantidade;
+    }
+    
+    /**
+     * Retorna o desconto do cupão aplicado, para todas as unidades.
+     * 
+     * O desconto é calculado por unidade e depois multiplicado, para dar
+     * exatamente o mesmo que várias linhas de uma unidade.
+     * 
+     * @return o desconto em cêntimos (0 se não tem cupão)
+     */
+    public long getDescontoTotal() {
+        return cupao == null ? 0 : cupao.calcularDesconto(preco) * quantidade;
+    }
+    
+    /**
+     * Soma unidades a esta linha. Chamado só pela Venda, que atualiza
+     * os seus totais.
+     */
+    void somarQuantidade(int n) {
+        quantidade += n;
+    }
+    
     
     // ========================================================================
     // SETTER
@@ -120,11 +203,16 @@ public class ProdutoVendido {
      * 
      * Chamado durante o processamento da venda quando
      * o sistema verifica se há cupões aplicáveis.
+     * Se o produto já estiver numa venda, os totais da venda
+     * são atualizados.
      * 
      * @param c o cupão a aplicar (pode ser null para remover)
      */
     public void setCupao(Cupao c ) {
+        Cupao antigo = this.cupao;
         this.cupao = c;
+        if (venda != null && antigo != c)
+            venda.cupaoAlterado(this, antigo, c);
     }
     
     
@@ -163,8 +251,10 @@ public class ProdutoVendido {
     @Override
     public String toString() {
         String cupaoInfo = temCupao() ? " [COM CUPÃO]" : "";
-        return String.format("ProdutoVendido: %s - %.2f€%s", 
+        String quantidadeInfo = quantidade > 1 ? " x" + quantidade : "";
+        return String.format("ProdutoVendido: %s%s - %.2f€%s", 
             info.getModelo(), 
+            quantidadeInfo,
             getPrecoEmEuros(),
             cupaoInfo);
     }
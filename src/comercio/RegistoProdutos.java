@@ -0,0 +1,287 @@
+package comercio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registo de produtos indexado pelo código de barras, feito à medida para a
+ * pesquisa que acontece em CADA produto passado na caixa.
+ *
+ * CÓDIGO → CHAVE NUMÉRICA:
+ * Os códigos de barras têm uma forma fixa ("202-006": só dígitos e hífens),
+ * por isso podem ser convertidos diretamente num long, lendo os caracteres
+ * um a um (base 12: '0'..'9' → 1..10, '-' → 11). A conversão é exata (dois
+ * códigos diferentes dão sempre chaves diferentes) e não usa hashCode() da
+ * String. Códigos com outra forma (ou com mais de 17 caracteres) ficam num
+ * HashMap à parte.
+ *
+ * TABELA DE ENDEREÇAMENTO ABERTO:
+ * As chaves e os produtos ficam em dois arrays paralelos (long[] e
+ * ProdutoInfo[]); uma colisão passa para a posição seguinte (linear
+ * probing). Não há objetos Map.Entry nem Long: uma pesquisa é ler alguns
+ * long seguidos na memória. A tabela nunca passa de metade cheia. Remover
+ * puxa para trás as chaves seguintes do mesmo grupo, por isso não ficam
+ * lápides.
+ *
+ * CONSTRUIR E CONGELAR:
+ * Um registo é preenchido (put, remove) por quem o cria e depois
+ * congelado (congelar()): a partir daí nunca muda, e as caixas leem-no sem
+ * locks. Cada versão do Catalogo é uma cópia da anterior, alterada e
+ * congelada antes de ser publicada; o campo final do Catalogo garante que
+ * quem vê o catálogo vê o registo completo.
+ *
+ * EXEMPLO:
+ *   RegistoProdutos r = new RegistoProdutos();
+ *   r.put(produto);               // produto com código "202-006"
+ *   r.congelar();
+ *   r.get("202-006");             // → produto
+ */
+final class RegistoProdutos {
+
+    private static final int CAPACIDADE_INICIAL = 64;
+
+    /** Maior comprimento de código que cabe num long em base 12 */
+    private static final int MAX_CARACTERES = 17;
+
+    /** Chave reservada para posições vazias */
+    private static final long VAZIA = 0L;
+
+    private long[] chaves;
+    private ProdutoInfo[] valores;
+    private int mascara;
+
+    /** Número de produtos na tabela (sem os de outros) */
+    private int tamanho;
+
+    /** Produtos cujo código não tem a forma habitual */
+    private final Map<String, ProdutoInfo> outros;
+
+    private boolean congelado;
+
+    // ========================================================================
+    // CONSTRUTORES
+    // ========================================================================
+
+    /**
+     * Cria um registo vazio.
+     */
+    RegistoProdutos() {
+        chaves = new long[CAPACIDADE_INICIAL];
+        valores = new ProdutoInfo[CAPACIDADE_INICIAL];
+        mascara = CAPACIDADE_INICIAL - 1;
+        outros = new HashMap<>();
+    }
+
+    /**
+     * Cria uma cópia de outro registo, ainda por congelar (usado para
+     * construir uma nova versão do Catalogo).
+     *
+     * @param outro o registo a copiar
+     */
+    RegistoProdutos(RegistoProdutos outro) {
+        chaves = outro.chaves.clone();
+        valores = outro.valores.clone();
+        mascara = outro.mascara;
+        tamanho = outro.tamanho;
+        outros = new HashMap<>(outro.outros);
+    }
+
+    /**
+     * Fecha o registo a alterações. Depois disto pode ser partilhado entre
+     * threads.
+     */
+    void congelar() {
+        congelado = true;
+    }
+
+    // ========================================================================
+    // CODIFICAÇÃO
+    // ========================================================================
+
+    /**
+     * Converte um código de barras na sua chave numérica.
+     *
+     * @param codigo o código de barras
+     * @return a chave (nunca 0), ou 0 se o código não tem a forma habitual
+     */
+    static long codificar(String codigo) {
+        int n = codigo.length();
+        if (n == 0 || n > MAX_CARACTERES)
+            return VAZIA;
+        long chave = 0;
+        for (int i = 0; i < n; i++) {
+            int digito = codigo.charAt(i) - ('0' - 1);
+            if (digito < 1 || digito > 10) {
+                if (digito != '-' - ('0' - 1))
+                    return VAZIA;
+                digito = 11;
+            }
+            chave = chave * 12 + digito;
+        }
+        return chave;
+    }
+
+    /**
+     * Espalha os bits da chave (finalizador do MurmurHash3), para que
+     * códigos seguidos não fiquem em posições seguidas.
+     */
+    private static int espalhar(long chave) {
+        chave ^= chave >>> 33;
+        chave *= 0xff51afd7ed558ccdL;
+        chave ^= chave >>> 33;
+        chave *= 0xc4ceb9fe1a85ec53L;
+        chave ^= chave >>> 33;
+        return (int) chave;
+    }
+
+    // ========================================================================
+    // LEITURA
+    // ========================================================================
+
+    /**
+     * Retorna o produto com um dado código de barras.
+     *
+     * @param codigo o código de barras
+     * @return o produto, ou null se não existir
+     */
+    ProdutoInfo get(String codigo) {
+        long chave = codificar(codigo);
+        if (chave == VAZIA)
+            return outros.get(codigo);
+        int i = posicao(chave);
+        return chaves[i] == VAZIA ? null : valores[i];
+    }
+
+    /**
+     * Retorna o número de produtos no registo.
+     *
+     * @return o número de produtos
+     */
+    int size() {
+        return tamanho + outros.size();
+    }
+
+    /**
+     * Retorna uma cópia da lista de todos os produtos.
+     *
+     * @return lista com os produtos (a ordem não é definida)
+     */
+    List<ProdutoInfo> valores() {
+        List<ProdutoInfo> res = new ArrayList<>(size());
+        for (ProdutoInfo p : valores)
+            if (p != null)
+                res.add(p);
+        res.addAll(outros.values());
+        return res;
+    }
+
+    /** Capacidade da tabela (para os testes) */
+    int capacidade() {
+        return chaves.length;
+    }
+
+    /**
+     * A posição da chave, ou a posição vazia onde a procura parou.
+     */
+    private int posicao(long chave) {
+        int i = espalhar(chave) & mascara;
+        while (chaves[i] != chave && chaves[i] != VAZIA)
+            i = (i + 1) & mascara;
+        return i;
+    }
+
+    // ========================================================================
+    // ESCRITA (antes de congelar)
+    // ========================================================================
+
+    /**
+     * Adiciona (ou substitui) um produto, indexado pelo seu código de barras.
+     *
+     * @param p o produto
+     * @return o produto que tinha o mesmo código, ou null
+     * @throws IllegalStateException se o registo já estiver congelado
+     */
+    ProdutoInfo put(ProdutoInfo p) {
+        verificarAberto();
+        String codigo = p.getCodigoBarras();
+        long chave = codificar(codigo);
+        if (chave == VAZIA)
+            return outros.put(codigo, p);
+
+        if ((tamanho + 1) * 2 > chaves.length)
+            crescer();
+        int i = posicao(chave);
+        ProdutoInfo antigo = valores[i];
+        if (chaves[i] == VAZIA) {
+            chaves[i] = chave;
+            tamanho++;
+        }
+        valores[i] = p;
+        return antigo;
+    }
+
+    /**
+     * Remove o produto com um dado código de barras.
+     *
+     * @param codigo o código de barras
+     * @return o produto removido, ou null se não existia
+     * @throws IllegalStateException se o registo já estiver congelado
+     */
+    ProdutoInfo remove(String codigo) {
+        verificarAberto();
+        long chave = codificar(codigo);
+        if (chave == VAZIA)
+            return outros.remove(codigo);
+
+        int i = posicao(chave);
+        if (chaves[i] == VAZIA)
+            return null;
+        ProdutoInfo antigo = valores[i];
+        tamanho--;
+
+        // Puxar para o buraco as chaves seguintes que, a partir da sua
+        // posição ideal, já teriam passado por ele
+        int j = i;
+        while (true) {
+            j = (j + 1) & mascara;
+            if (chaves[j] == VAZIA)
+                break;
+            int ideal = espalhar(chaves[j]) & mascara;
+            boolean ficar = i <= j ? i < ideal && ideal <= j : i < ideal || ideal <= j;
+            if (ficar)
+                continue;
+            chaves[i] = chaves[j];
+            valores[i] = valores[j];
+            i = j;
+        }
+        chaves[i] = VAZIA;
+        valores[i] = null;
+        return antigo;
+    }
+
+    private void verificarAberto() {
+        if (congelado)
+            throw new IllegalStateException("Registo de produtos já publicado");
+    }
+
+    /**
+     * Duplica a capacidade da tabela e volta a pôr lá todas as chaves.
+     */
+    private void crescer() {
+        long[] velhasChaves = chaves;
+        ProdutoInfo[] velhosValores = valores;
+        int capacidade = velhasChaves.length * 2;
+        chaves = new long[capacidade];
+        valores = new ProdutoInfo[capacidade];
+        mascara = capacidade - 1;
+        for (int j = 0; j < velhasChaves.length; j++) {
+            if (velhasChaves[j] == VAZIA)
+                continue;
+            int i = posicao(velhasChaves[j]);
+            chaves[i] = velhasChaves[j];
+            valores[i] = velhosValores[j];
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package comercio;
+
+import java.util.List;
+
+/**
+ * O resultado de um checkout (ver Inventario.processar()): quanto custou a
+ * venda, quanto acumulou no cartão e com que saldo ficou. Se o pedido
+ * falhou (produto, cupão ou cartão que não existe, ...), só tem a
+ * mensagem de erro.
+ *
+ * Valores em cêntimos, como no resto do sistema.
+ */
+public final class ResultadoCheckout {
+
+    private final String cartao;
+    private final long total;
+    private final long desconto;
+    private final long saldo;
+    private final List<String> cupoesUsados;
+    private final String erro;
+
+    ResultadoCheckout(String cartao, long total, long desconto, long saldo, List<String> cupoesUsados) {
+        this(cartao, total, desconto, saldo, List.copyOf(cupoesUsados), null);
+    }
+
+    private ResultadoCheckout(String cartao, long total, long desconto, long saldo,
+                              List<String> cupoesUsados, String erro) {
+        this.cartao = cartao;
+        this.total = total;
+        this.desconto = desconto;
+        this.saldo = saldo;
+        this.cupoesUsados = cupoesUsados;
+        this.erro = erro;
+    }
+
+    /**
+     * Cria o resultado de um pedido que falhou.
+     *
+     * @param pedido o pedido
+     * @param erro a descrição do erro
+     * @return o resultado, sem valores
+     */
+    public static ResultadoCheckout falhou(PedidoCheckout pedido, String erro) {
+        return new ResultadoCheckout(pedido.getCartao(), 0, 0, 0, List.of(),
+            erro == null ? "Erro desconhecido" : erro);
+    }
+
+    /** @return o número do cartão */
+    public String getCartao() {
+        return cartao;
+    }
+
+    /** @return o total da venda, sem descontos */
+    public long getTotal() {
+        return total;
+    }
+
+    /** @return o desconto acumulado no cartão nesta venda */
+    public long getDesconto() {
+        return desconto;
+    }
+
+    /** @return o saldo do cartão depois da venda */
+    public long getSaldo() {
+        return saldo;
+    }
+
+    /** @return os números dos cupões usados (e removidos da carteira) */
+    public List<String> getCupoesUsados() {
+        return cupoesUsados;
+    }
+
+    /** @return a mensagem de erro, ou null se o checkout correu bem */
+    public String getErro() {
+        return erro;
+    }
+
+    /** @return true se o checkout correu bem */
+    public boolean isOk() {
+        return erro == null;
+    }
+
+    @Override
+    public String toString() {
+        if (erro != null)
+            return "ResultadoCheckout[cartão " + cartao + ": " + erro + "]";
+        return String.format("ResultadoCheckout[cartão %s: total %.2f, desconto %.2f, saldo %.2f, cupões %s]",
+            cartao, total / 100.0, desconto / 100.0, saldo / 100.0, cupoesUsados);
+    }
+}
@@ -3,7 +3,13 @@ package comercio;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cliente.Cupao;
 
 /**
  * Representa uma venda (compra) com múltiplos produtos.
@@ -16,6 +22,27 @@ import java.util.List;
  * USA ARRAYLIST:
  * A lista de produtos é dinâmica, pode crescer à medida
  * que produtos são adicionados.
+ * 
+ * TOTAIS INCREMENTAIS:
+ * O total, o total de descontos e o número de usos de cada cupão são
+ * atualizados à medida que os produtos são adicionados/removidos ou que
+ * lhes é aplicado um cupão. Consultar os totais é O(1), mesmo que o
+ * ecrã da caixa os peça depois de cada produto passado.
+ * 
+ * QUANTIDADES:
+ * Passar várias vezes o mesmo produto (ao mesmo preço) não cria novas
+ * linhas: a linha existente fica com mais quantidade. Assim 24 iogurtes
+ * iguais ocupam UMA linha e os cupões são avaliados uma só vez para ela.
+ * 
+ * OUVINTE:
+ * Pode ter um OuvinteVenda, avisado sempre que uma linha é adicionada,
+ * removida ou muda de quantidade (ver cliente.SessaoCheckout).
+ * 
+ * CATÁLOGO:
+ * A venda fixa a versão do Catalogo com que começou (Inventario.novaVenda(),
+ * ou o primeiro Inventario.vendeProduto()). Todos os produtos passados
+ * nesta venda são procurados nessa versão, mesmo que entretanto os preços
+ * mudem.
  */
 public class Venda {
 
@@ -33,6 +60,27 @@ public class Venda {
      */
     private ArrayList<ProdutoVendido> produtos;
 
+    /** Última linha de cada produto, para juntar produtos repetidos e anular */
+    private Map<ProdutoInfo, ProdutoVendido> linhas = new IdentityHashMap<>();
+
+    /** Número total de unidades (soma das quantidades das linhas) */
+    private int unidades;
+
+    /** Soma dos preços de todos os produtos (em cêntimos) */
+    private long total;
+
+    /** Soma dos descontos dos cupões aplicados (em cêntimos) */
+    private long totalDesconto;
+
+    /** Número de unidades em que cada cupão está aplicado */
+    private Map<Cupao, Integer> usoCupoes = new HashMap<>();
+
+    /** Quem é avisado das alterações às linhas (pode ser null) */
+    private OuvinteVenda ouvinte;
+
+    /** Versão do catálogo fixada por esta venda (null = ainda nenhuma) */
+    private Catalogo catalogo;
+
      // ========================================================================
     // CONSTRUTOR
     // ========================================================================
@@ -46,13 +94,23 @@ public class Venda {
         this.produtos = new ArrayList<>();
     }
 
+    /**
+     * Cria uma nova venda vazia que usa uma dada versão do catálogo.
+     * 
+     * @param catalogo a versão do catálogo a fixar
+     */
+    public Venda(Catalogo catalogo) {
+        this();
+        this.catalogo = catalogo;
+    }
+
       // ========================================================================
     // MÉTODOS PRINCIPAIS
     // ========================================================================
     
     /**
      * Adiciona um produto à venda.
-     * O produto é adicionado no final da lista.
+     * O produto é adicionado no final da lista, como uma nova linha.
      * 
      * @param produto o produto vendido a adicionar
      * @throws IllegalArgumentException se produto for null
@@ -61,7 +119,179 @@ public class Venda {
         if (produto == null) {
             throw new IllegalArgumentException("Produto não pode set null!");
         }
+        if (produto.venda != null) {
+            throw new IllegalArgumentException("Produto já pertence a uma venda!");
+        }
         produtos.add(produto);
+        produto.venda = this;
+        if (produto.getInfo() != null)
+            linhas.put(produto.getInfo(), produto);
+        unidades += produto.getQuantidade();
+        total += produto.getPrecoTotal();
+        registarCupao(produto, produto.getCupao(), produto.getQuantidade());
+        if (ouvinte != null)
+            ouvinte.linhaAdicionada(produto);
+    }
+
+    /**
+     * Adiciona uma unidade de um produto à venda (um produto passado na caixa).
+     * 
+     * Se a última linha desse produto tiver o mesmo preço, a quantidade
+     * dessa linha aumenta em vez de ser criada uma linha nova. Uma linha
+     * com cupão só é aumentada se o cupão tiver sido aplicado pela sessão
+     * de checkout aberta (que conta também a nova unidade); se o cupão já
+     * foi liquidado num Cartao.usar(), a unidade vai para uma linha nova,
+     * avaliada no próximo usar().
+     * 
+     * @param info o produto
+     * @param preco o preço desta venda (em cêntimos)
+     * @return a linha onde o produto ficou
+     * @throws IllegalArgumentException se produto for null
+     */
+    public ProdutoVendido adicionarProduto(ProdutoInfo info, long preco) {
+        if (info == null) {
+            throw new IllegalArgumentException("Produto não pode set null!");
+        }
+        ProdutoVendido linha = linhas.get(info);
+        if (linha != null && linha.getPreco() == preco
+                && (linha.getCupao() == null || (ouvinte != null && ouvinte.acompanha(linha)))) {
+            alterarQuantidade(linha, 1);
+            return linha;
+        }
+        linha = new ProdutoVendido(info, preco);
+        if (catalogo != null)
+            linha.versaoCatalogo = catalogo.getVersao();
+        adicionarProduto(linha);
+        return linha;
+    }
+
+    /**
+     * Remove uma linha (com todas as suas unidades) da venda, atualizando os
+     * totais.
+     * 
+     * @param produto o produto vendido a remover
+     * @return true se o produto estava na venda
+     */
+    public boolean removerProduto(ProdutoVendido produto) {
+        if (produto == null || produto.venda != this)
+            return false;
+        produtos.remove(produto);
+        produto.venda = null;
+        if (linhas.get(produto.getInfo()) == produto)
+            esquecerLinha(produto.getInfo());
+        unidades -= produto.getQuantidade();
+        total -= produto.getPrecoTotal();
+        registarCupao(produto, produto.getCupao(), -produto.getQuantidade());
+        if (ouvinte != null)
+            ouvinte.linhaRemovida(produto);
+        return true;
+    }
+
+    /**
+     * A última linha de um produto saiu da venda: a linha anterior desse
+     * produto (outro preço, ou com cupão) passa a ser a última.
+     */
+    private void esquecerLinha(ProdutoInfo info) {
+        for (int i = produtos.size() - 1; i >= 0; i--) {
+            if (produtos.get(i).getInfo() == info) {
+                linhas.put(info, produtos.get(i));
+                return;
+            }
+        }
+        linhas.remove(info);
+    }
+
+    /**
+     * Remove uma unidade de um produto (anular um produto passado na caixa),
+     * da última linha desse produto. Se a linha ficar sem unidades é
+     * removida.
+     * 
+     * @param info o produto
+     * @return true se havia uma unidade desse produto para remover
+     */
+    public boolean removerProduto(ProdutoInfo info) {
+        ProdutoVendido linha = linhas.get(info);
+        if (linha == null)
+            return false;
+        if (linha.getQuantidade() == 1)
+            return removerProduto(linha);
+        alterarQuantidade(linha, -1);
+        return true;
+    }
+
+    /**
+     * Soma (ou retira, se n for negativo) unidades a uma linha, atualizando
+     * os totais.
+     */
+    private void alterarQuantidade(ProdutoVendido linha, int n) {
+        linha.somarQuantidade(n);
+        unidades += n;
+        total += n * linha.getPreco();
+        registarCupao(linha, linha.getCupao(), n);
+        if (ouvinte != null)
+            ouvinte.quantidadeAlterada(linha, n);
+    }
+
+    /**
+     * Define quem é avisado das alterações às linhas desta venda.
+     * 
+     * @param ouvinte o ouvinte (null para deixar de avisar)
+     */
+    public void setOuvinte(OuvinteVenda ouvinte) {
+        this.ouvinte = ouvinte;
+    }
+
+    /**
+     * Retorna quem é avisado das alterações às linhas desta venda.
+     * 
+     * @return o ouvinte (ou null)
+     */
+    public OuvinteVenda getOuvinte() {
+        return ouvinte;
+    }
+
+    /**
+     * Retorna a versão do catálogo fixada por esta venda.
+     * 
+     * @return o catálogo (ou null se a venda ainda não fixou nenhum)
+     */
+    public Catalogo getCatalogo() {
+        return catalogo;
+    }
+
+    /**
+     * Fixa a versão do catálogo, se a venda ainda não tiver nenhuma.
+     * 
+     * @param c a versão atual do catálogo
+     * @return a versão fixada pela venda
+     */
+    Catalogo fixarCatalogo(Catalogo c) {
+        if (catalogo == null)
+            catalogo = c;
+        return catalogo;
+    }
+
+    /**
+     * Chamado pelo ProdutoVendido quando o seu cupão muda.
+     * 
+     * @param produto o produto cujo cupão mudou
+     * @param antigo o cupão anterior (ou null)
+     * @param novo o novo cupão (ou null)
+     */
+    void cupaoAlterado(ProdutoVendido produto, Cupao antigo, Cupao novo) {
+        registarCupao(produto, antigo, -produto.getQuantidade());
+        registarCupao(produto, novo, produto.getQuantidade());
+    }
+
+    /**
+     * Soma (n positivo) ou retira (n negativo) o desconto e o uso de um cupão
+     * em n unidades de um produto. O desconto é calculado por unidade.
+     */
+    private void registarCupao(ProdutoVendido produto, Cupao c, int n) {
+        if (c == null || n == 0)
+            return;
+        totalDesconto += n * c.calcularDesconto(produto.getPreco());
+        usoCupoes.merge(c, n, (a, b) -> a + b == 0 ? null : a + b);
     }
 
 
@@ -87,27 +317,43 @@ public class Venda {
     }
 
      /**
-     * Calcula e retorna o valor total da venda.
-     * Soma os preços de todos os produtos.
+     * Retorna o valor total da venda (soma dos preços de todos os produtos).
      * 
-     * ALGORITMO:
-     * 1. Começa com total = 0
-     * 2. Para cada produto na lista:
-     *    - Soma o preço do produto ao total
-     * 3. Retorna o total
+     * O total é atualizado sempre que um produto é adicionado ou removido,
+     * por isso este método é O(1).
      * 
      * @return o total da venda em cêntimos
      */
     public long  getTotal(){
-        long total = 0;
-         // Percorrer todos os produtos
-        // For-each: "para cada produto nos produtos"
-        for (ProdutoVendido produto : produtos) {
-            total += produto.getPreco();
-        }
-
         return total;
+    }
 
+    /**
+     * Retorna a soma dos descontos dos cupões aplicados nesta venda.
+     * 
+     * @return o total de descontos em cêntimos
+     */
+    public long getTotalDesconto() {
+        return totalDesconto;
+    }
+
+    /**
+     * Retorna em quantas unidades desta venda um cupão está aplicado.
+     * 
+     * @param c o cupão
+     * @return o número de unidades com esse cupão (0 se não foi usado)
+     */
+    public int getUsosCupao(Cupao c) {
+        return usoCupoes.getOrDefault(c, 0);
+    }
+
+    /**
+     * Retorna os cupões aplicados a pelo menos um produto desta venda.
+     * 
+     * @return conjunto não modificável dos cupões usados
+     */
+    public Set<Cupao> getCupoesUsados() {
+        return Collections.unmodifiableSet(usoCupoes.keySet());
     }
 
     // ========================================================================
@@ -115,11 +361,22 @@ public class Venda {
     // ========================================================================
     
     /**
-     * Retorna a quantidade de produtos na venda.
+     * Retorna a quantidade de produtos na venda (soma das quantidades de
+     * todas as linhas).
      * 
      * @return número de produtos
      */
     public int getQuantidadeProdutos() {
+        return unidades;
+    }
+
+    /**
+     * Retorna o número de linhas da venda (produtos diferentes ou com
+     * preços diferentes).
+     * 
+     * @return número de linhas
+     */
+    public int getNumeroLinhas() {
         return produtos.size();
     }
 
@@ -144,9 +401,22 @@ public class Venda {
     /**
      * Remove todos os produtos da venda.
      * Útil para cancelar uma venda ou reiniciar o carrinho.
+     * A versão do catálogo deixa de estar fixada: a próxima venda usa a
+     * versão que estiver em vigor quando começar.
      */
     public void limpar (){
+        for (ProdutoVendido produto : produtos) {
+            produto.venda = null;
+            if (ouvinte != null)
+                ouvinte.linhaRemovida(produto);
+        }
         produtos.clear();
+        linhas.clear();
+        unidades = 0;
+        total = 0;
+        totalDesconto = 0;
+        usoCupoes.clear();
+        catalogo = null;
     }
 
 
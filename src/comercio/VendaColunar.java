@@ -0,0 +1,330 @@
+package comercio;
+
+import java.util.Arrays;
+
+import cliente.Cupao;
+
+/**
+ * Representa uma venda guardada por colunas ("struct of arrays"), pensada
+ * para caixas com muito movimento.
+ *
+ * DIFERENÇA PARA A VENDA:
+ * - Venda = lista de objetos ProdutoVendido (um objeto por produto passado)
+ * - VendaColunar = três arrays paralelos, um por "coluna":
+ *     produtos[i] → o produto do catálogo da linha i
+ *     precos[i]   → o preço unitário da linha i (em cêntimos)
+ *     quantidades[i] → o número de unidades da linha i
+ *     cupoes[i]   → o cupão aplicado à linha i (ou null)
+ *
+ * VANTAGENS:
+ * - Passar um produto não cria nenhum objeto (só escreve nos arrays)
+ * - Os arrays crescem quando é preciso e são reaproveitados entre vendas
+ *   através de limpar(), por isso uma caixa pode usar sempre a mesma
+ *   VendaColunar
+ * - Cartao.usar() percorre os arrays sem criar objetos
+ * - O total e o total de descontos são mantidos à medida que as linhas
+ *   mudam, por isso getTotal() e getTotalDesconto() são O(1)
+ *
+ * QUANTIDADES:
+ * Passar o mesmo produto várias vezes seguidas (ao mesmo preço) aumenta a
+ * quantidade da última linha em vez de criar uma nova (se essa linha ainda
+ * não tiver cupão).
+ *
+ * CATÁLOGO:
+ * Tal como a Venda, fixa a versão do Catalogo no primeiro produto passado
+ * (Inventario.vendeProduto) e larga-a em limpar().
+ *
+ * NOTA:
+ * As colunas guardam referências para ProdutoInfo e Cupao em vez de ids
+ * numéricos, para não ser preciso um registo extra de id → objeto.
+ *
+ * EXEMPLO DE USO:
+ *   VendaColunar v = new VendaColunar();
+ *   inventario.vendeProduto(v, "202-006");
+ *   cartao.ativar(cupoes);
+ *   cartao.usar(v);
+ *   ...
+ *   v.limpar();  // pronta para a próxima venda
+ */
+public class VendaColunar {
+
+    // ========================================================================
+    // CAMPOS
+    // ========================================================================
+
+    private static final int CAPACIDADE_INICIAL = 16;
+
+    /** Produto de cada linha */
+    private ProdutoInfo[] produtos;
+
+    /** Preço unitário de cada linha, em cêntimos */
+    private long[] precos;
+
+    /** Número de unidades de cada linha */
+    private int[] quantidades;
+
+    /** Cupão aplicado a cada linha (null = sem cupão) */
+    private Cupao[] cupoes;
+
+    /** Número de linhas ocupadas */
+    private int tamanho;
+
+    /** Número total de unidades */
+    private int unidades;
+
+    /** Soma dos preços de todas as linhas (em cêntimos) */
+    private long total;
+
+    /** Soma dos descontos dos cupões aplicados (em cêntimos) */
+    private long totalDesconto;
+
+    /** Versão do catálogo fixada por esta venda (null = ainda nenhuma) */
+    private Catalogo catalogo;
+
+    // ========================================================================
+    // CONSTRUTORES
+    // ========================================================================
+
+    /**
+     * Cria uma venda vazia com a capacidade inicial por omissão.
+     */
+    public VendaColunar() {
+        this(CAPACIDADE_INICIAL);
+    }
+
+    /**
+     * Cria uma venda vazia com espaço para um dado número de produtos.
+     *
+     * @param capacidade número de produtos esperado
+     * @throws IllegalArgumentException se a capacidade for negativa
+     */
+    public VendaColunar(int capacidade) {
+        if (capacidade < 0) {
+            throw new IllegalArgumentException("Capacidade não pode ser negativa!");
+        }
+        produtos = new ProdutoInfo[capacidade];
+        precos = new long[capacidade];
+        quantidades = new int[capacidade];
+        cupoes = new Cupao[capacidade];
+    }
+
+    // ========================================================================
+    // MÉTODOS PRINCIPAIS
+    // ========================================================================
+
+    /**
+     * Adiciona uma unidade de um produto à venda. Se a última linha for do
+     * mesmo produto e preço, e ainda não tiver cupão, aumenta a quantidade
+     * dessa linha. Uma linha com cupão já foi liquidada num Cartao.usar():
+     * a nova unidade vai para uma linha nova, que o próximo usar() avalia.
+     *
+     * @param info  o produto vendido
+     * @param preco o preço desta venda (em cêntimos)
+     * @throws IllegalArgumentException se produto for null
+     */
+    public void adicionarProduto(ProdutoInfo info, long preco) {
+        if (info == null) {
+            throw new IllegalArgumentException("Produto não pode ser null!");
+        }
+        unidades++;
+        total += preco;
+
+        int ultima = tamanho - 1;
+        if (ultima >= 0 && produtos[ultima] == info && precos[ultima] == preco && cupoes[ultima] == null) {
+            quantidades[ultima]++;
+            return;
+        }
+
+        if (tamanho == produtos.length)
+            crescer();
+        produtos[tamanho] = info;
+        precos[tamanho] = preco;
+        quantidades[tamanho] = 1;
+        cupoes[tamanho] = null;
+        tamanho++;
+    }
+
+    /**
+     * Retorna o produto de uma linha.
+     *
+     * @param i índice da linha (0 a getNumeroLinhas() - 1)
+     * @return o produto
+     */
+    public ProdutoInfo getProduto(int i) {
+        return produtos[verificarIndice(i)];
+    }
+
+    /**
+     * Retorna o preço unitário de uma linha.
+     *
+     * @param i índice da linha
+     * @return o preço em cêntimos
+     */
+    public long getPreco(int i) {
+        return precos[verificarIndice(i)];
+    }
+
+    /**
+     * Retorna o número de unidades de uma linha.
+     *
+     * @param i índice da linha
+     * @return a quantidade
+     */
+    public int getQuantidade(int i) {
+        return quantidades[verificarIndice(i)];
+    }
+
+    /**
+     * Retorna o cupão aplicado a uma linha.
+     *
+     * @param i índice da linha
+     * @return o cupão (ou null se não tem cupão)
+     */
+    public Cupao getCupao(int i) {
+        return cupoes[verificarIndice(i)];
+    }
+
+    /**
+     * Define o cupão aplicado a uma linha (vale para todas as unidades).
+     *
+     * @param i índice da linha
+     * @param c o cupão a aplicar (pode ser null para remover)
+     */
+    public void setCupao(int i, Cupao c) {
+        Cupao antigo = cupoes[verificarIndice(i)];
+        if (antigo != null)
+            totalDesconto -= antigo.calcularDesconto(precos[i]) * quantidades[i];
+        if (c != null)
+            totalDesconto += c.calcularDesconto(precos[i]) * quantidades[i];
+        cupoes[i] = c;
+    }
+
+    /**
+     * Retorna o valor total da venda (O(1), mantido a cada alteração).
+     *
+     * @return o total da venda em cêntimos
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Retorna a soma dos descontos dos cupões aplicados nesta venda.
+     *
+     * @return o total de descontos em cêntimos
+     */
+    public long getTotalDesconto() {
+        return totalDesconto;
+    }
+
+    /**
+     * Retorna a versão do catálogo fixada por esta venda.
+     *
+     * @return o catálogo (ou null se a venda ainda não fixou nenhum)
+     */
+    public Catalogo getCatalogo() {
+        return catalogo;
+    }
+
+    /**
+     * Fixa a versão do catálogo, se a venda ainda não tiver nenhuma.
+     *
+     * @param c a versão atual do catálogo
+     * @return a versão fixada pela venda
+     */
+    Catalogo fixarCatalogo(Catalogo c) {
+        if (catalogo == null)
+            catalogo = c;
+        return catalogo;
+    }
+
+    // ========================================================================
+    // MÉTODOS AUXILIARES
+    // ========================================================================
+
+    /**
+     * Retorna a quantidade de produtos na venda (soma das quantidades).
+     *
+     * @return número de produtos
+     */
+    public int getQuantidadeProdutos() {
+        return unidades;
+    }
+
+    /**
+     * Retorna o número de linhas da venda.
+     *
+     * @return número de linhas
+     */
+    public int getNumeroLinhas() {
+        return tamanho;
+    }
+
+    /**
+     * Retorna o total em euros (convertido de cêntimos).
+     *
+     * @return o total em euros
+     */
+    public double getTotalEmEuros() {
+        return getTotal() / 100.0;
+    }
+
+    /**
+     * Verifica se a venda está vazia (sem produtos).
+     *
+     * @return true se não tem produtos, false caso contrário
+     */
+    public boolean estaVazia() {
+        return tamanho == 0;
+    }
+
+    /**
+     * Remove todos os produtos da venda, mantendo os arrays para reutilizar
+     * na próxima venda. As referências são apagadas para não prender
+     * produtos e cupões em memória, e a versão do catálogo deixa de estar
+     * fixada.
+     */
+    public void limpar() {
+        Arrays.fill(produtos, 0, tamanho, null);
+        Arrays.fill(cupoes, 0, tamanho, null);
+        tamanho = 0;
+        unidades = 0;
+        total = 0;
+        totalDesconto = 0;
+        catalogo = null;
+    }
+
+    /**
+     * Duplica a capacidade dos arrays (ou cria-os se a capacidade for 0).
+     */
+    private void crescer() {
+        int novaCapacidade = Math.max(CAPACIDADE_INICIAL, produtos.length * 2);
+        produtos = Arrays.copyOf(produtos, novaCapacidade);
+        precos = Arrays.copyOf(precos, novaCapacidade);
+        quantidades = Arrays.copyOf(quantidades, novaCapacidade);
+        cupoes = Arrays.copyOf(cupoes, novaCapacidade);
+    }
+
+    private int verificarIndice(int i) {
+        if (i < 0 || i >= tamanho)
+            throw new IndexOutOfBoundsException("Linha " + i + " não existe na venda");
+        return i;
+    }
+
+    // ========================================================================
+    // toString
+    // ========================================================================
+
+    /**
+     * Retorna uma representação textual da venda.
+     * Mostra a quantidade de produtos e o total.
+     *
+     * @return string com informação da venda
+     */
+    @Override
+    public String toString() {
+        return String.format("VendaColunar: %d produtos, Total: %.2f€",
+            getQuantidadeProdutos(),
+            getTotalEmEuros());
+    }
+}
@@ -0,0 +1,635 @@
+package menu;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import cliente.CupaoCompra;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+import comercio.Inventario;
+import comercio.Metricas;
+import comercio.ProdutoInfo;
+
+/**
+ * Leitura rápida dos ficheiros de dados (.hnt): produtos, cupões e cartões.
+ *
+ * COMO FUNCIONA:
+ * 1. O ficheiro é mapeado em memória (FileChannel.map), sem o copiar
+ * 2. É dividido em pedaços que acabam sempre num fim de linha
+ * 3. Os pedaços são lidos em paralelo, diretamente dos bytes: os tabs são
+ *    procurados byte a byte e os números são convertidos sem criar Strings.
+ *    Só os campos que ficam guardados (códigos, nomes, ...) viram String
+ * 4. Os resultados são aplicados ao inventário pela ordem do ficheiro
+ *
+ * Os três ficheiros podem ser lidos ao mesmo tempo com carregar(), que só
+ * liga as referências entre eles no fim (ver carregar()).
+ *
+ * MESMO RESULTADO QUE O BufferedReader:
+ * - Fim de linha: "\n", "\r" ou "\r\n" (como readLine())
+ * - Linhas em branco (isBlank()) são ignoradas
+ * - Os campos são separados como em split("\t"): os campos vazios no fim
+ *   da linha não contam
+ * - Produtos com número de campos diferente de 4, cupões com menos de 6
+ *   e cartões com menos de 2 são ignorados
+ * - O texto é descodificado com o charset por omissão (como o FileReader);
+ *   tem de ser compatível com ASCII nos tabs e fins de linha
+ * - Um erro numa linha (ex: preço que não é número) é lançado depois de
+ *   aplicadas as linhas anteriores, como na leitura linha a linha
+ *
+ * EXEMPLO:
+ *   CarregadorHnt.carregar(inventario, Path.of("dados/produtos.hnt"),
+ *       Path.of("dados/cupoes.hnt"), Path.of("dados/cartoes.hnt"));
+ */
+public final class CarregadorHnt {
+
+    /** Tamanho mínimo de cada pedaço (ficheiros pequenos ficam num só) */
+    private static final long PEDACO_MINIMO = 1 << 20;
+
+    /** Tamanho máximo de cada pedaço (tem de caber num MappedByteBuffer) */
+    private static final long PEDACO_MAXIMO = 64 << 20;
+
+    private CarregadorHnt() {
+    }
+
+    // ========================================================================
+    // ARRANQUE (os três ficheiros ao mesmo tempo)
+    // ========================================================================
+
+    /**
+     * Carrega os três ficheiros de dados ao mesmo tempo.
+     *
+     * ETAPAS:
+     *   ler produtos ──→ aplicar produtos ─┐
+     *   ler cupões  ───────────────────────┴→ ligar cupões ─┐
+     *   ler cartões ────────────────────────────────────────┴→ ligar cartões
+     *
+     * A leitura (a parte cara) dos três ficheiros decorre em paralelo; só a
+     * ligação das referências (códigos de produtos nos cupões, códigos de
+     * cupões nos cartões) espera pelo ficheiro de que depende. O tempo total
+     * fica perto do tempo de ler o maior dos ficheiros.
+     *
+     * REFERÊNCIAS PENDENTES:
+     * Um código que não existe (produto num cupão, cupão num cartão) não é
+     * adicionado (nunca fica um null na lista); é descrito na lista
+     * retornada.
+     *
+     * ERROS:
+     * Se mais de um ficheiro falhar, é lançado o erro do primeiro pela ordem
+     * produtos, cupões, cartões (como se fossem lidos um a seguir ao outro).
+     *
+     * @param inventario onde adicionar os dados
+     * @param produtos o ficheiro dos produtos
+     * @param cupoes o ficheiro dos cupões
+     * @param cartoes o ficheiro dos cartões
+     * @return as referências pendentes encontradas (vazia se não houver)
+     * @throws IOException se algum ficheiro não puder ser lido
+     */
+    public static List<String> carregar(Inventario inventario, Path produtos,
+                                        Path cupoes, Path cartoes) throws IOException {
+        return carregar(inventario, produtos, cupoes, cartoes, LocalDate.now());
+    }
+
+    /**
+     * Igual a carregar(inventario, produtos, cupoes, cartoes), com os dias
+     * dos cupões relativos a uma data dada em vez de hoje. Um
+     * RecarregadorHnt criado com a mesma data recarrega os cupões com as
+     * mesmas datas, seja em que dia for.
+     *
+     * @param inventario onde adicionar os dados
+     * @param produtos o ficheiro dos produtos
+     * @param cupoes o ficheiro dos cupões
+     * @param cartoes o ficheiro dos cartões
+     * @param referencia o dia 0 dos cupões
+     * @return as referências pendentes encontradas (vazia se não houver)
+     * @throws IOException se algum ficheiro não puder ser lido
+     */
+    public static List<String> carregar(Inventario inventario, Path produtos, Path cupoes,
+                                        Path cartoes, LocalDate referencia) throws IOException {
+        long medicao = Metricas.CARREGAR.inicio();
+        List<String> pendentes = new ArrayList<>();
+
+        CompletableFuture<List<Pedaco<ProdutoLido>>> lerP = lerAssincrono(produtos, CarregadorHnt::produto);
+        CompletableFuture<List<Pedaco<CupaoLido>>> lerC = lerAssincrono(cupoes, CarregadorHnt::cupao);
+        CompletableFuture<List<Pedaco<String[]>>> lerK = lerAssincrono(cartoes, CarregadorHnt::cartao);
+
+        // As etapas de ligação correm uma de cada vez (cada uma espera pela
+        // anterior), por isso partilham a lista sem sincronização
+        CompletableFuture<Void> fim = lerP
+            .thenAccept(p -> aplicarProdutos(inventario, p))
+            .thenAcceptBoth(lerC, (x, c) -> aplicarCupoes(inventario, c, referencia, pendentes))
+            .thenAcceptBoth(lerK, (x, k) -> aplicarCartoes(inventario, k, pendentes));
+
+        try {
+            fim.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof UncheckedIOException)
+                throw ((UncheckedIOException) causa).getCause();
+            if (causa instanceof RuntimeException)
+                throw (RuntimeException) causa;
+            if (causa instanceof Error)
+                throw (Error) causa;
+            throw e;
+        }
+        Metricas.CARREGAR.registar(medicao);
+        return pendentes;
+    }
+
+    private static <T> CompletableFuture<List<Pedaco<T>>> lerAssincrono(Path ficheiro, Conversor<T> conversor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return ler(ficheiro, conversor);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // ========================================================================
+    // FICHEIROS (um de cada vez)
+    // ========================================================================
+
+    /**
+     * Lê os produtos de um ficheiro e adiciona-os ao inventário, numa só
+     * versão do catálogo.
+     *
+     * FORMATO: codigo \t marca \t nome \t preco
+     *
+     * @param inventario onde adicionar os produtos
+     * @param ficheiro o ficheiro dos produtos
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public static void lerProdutos(Inventario inventario, Path ficheiro) throws IOException {
+        aplicarProdutos(inventario, ler(ficheiro, CarregadorHnt::produto));
+    }
+
+    /**
+     * Lê os cupões de um ficheiro e adiciona-os ao inventário. Os produtos
+     * dos cupões de produtos têm de já estar no inventário.
+     *
+     * FORMATO: numero \t diaI \t diaF \t tipo \t descricao \t percentagem \t [dados]
+     *
+     * @param inventario onde adicionar os cupões
+     * @param ficheiro o ficheiro dos cupões
+     * @return os códigos de produtos que não existem (ver carregar())
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public static List<String> lerCupoes(Inventario inventario, Path ficheiro) throws IOException {
+        List<String> pendentes = new ArrayList<>();
+        aplicarCupoes(inventario, ler(ficheiro, CarregadorHnt::cupao), LocalDate.now(), pendentes);
+        return pendentes;
+    }
+
+    /**
+     * Lê os cartões de um ficheiro e adiciona-os ao inventário. Os cupões
+     * dos cartões têm de já estar no inventário.
+     *
+     * FORMATO: numero \t cupoes (separados por vírgula)
+     *
+     * @param inventario onde adicionar os cartões
+     * @param ficheiro o ficheiro dos cartões
+     * @return os códigos de cupões que não existem (ver carregar())
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public static List<String> lerCartoes(Inventario inventario, Path ficheiro) throws IOException {
+        List<String> pendentes = new ArrayList<>();
+        aplicarCartoes(inventario, ler(ficheiro, CarregadorHnt::cartao), pendentes);
+        return pendentes;
+    }
+
+    // ========================================================================
+    // CONVERSÃO DAS LINHAS (em paralelo, sem tocar no inventário)
+    // ========================================================================
+
+    static ProdutoLido produto(Linha linha) {
+        if (linha.campos() != 4)
+            return null;
+        return new ProdutoLido(linha.texto(0), linha.texto(1), linha.texto(2), linha.longo(3));
+    }
+
+    static CupaoLido cupao(Linha linha) {
+        if (linha.campos() < 6)
+            return null;
+        return new CupaoLido(linha);
+    }
+
+    static String[] cartao(Linha linha) {
+        if (linha.campos() < 2)
+            return null;
+        return new String[] { linha.texto(0), linha.texto(1) };
+    }
+
+    // ========================================================================
+    // APLICAÇÃO E LIGAÇÃO (pela ordem do ficheiro)
+    // ========================================================================
+
+    private static void aplicarProdutos(Inventario inventario, List<Pedaco<ProdutoLido>> pedacos) {
+        // Os ProdutoInfo são criados pela ordem do ficheiro, para que as
+        // marcas recebam os mesmos ids no DicionarioMarcas
+        ArrayList<ProdutoInfo> produtos = new ArrayList<>();
+        for (Pedaco<ProdutoLido> p : pedacos) {
+            for (ProdutoLido r : p.registos)
+                produtos.add(new ProdutoInfo(r.codigo, r.marca, r.modelo, r.preco));
+            p.lancarErro();
+        }
+        inventario.addProdutos(produtos);
+    }
+
+    private static void aplicarCupoes(Inventario inventario, List<Pedaco<CupaoLido>> pedacos,
+                                      LocalDate referencia, List<String> pendentes) {
+        for (Pedaco<CupaoLido> p : pedacos) {
+            for (CupaoLido r : p.registos) {
+                Cupao c = criarCupao(inventario, r, referencia, pendentes);
+                if (c != null)
+                    inventario.addCupao(c);
+            }
+            p.lancarErro();
+        }
+    }
+
+    /**
+     * Cria um cupão a partir dos campos lidos, tal como Main fazia. Os
+     * produtos de um cupão de produtos são procurados no inventário; os
+     * dias são relativos à data de referência.
+     *
+     * @return o cupão, ou null se o tipo for desconhecido
+     */
+    static Cupao criarCupao(Inventario inventario, CupaoLido r, LocalDate referencia,
+                            List<String> pendentes) {
+        String codigo = r.codigo;
+        int diaI = r.diaI;
+        int diaF = r.diaF;
+        String tipo = r.tipo;
+        String descricao = r.descricao;
+        float desconto = r.percentagem / 100.0f;
+
+        switch (tipo) {
+            case "Produto":
+                ArrayList<ProdutoInfo> prods = new ArrayList<>();
+                for (String code : r.dados().split(",")) {
+                    ProdutoInfo produto = inventario.getProduto(code);
+                    if (produto != null)
+                        prods.add(produto);
+                    else
+                        pendentes.add("Cupão " + codigo + ": produto " + code + " não existe");
+                }
+                return new CupaoProdutos(
+                    codigo, descricao, prods, desconto,
+                    referencia.plusDays(diaI),
+                    referencia.plusDays(diaF)
+                );
+
+            case "Compra":
+                return new CupaoCompra(
+                    codigo, descricao, desconto,
+                    referencia.plusDays(diaI),
+                    referencia.plusDays(diaF)
+                );
+
+            case "Marca":
+                return new CupaoMarca(
+                    codigo, descricao, desconto,
+                    referencia.plusDays(diaI),
+                    referencia.plusDays(diaF),
+                    r.dados()
+                );
+
+            default:
+                System.err.println("Tipo de cupão desconhecido: " + tipo);
+                return null;
+        }
+    }
+
+    private static void aplicarCartoes(Inventario inventario, List<Pedaco<String[]>> pedacos,
+                                       List<String> pendentes) {
+        for (Pedaco<String[]> p : pedacos) {
+            for (String[] r : p.registos) {
+                Cartao card = new Cartao(r[0]);
+                for (String code : r[1].split(",")) {
+                    Cupao cupao = inventario.getCupao(code);
+                    if (cupao != null)
+                        card.addCupao(cupao);
+                    else
+                        pendentes.add("Cartão " + r[0] + ": cupão " + code + " não existe");
+                }
+                inventario.addCartao(card);
+            }
+            p.lancarErro();
+        }
+    }
+
+    // ========================================================================
+    // REGISTOS LIDOS
+    // ========================================================================
+
+    /** Campos de uma linha de produtos */
+    static final class ProdutoLido {
+        final String codigo, marca, modelo;
+        final long preco;
+
+        ProdutoLido(String codigo, String marca, String modelo, long preco) {
+            this.codigo = codigo;
+            this.marca = marca;
+            this.modelo = modelo;
+            this.preco = preco;
+        }
+    }
+
+    /** Campos de uma linha de cupões (os números pela ordem do split) */
+    static final class CupaoLido {
+        final String codigo;
+        final int diaI, diaF;
+        final String tipo, descricao;
+        final int percentagem;
+        private final String dados;
+
+        CupaoLido(Linha linha) {
+            codigo = linha.texto(0);
+            diaI = linha.inteiro(1);
+            diaF = linha.inteiro(2);
+            tipo = linha.texto(3);
+            descricao = linha.texto(4);
+            percentagem = linha.inteiro(5);
+            dados = linha.campos() > 6 ? linha.texto(6) : null;
+        }
+
+        /**
+         * Retorna o 7º campo, falhando como info[6] falhava quando a linha
+         * só tem 6 campos.
+         */
+        String dados() {
+            if (dados == null)
+                throw new ArrayIndexOutOfBoundsException("Index 6 out of bounds for length 6");
+            return dados;
+        }
+    }
+
+    // ========================================================================
+    // LEITURA EM PEDAÇOS
+    // ========================================================================
+
+    /**
+     * Converte uma linha (já separada em campos) num registo.
+     */
+    @FunctionalInterface
+    interface Conversor<T> {
+        /**
+         * @param linha a linha a converter (só válida durante a chamada)
+         * @return o registo, ou null para ignorar a linha
+         */
+        T converter(Linha linha);
+    }
+
+    /**
+     * Mapeia o ficheiro, divide-o em pedaços e converte-os em paralelo.
+     *
+     * @return os pedaços lidos, pela ordem do ficheiro
+     */
+    static <T> List<Pedaco<T>> ler(Path ficheiro, Conversor<T> conversor) throws IOException {
+        long medicao = Metricas.LER_FICHEIRO.inicio();
+        try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            long porPedaco = tamanho / (4L * Runtime.getRuntime().availableProcessors());
+            porPedaco = Math.max(PEDACO_MINIMO, Math.min(PEDACO_MAXIMO, porPedaco));
+
+            List<Pedaco<T>> pedacos = new ArrayList<>();
+            long inicio = 0;
+            while (inicio < tamanho) {
+                long fim = inicio + porPedaco >= tamanho
+                    ? tamanho
+                    : fimDeLinha(canal, inicio + porPedaco, tamanho);
+                pedacos.add(new Pedaco<>(canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio)));
+                inicio = fim;
+            }
+
+            pedacos.parallelStream().forEach(p -> p.ler(conversor));
+            Metricas.LER_FICHEIRO.registar(medicao);
+            return pedacos;
+        }
+    }
+
+    /**
+     * Procura, a partir de uma posição, o início da linha seguinte.
+     *
+     * @return a posição logo a seguir ao próximo fim de linha (ou o tamanho)
+     */
+    private static long fimDeLinha(FileChannel canal, long pos, long tamanho) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < tamanho) {
+            buf.clear();
+            int n = canal.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == '\n')
+                    return pos + i + 1;
+                if (b == '\r') {
+                    // "\r\n" é um só fim de linha
+                    if (i + 1 < n)
+                        return pos + i + (buf.get(i + 1) == '\n' ? 2 : 1);
+                    buf.clear().limit(1);
+                    boolean lf = canal.read(buf, pos + i + 1) == 1 && buf.get(0) == '\n';
+                    return pos + i + (lf ? 2 : 1);
+                }
+            }
+            pos += n;
+        }
+        return tamanho;
+    }
+
+    /**
+     * Um pedaço do ficheiro (linhas inteiras) e os registos lidos dele.
+     */
+    static final class Pedaco<T> {
+        private final MappedByteBuffer bytes;
+        final List<T> registos = new ArrayList<>();
+
+        /** Primeiro erro encontrado (o pedaço deixa de ser lido nessa linha) */
+        RuntimeException erro;
+
+        Pedaco(MappedByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        void ler(Conversor<T> conversor) {
+            Linha linha = new Linha(bytes);
+            int n = bytes.limit();
+            int pos = 0;
+            while (pos < n) {
+                int fim = pos;
+                byte b = 0;
+                while (fim < n && (b = bytes.get(fim)) != '\n' && b != '\r')
+                    fim++;
+
+                if (linha.preparar(pos, fim)) {
+                    try {
+                        T r = conversor.converter(linha);
+                        if (r != null)
+                            registos.add(r);
+                    } catch (RuntimeException e) {
+                        erro = e;
+                        return;
+                    }
+                }
+
+                pos = fim + 1;
+                if (fim < n && b == '\r' && pos < n && bytes.get(pos) == '\n')
+                    pos++;
+            }
+        }
+
+        /** Lança o erro deste pedaço, se houve algum. */
+        void lancarErro() {
+            if (erro != null)
+                throw erro;
+        }
+    }
+
+    // ========================================================================
+    // LINHA
+    // ========================================================================
+
+    /**
+     * Uma linha do ficheiro, vista como campos separados por tabs, lida
+     * diretamente dos bytes. É reutilizada para todas as linhas de um pedaço.
+     */
+    static final class Linha {
+        private static final Charset CHARSET = Charset.defaultCharset();
+
+        private final ByteBuffer bytes;
+        private int[] inicios = new int[8];
+        private int[] fins = new int[8];
+        private int campos;
+        private byte[] tmp = new byte[64];
+
+        Linha(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Separa a linha [inicio, fim) em campos.
+         *
+         * @return false se a linha está em branco (deve ser ignorada)
+         */
+        boolean preparar(int inicio, int fim) {
+            if (emBranco(inicio, fim))
+                return false;
+
+            campos = 0;
+            int s = inicio;
+            for (int i = inicio; i <= fim; i++) {
+                if (i == fim || bytes.get(i) == '\t') {
+                    if (campos == inicios.length) {
+                        inicios = Arrays.copyOf(inicios, campos * 2);
+                        fins = Arrays.copyOf(fins, campos * 2);
+                    }
+                    inicios[campos] = s;
+                    fins[campos] = i;
+                    campos++;
+                    s = i + 1;
+                }
+            }
+            // Como split("\t"): os campos vazios no fim não contam
+            while (campos > 0 && inicios[campos - 1] == fins[campos - 1])
+                campos--;
+            return true;
+        }
+
+        /**
+         * Igual a String.isBlank(), sem criar a String quando a linha só
+         * tem ASCII.
+         */
+        private boolean emBranco(int inicio, int fim) {
+            boolean soAscii = true;
+            for (int i = inicio; i < fim; i++) {
+                int b = bytes.get(i) & 0xFF;
+                if (b >= 0x80)
+                    soAscii = false;
+                else if (!Character.isWhitespace(b))
+                    return false;
+            }
+            return soAscii || new String(copiar(inicio, fim), 0, fim - inicio, CHARSET).isBlank();
+        }
+
+        /** Número de campos (como split("\t").length) */
+        int campos() {
+            return campos;
+        }
+
+        /** Texto de um campo */
+        String texto(int i) {
+            int n = tamanho(i);
+            return new String(copiar(inicios[i], fins[i]), 0, n, CHARSET);
+        }
+
+        /** Um campo como Integer.parseInt() */
+        int inteiro(int i) {
+            long v = numero(i, 9);
+            return v == Long.MIN_VALUE ? Integer.parseInt(texto(i)) : (int) v;
+        }
+
+        /** Um campo como Long.parseLong() */
+        long longo(int i) {
+            long v = numero(i, 18);
+            return v == Long.MIN_VALUE ? Long.parseLong(texto(i)) : v;
+        }
+
+        /**
+         * Converte um número simples (sinal opcional e até maxDigitos
+         * algarismos ASCII) sem criar String.
+         *
+         * @return o número, ou Long.MIN_VALUE se o campo tem outra forma
+         *         (nesse caso usa-se o parse normal, com as mesmas exceções)
+         */
+        private long numero(int i, int maxDigitos) {
+            if (i >= campos)
+                throw new ArrayIndexOutOfBoundsException(
+                    "Index " + i + " out of bounds for length " + campos);
+            int p = inicios[i];
+            int fim = fins[i];
+            boolean negativo = false;
+            if (p < fim && (bytes.get(p) == '-' || bytes.get(p) == '+')) {
+                negativo = bytes.get(p) == '-';
+                p++;
+            }
+            if (p == fim || fim - p > maxDigitos)
+                return Long.MIN_VALUE;
+            long v = 0;
+            for (; p < fim; p++) {
+                int d = bytes.get(p) - '0';
+                if (d < 0 || d > 9)
+                    return Long.MIN_VALUE;
+                v = v * 10 + d;
+            }
+            return negativo ? -v : v;
+        }
+
+        private int tamanho(int i) {
+            if (i >= campos)
+                throw new ArrayIndexOutOfBoundsException(
+                    "Index " + i + " out of bounds for length " + campos);
+            return fins[i] - inicios[i];
+        }
+
+        private byte[] copiar(int inicio, int fim) {
+            int n = fim - inicio;
+            if (n > tmp.length)
+                tmp = new byte[Math.max(n, tmp.length * 2)];
+            bytes.get(inicio, tmp, 0, n);
+            return tmp;
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package menu;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import util.Validator;
+
+/**
+ * Gera ficheiros .hnt sintéticos (produtos, cupões, cartões) e um ficheiro
+ * de transações para testes de carga, do tamanho que se quiser: milhões
+ * de produtos, centenas de milhares de cupões, dezenas de milhões de
+ * cartões.
+ *
+ * FICHEIROS (numa pasta, nos formatos do CarregadorHnt):
+ *   produtos.hnt     codigo \t marca \t nome \t preco
+ *   cupoes.hnt       numero \t diaI \t diaF \t tipo \t descricao \t percentagem \t [dados]
+ *   cartoes.hnt      numero \t cupoes
+ *   transacoes.hnt   cartao \t cupoes a ativar \t produtos (o cesto)
+ *                    (formato do ReprocessadorVendas e do ServidorCheckout)
+ *
+ * DETERMINISTA:
+ * Cada produto, cupão, cartão e transação tem o seu próprio gerador de
+ * números aleatórios, criado a partir da semente e do seu número. A mesma
+ * semente e as mesmas opções dão sempre ficheiros iguais, byte a byte, e
+ * aumentar o número de cartões não muda os cartões que já existiam.
+ * Também é isto que permite gerar dezenas de milhões de linhas sem ter
+ * nada em memória: as transações voltam a calcular a carteira do cartão
+ * e os produtos dos cupões em vez de os guardar.
+ *
+ * OPÇÕES:
+ * - Marcas com enviesamento (distribuição de Zipf): com expoente 1 a
+ *   primeira marca tem muitos mais produtos do que a centésima; com 0
+ *   todas têm o mesmo número. O mesmo enviesamento escolhe as marcas dos
+ *   cupões de marca
+ * - Mistura de cupões de produtos, de marca e de compra, e quantos
+ *   produtos tem cada cupão de produtos (cobertura)
+ * - Janela de validade dos cupões: dia de início e duração, em dias a
+ *   contar de hoje (como no ficheiro). Com inícios negativos e durações
+ *   curtas há cupões já expirados
+ * - Tamanho das carteiras dos cartões e dos cestos das transações
+ * - Ativação: probabilidade de cada cupão da carteira ser ativado numa
+ *   transação; acerto: probabilidade de cada produto do cesto ser um dos
+ *   abrangidos por um cupão de produtos ativado (senão é um qualquer)
+ *
+ * TRANSAÇÕES:
+ * Os cartões são visitados todos, por uma ordem baralhada, antes de algum
+ * ser visitado outra vez: a transação i é a visita i / cartoes do seu
+ * cartão. Com V visitas por cartão, a visita k só ativa cupões das
+ * posições k, k + V, k + 2V, ... da carteira, por isso nenhuma transação
+ * ativa um cupão que uma anterior já pode ter gasto e o reprocessamento
+ * não dá erros (a não ser por cupões expirados, se a janela de validade
+ * o permitir).
+ *
+ * EXEMPLO:
+ *   GeradorDados g = new GeradorDados(42);
+ *   g.setProdutos(2_000_000);
+ *   g.setCartoes(10_000_000);
+ *   g.gerar(Path.of("/tmp/grande"));
+ */
+public final class GeradorDados {
+
+    /** Tipos de gerador (entram na semente de cada um) */
+    private static final int PRODUTO = 1, CUPAO = 2, CARTAO = 3, TRANSACAO = 4;
+
+    /** Primeiro número de cupão e de cartão */
+    private static final long PRIMEIRO_CUPAO = 1_000_000;
+    private static final long PRIMEIRO_CARTAO = 100_000_000;
+
+    /** Preços entre 0,30 € e 50,00 € (mais produtos baratos do que caros) */
+    private static final double PRECO_MIN = Math.log(30), PRECO_MAX = Math.log(5000);
+
+    private static final int TAMANHO_ESCRITA = 1 << 16;
+
+    private final long semente;
+
+    private int produtos = 10_000;
+    private int marcas = 200;
+    private double enviesamento = 1.0;
+    private int cupoes = 1_000;
+    private double fracaoProdutos = 0.6;
+    private double fracaoMarca = 0.3;
+    private int cobertura = 20;
+    private int inicioMin = -7, inicioMax = 0;
+    private int duracaoMin = 7, duracaoMax = 30;
+    private long cartoes = 10_000;
+    private int carteiraMin = 5, carteiraMax = 20;
+    private long transacoes = 100_000;
+    private int cestoMin = 1, cestoMax = 40;
+    private double ativacao = 0.5;
+    private double acerto = 0.3;
+
+    /** Distribuição acumulada das marcas (calculada em gerar()) */
+    private double[] marcasAcumuladas;
+
+    // ========================================================================
+    // CONSTRUTOR E OPÇÕES
+    // ========================================================================
+
+    /**
+     * Cria um gerador com as opções por omissão (10 000 produtos e cartões,
+     * 1000 cupões, 100 000 transações).
+     *
+     * @param semente a semente de todos os dados
+     */
+    public GeradorDados(long semente) {
+        this.semente = semente;
+    }
+
+    /**
+     * Define o número de produtos.
+     *
+     * @param n número de produtos
+     */
+    public void setProdutos(int n) {
+        produtos = Validator.requirePositive(n);
+    }
+
+    /**
+     * Define o número de marcas.
+     *
+     * @param n número de marcas
+     */
+    public void setMarcas(int n) {
+        marcas = Validator.requirePositive(n);
+    }
+
+    /**
+     * Define o enviesamento das marcas (ver OPÇÕES).
+     *
+     * @param expoente expoente de Zipf (0 = todas as marcas iguais)
+     */
+    public void setEnviesamento(double expoente) {
+        enviesamento = Validator.requirePositiveOrZero(expoente);
+    }
+
+    /**
+     * Define o número de cupões.
+     *
+     * @param n número de cupões
+     */
+    public void setCupoes(int n) {
+        cupoes = Validator.requirePositive(n);
+    }
+
+    /**
+     * Define a mistura de tipos de cupões; o resto são cupões de compra.
+     *
+     * @param produtos fração de cupões de produtos
+     * @param marca fração de cupões de marca
+     * @throws IllegalArgumentException se as frações somarem mais de 1
+     */
+    public void setMistura(double produtos, double marca) {
+        Validator.requireInsideRange(produtos, 0.0, 1.0);
+        Validator.requireInsideRange(marca, 0.0, 1.0);
+        if (produtos + marca > 1.0)
+            throw new IllegalArgumentException("Frações de cupões somam mais de 1");
+        fracaoProdutos = produtos;
+        fracaoMarca = marca;
+    }
+
+    /**
+     * Define a cobertura dos cupões de produtos.
+     *
+     * @param n produtos abrangidos por cada cupão de produtos
+     */
+    public void setCobertura(int n) {
+        cobertura = Validator.requirePositive(n);
+    }
+
+    /**
+     * Define os dias em que os cupões podem começar.
+     *
+     * @param min primeiro dia de início possível (relativo a hoje)
+     * @param max último dia de início possível
+     */
+    public void setInicio(int min, int max) {
+        intervalo(min, max);
+        inicioMin = min;
+        inicioMax = max;
+    }
+
+    /**
+     * Define quantos dias dura a validade de um cupão.
+     *
+     * @param min duração mínima da validade, em dias
+     * @param max duração máxima
+     */
+    public void setDuracao(int min, int max) {
+        intervalo(Validator.requirePositiveOrZero(min), max);
+        duracaoMin = min;
+        duracaoMax = max;
+    }
+
+    /**
+     * Define o número de cartões.
+     *
+     * @param n número de cartões
+     */
+    public void setCartoes(long n) {
+        cartoes = Validator.requirePositive(n);
+    }
+
+    /**
+     * Define o tamanho das carteiras dos cartões.
+     *
+     * @param min número mínimo de cupões por cartão
+     * @param max número máximo (limitado ao número de cupões)
+     */
+    public void setCarteira(int min, int max) {
+        intervalo(Validator.requirePositiveOrZero(min), max);
+        carteiraMin = min;
+        carteiraMax = max;
+    }
+
+    /**
+     * Define o número de transações.
+     *
+     * @param n número de transações (0 = não gerar transacoes.hnt)
+     */
+    public void setTransacoes(long n) {
+        transacoes = Validator.requirePositiveOrZero(n);
+    }
+
+    /**
+     * Define o tamanho dos cestos das transações.
+     *
+     * @param min número mínimo de produtos por cesto
+     * @param max número máximo
+     */
+    public void setCesto(int min, int max) {
+        intervalo(Validator.requirePositive(min), max);
+        cestoMin = min;
+        cestoMax = max;
+    }
+
+    /**
+     * Define a ativação dos cupões nas transações (ver OPÇÕES).
+     *
+     * @param p probabilidade de cada cupão da carteira ser ativado
+     */
+    public void setAtivacao(double p) {
+        ativacao = Validator.requireInsideRange(p, 0.0, 1.0);
+    }
+
+    /**
+     * Define o acerto dos cestos nos cupões de produtos (ver OPÇÕES).
+     *
+     * @param p probabilidade de cada produto do cesto ser de um cupão de produtos ativado
+     */
+    public void setAcerto(double p) {
+        acerto = Validator.requireInsideRange(p, 0.0, 1.0);
+    }
+
+    private static void intervalo(int min, int max) {
+        if (min > max)
+            throw new IllegalArgumentException("Intervalo inválido: " + min + ".." + max);
+    }
+
+    // ========================================================================
+    // GERAR
+    // ========================================================================
+
+    /**
+     * Escreve os quatro ficheiros numa pasta (criada se não existir).
+     * Os ficheiros que já existam são substituídos.
+     *
+     * @param pasta a pasta
+     * @throws IOException se algum ficheiro não puder ser escrito
+     */
+    public void gerar(Path pasta) throws IOException {
+        Files.createDirectories(pasta);
+        marcasAcumuladas = acumular(marcas, enviesamento);
+        escreverProdutos(pasta.resolve("produtos.hnt"));
+        escreverCupoes(pasta.resolve("cupoes.hnt"));
+        escreverCartoes(pasta.resolve("cartoes.hnt"));
+        if (transacoes > 0)
+            escreverTransacoes(pasta.resolve("transacoes.hnt"));
+    }
+
+    private static BufferedWriter escritor(Path ficheiro) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(ficheiro, StandardCharsets.UTF_8), TAMANHO_ESCRITA);
+    }
+
+    private void escreverProdutos(Path ficheiro) throws IOException {
+        StringBuilder linha = new StringBuilder();
+        try (BufferedWriter out = escritor(ficheiro)) {
+            for (int i = 0; i < produtos; i++) {
+                SplittableRandom r = aleatorio(PRODUTO, i);
+                int marca = marca(r);
+                long preco = Math.round(Math.exp(PRECO_MIN + r.nextDouble() * (PRECO_MAX - PRECO_MIN)));
+                linha.setLength(0);
+                codigo(linha, i).append('\t').append(nomeMarca(marca)).append('\t')
+                    .append(nomeMarca(marca)).append(" artigo ").append(i).append('\t')
+                    .append(preco).append('\n');
+                out.append(linha);
+            }
+        }
+    }
+
+    private void escreverCupoes(Path ficheiro) throws IOException {
+        StringBuilder linha = new StringBuilder();
+        try (BufferedWriter out = escritor(ficheiro)) {
+            for (int i = 0; i < cupoes; i++) {
+                CupaoGerado c = cupao(i);
+                linha.setLength(0);
+                linha.append(PRIMEIRO_CUPAO + i).append('\t').append(c.inicio).append('\t')
+                    .append(c.fim).append('\t');
+                switch (c.tipo) {
+                    case "Produto":
+                        linha.append("Produto\tDesconto em produtos\t").append(c.percentagem).append('\t');
+                        for (int j = 0; j < c.produtos.length; j++) {
+                            if (j > 0)
+                                linha.append(',');
+                            codigo(linha, c.produtos[j]);
+                        }
+                        break;
+                    case "Marca":
+                        linha.append("Marca\tDesconto na marca ").append(nomeMarca(c.marca)).append('\t')
+                            .append(c.percentagem).append('\t').append(nomeMarca(c.marca));
+                        break;
+                    default:
+                        linha.append("Compra\tDesconto na compra\t").append(c.percentagem);
+                }
+                out.append(linha.append('\n'));
+            }
+        }
+    }
+
+    private void escreverCartoes(Path ficheiro) throws IOException {
+        StringBuilder linha = new StringBuilder();
+        try (BufferedWriter out = escritor(ficheiro)) {
+            for (long i = 0; i < cartoes; i++) {
+                int[] carteira = carteira(i);
+                linha.setLength(0);
+                linha.append(PRIMEIRO_CARTAO + i).append('\t');
+                for (int j = 0; j < carteira.length; j++) {
+                    if (j > 0)
+                        linha.append(',');
+                    linha.append(PRIMEIRO_CUPAO + carteira[j]);
+                }
+                out.append(linha.append('\n'));
+            }
+        }
+    }
+
+    private void escreverTransacoes(Path ficheiro) throws IOException {
+        StringBuilder linha = new StringBuilder();
+        int[] ativos = new int[Math.min(carteiraMax, cupoes)];
+        long visitas = (transacoes + cartoes - 1) / cartoes;
+        long salto = salto(cartoes);
+        try (BufferedWriter out = escritor(ficheiro)) {
+            for (long i = 0; i < transacoes; i++) {
+                SplittableRandom r = aleatorio(TRANSACAO, i);
+                long cartao = (i % cartoes) * salto % cartoes;
+                long visita = i / cartoes;
+                linha.setLength(0);
+                linha.append(PRIMEIRO_CARTAO + cartao).append('\t');
+
+                // Cupões ativados (da parte da carteira desta visita)
+                int[] carteira = carteira(cartao);
+                int n = 0;
+                for (int j = 0; j < carteira.length; j++) {
+                    if (j % visitas == visita && r.nextDouble() < ativacao) {
+                        if (n > 0)
+                            linha.append(',');
+                        linha.append(PRIMEIRO_CUPAO + carteira[j]);
+                        ativos[n++] = carteira[j];
+                    }
+                }
+                linha.append('\t');
+
+                // Cesto: alguns produtos de cupões de produtos ativados
+                CupaoGerado[] deProdutos = new CupaoGerado[n];
+                int m = 0;
+                for (int j = 0; j < n; j++) {
+                    CupaoGerado c = cupao(ativos[j]);
+                    if (c.produtos != null)
+                        deProdutos[m++] = c;
+                }
+                int cesto = entre(r, cestoMin, cestoMax);
+                for (int j = 0; j < cesto; j++) {
+                    if (j > 0)
+                        linha.append(',');
+                    int produto;
+                    if (m > 0 && r.nextDouble() < acerto) {
+                        int[] abrangidos = deProdutos[r.nextInt(m)].produtos;
+                        produto = abrangidos[r.nextInt(abrangidos.length)];
+                    } else {
+                        produto = r.nextInt(produtos);
+                    }
+                    codigo(linha, produto);
+                }
+                out.append(linha.append('\n'));
+            }
+        }
+    }
+
+    // ========================================================================
+    // ENTIDADES (calculadas de novo sempre que são precisas)
+    // ========================================================================
+
+    /** Um cupão gerado (os produtos só existem nos cupões de produtos) */
+    private static final class CupaoGerado {
+        String tipo;
+        int percentagem;
+        int inicio;
+        int fim;
+        int marca;
+        int[] produtos;
+    }
+
+    private CupaoGerado cupao(int i) {
+        SplittableRandom r = aleatorio(CUPAO, i);
+        CupaoGerado c = new CupaoGerado();
+        double tipo = r.nextDouble();
+        c.percentagem = 5 * entre(r, 1, 6);
+        c.inicio = entre(r, inicioMin, inicioMax);
+        c.fim = c.inicio + entre(r, duracaoMin, duracaoMax);
+        if (tipo < fracaoProdutos) {
+            c.tipo = "Produto";
+            c.produtos = new int[Math.min(cobertura, produtos)];
+            for (int j = 0; j < c.produtos.length; j++)
+                c.produtos[j] = r.nextInt(produtos);
+        } else if (tipo < fracaoProdutos + fracaoMarca) {
+            c.tipo = "Marca";
+            c.marca = marca(r);
+        } else {
+            c.tipo = "Compra";
+        }
+        return c;
+    }
+
+    /** Os cupões de um cartão (sem repetições), por índice */
+    private int[] carteira(long cartao) {
+        SplittableRandom r = aleatorio(CARTAO, cartao);
+        int n = Math.min(entre(r, carteiraMin, carteiraMax), cupoes);
+        int[] carteira = new int[n];
+        for (int j = 0; j < n; j++) {
+            int c;
+            do {
+                c = r.nextInt(cupoes);
+            } while (contem(carteira, j, c));
+            carteira[j] = c;
+        }
+        return carteira;
+    }
+
+    private static boolean contem(int[] a, int n, int valor) {
+        for (int i = 0; i < n; i++)
+            if (a[i] == valor)
+                return true;
+        return false;
+    }
+
+    // ========================================================================
+    // AUXILIARES
+    // ========================================================================
+
+    /** O gerador de uma entidade: depende só da semente, do tipo e do número */
+    private SplittableRandom aleatorio(int tipo, long numero) {
+        return new SplittableRandom(semente * 0x9E3779B97F4A7C15L
+                                    + tipo * 0xBF58476D1CE4E5B9L + numero);
+    }
+
+    /**
+     * Passo da ordem baralhada dos cartões: primo com n, para que
+     * (i * salto) % n passe por todos os cartões uma vez. Cabe em long
+     * com até ~3 mil milhões de cartões.
+     */
+    private static long salto(long n) {
+        long s = 2_654_435_761L;
+        while (mdc(s, n) != 1)
+            s += 2;
+        return s;
+    }
+
+    private static long mdc(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static int entre(SplittableRandom r, int min, int max) {
+        return min + r.nextInt(max - min + 1);
+    }
+
+    /** Pesos de Zipf acumulados: a marca k tem peso 1 / (k+1)^expoente */
+    private static double[] acumular(int n, double expoente) {
+        double[] acumulado = new double[n];
+        double soma = 0;
+        for (int k = 0; k < n; k++) {
+            soma += 1.0 / Math.pow(k + 1, expoente);
+            acumulado[k] = soma;
+        }
+        return acumulado;
+    }
+
+    private int marca(SplittableRandom r) {
+        double alvo = r.nextDouble() * marcasAcumuladas[marcasAcumuladas.length - 1];
+        int i = Arrays.binarySearch(marcasAcumuladas, alvo);
+        return Math.min(i >= 0 ? i : -i - 1, marcasAcumuladas.length - 1);
+    }
+
+    private static String nomeMarca(int marca) {
+        return "Marca" + marca;
+    }
+
+    /** Código de barras "ddd-ddd" (mais dígitos à esquerda acima de um milhão) */
+    private static StringBuilder codigo(StringBuilder sb, int i) {
+        int grupo = i / 1000, resto = i % 1000;
+        if (grupo < 100)
+            sb.append(grupo < 10 ? "00" : "0");
+        sb.append(grupo).append('-');
+        if (resto < 100)
+            sb.append(resto < 10 ? "00" : "0");
+        return sb.append(resto);
+    }
+}
@@ -1,21 +1,21 @@
 package menu;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.List;
 
 import cliente.Cartao;
 import cliente.Cupao;
-import cliente.CupaoCompra;
-import cliente.CupaoMarca;
-import cliente.CupaoProdutos;
 import comercio.Inventario;
-import comercio.ProdutoInfo;
+import comercio.Metricas;
 import comercio.ProdutoVendido;
 import comercio.Venda;
+import util.PontosBase;
 
 /**
  * Classe principal do sistema de cupões da HonESTa.
@@ -29,7 +29,7 @@ import comercio.Venda;
  * 1. main() - Carrega dados e executa testes
  * 2. testar*() - Métodos de teste para diferentes cenários
  * 3. processaVenda() - Simula uma venda completa
- * 4. ler*() - Métodos para ler ficheiros de dados
+ * 4. carregarDados() - Lê os ficheiros de dados
  * 
  * FICHEIROS DE DADOS:
  * - dados/produtos.hnt - Produtos disponíveis
@@ -47,21 +47,81 @@ public class Main {
      * 
      * FLUXO:
      * 1. Cria inventário vazio
-     * 2. Carrega produtos do ficheiro
-     * 3. Carrega cupões do ficheiro
-     * 4. Carrega cartões do ficheiro
-     * 5. Executa testes
+     * 2. Carrega produtos, cupões e cartões dos ficheiros (em paralelo)
+     * 3. Executa testes
      * 
-     * @param args argumentos da linha de comando (não usados)
+     * INSTANTÂNEO (opcional):
+     *   java menu.Main dados/inventario.bin
+     * Se o ficheiro existir, o inventário é lido dele (arranque imediato,
+     * datas dos cupões fixas); senão os .hnt são importados e o resultado
+     * é gravado nesse ficheiro para o próximo arranque.
+     * 
+     * DIÁRIO (opcional, depois do instantâneo):
+     *   java menu.Main dados/inventario.bin dados/cartoes.diario
+     * As alterações aos cartões gravadas no diário são repostas por cima do
+     * instantâneo, e as novas ficam gravadas nele. Por isso uma segunda
+     * execução parte do estado deixado pela primeira (cupões já usados).
+     * 
+     * REPROCESSAMENTO EM LOTE:
+     *   java menu.Main --lote transacoes.hnt resultados.txt [--dados pasta]
+     * Carrega os .hnt, processa todas as transações do ficheiro (ver
+     * ReprocessadorVendas) e mostra as estatísticas, sem executar os testes.
+     * Com --dados, os .hnt são lidos dessa pasta em vez de dados/ (ex: a
+     * pasta escrita por --gerar, cujas transações usam os cartões de lá).
+     * 
+     * SERVIDOR DE CHECKOUT:
+     *   java menu.Main --servidor 8080 [máximo de pedidos em curso] [--vigiar]
+     *                  [--instantaneo dados/inventario.bin] [--diario dados/cartoes.diario]
+     *                  [--dados pasta]
+     * Carrega os .hnt e atende checkouts por HTTP (ver ServidorCheckout)
+     * até o processo ser terminado. Com --vigiar, os .hnt que mudarem são
+     * recarregados sem parar o servidor (ver VigiaHnt e RecarregadorHnt).
+     * Com --instantaneo e --diario, o inventário é lido/gravado e os
+     * checkouts são registados no diário como no arranque normal, e o
+     * servidor parado continua onde ficou. --vigiar não se usa com
+     * --instantaneo: as datas dos cupões do instantâneo já estão fixas.
+     * --dados muda a pasta dos .hnt, como no --lote.
+     * 
+     * MÉTRICAS:
+     * Com --lote e --servidor as métricas do motor (ver comercio.Metricas)
+     * ficam visíveis por JMX; com -Dcupoes.metricas.relatorio=N são também
+     * escritas em System.err a cada N segundos.
+     * 
+     * DADOS SINTÉTICOS:
+     *   java menu.Main --gerar pasta [semente=42] [produtos=2000000] ...
+     * Escreve .hnt e transações geradas na pasta (ver GeradorDados e
+     * gerar() para as opções), sem executar os testes.
+     * 
+     * @param args [0] = ficheiro do instantâneo, [1] = ficheiro do diário
+     *             (ambos opcionais), ou --lote e os dois ficheiros, ou
+     *             --servidor e a porta, ou --gerar, a pasta e as opções
      */
     public static void main(String[] args) {
-        // Criar o inventário central
-        Inventario inventario = new Inventario();
+        if (args.length > 0 && args[0].equals("--lote")) {
+            reprocessar(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--servidor")) {
+            servir(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--gerar")) {
+            gerar(args);
+            return;
+        }
         
-        // Carregar dados dos ficheiros
-        lerProdutos(inventario, "dados/produtos.hnt");
-        lerCupoes(inventario, "dados/cupoes.hnt");
-        lerCartoes(inventario, "dados/cartoes.hnt");
+        Inventario inventario;
+        if (args.length > 0) {
+            inventario = carregarInstantaneo(Path.of(args[0]), DADOS);
+            if (args.length > 1)
+                abrirDiario(inventario, Path.of(args[1]));
+        } else {
+            // Criar o inventário central
+            inventario = new Inventario();
+            
+            // Carregar dados dos ficheiros (os três ao mesmo tempo)
+            carregarDados(inventario);
+        }
 
         // Executar testes
         // NOTA: Comentar/descomentar para testar cenários diferentes
@@ -255,21 +315,25 @@ public class Main {
         
         System.out.println("\n----- descrição dos produtos comprados -----");
         for (ProdutoVendido p : v.getItems()) {
-            // Mostrar produto: Marca | Nome | Preço
+            // Mostrar produto: Marca | Nome | Preço (xQuantidade se > 1)
+            String nome = p.getInfo().getModelo();
+            if (p.getQuantidade() > 1)
+                nome += " x" + p.getQuantidade();
             String prodInfo = String.format("%-15s %-30s %5.2f", 
                 p.getInfo().getMarca(),
-                p.getInfo().getModelo(),
-                p.getPreco() / 100.0f);
+                nome,
+                p.getPrecoTotal() / 100.0);
             System.out.println(prodInfo);
             
             // Se usou cupão, mostrar desconto acumulado
+            // (mesmo cálculo inteiro usado em Cartao.usar)
             if (p.getCupao() != null) {
                 Cupao cupaoUsado = p.getCupao();
-                float descontoValor = p.getPreco() * cupaoUsado.getDesconto();
+                long descontoValor = p.getDescontoTotal();
                 System.out.printf("%46s %5.2f\n", 
                     "Acumulou em cartão (" + cupaoUsado.getNumero() + " " + 
-                    (cupaoUsado.getDesconto() * 100) + "%)", 
-                    descontoValor / 100.0f);
+                    PontosBase.formatarPercentagem(cupaoUsado.getDescontoPb()) + ")", 
+                    descontoValor / 100.0);
             }
         }
         
@@ -292,204 +356,295 @@ public class Main {
     // LEITURA DE FICHEIROS
     // ========================================================================
     
+    /** Pasta dos ficheiros de dados (--lote e --servidor aceitam outra com --dados) */
+    private static final Path DADOS = Path.of("dados");
+
+    /** Ficheiros de dados, dentro da pasta */
+    private static final String PRODUTOS = "produtos.hnt";
+    private static final String CUPOES = "cupoes.hnt";
+    private static final String CARTOES = "cartoes.hnt";
+
     /**
-     * Cria produtos a partir de um ficheiro e adiciona ao inventário.
-     * 
-     * FORMATO DO FICHEIRO (separado por tabs):
-     * codigo \t marca \t nome \t preco
+     * Carrega produtos, cupões e cartões para o inventário.
      * 
-     * EXEMPLO:
-     * 202-006  Arquipélago  Massa esparguete 500g  231
+     * Os três ficheiros são lidos ao mesmo tempo pelo CarregadorHnt e as
+     * referências entre eles (produtos dos cupões, cupões dos cartões) são
+     * ligadas no fim. Os formatos dos ficheiros estão descritos no
+     * CarregadorHnt.
      * 
      * TRATAMENTO DE ERROS:
-     * - Linhas vazias são ignoradas
-     * - Linhas com formato errado são ignoradas
+     * - Linhas vazias ou com formato errado são ignoradas
+     * - Códigos que não existem são ignorados e mostrados como aviso
      * - Ficheiro não encontrado → termina programa
      * - Erro de leitura → termina programa
      * 
-     * @param inventario onde adicionar os produtos
-     * @param ficheiro caminho do ficheiro
+     * @param inventario onde adicionar os dados
      */
-    private static void lerProdutos(Inventario inventario, String ficheiro) {
-        try (BufferedReader fin = new BufferedReader(new FileReader(ficheiro))) {
-            String linha = null;
-            while ((linha = fin.readLine()) != null) {
-                // Ignorar linhas vazias
-                if (linha.isBlank())
-                    continue;
-                
-                // Dividir linha por tabs
-                String info[] = linha.split("\t");
-                if (info.length != 4)
-                    continue;
-                
-                // Extrair campos
-                String codigo = info[0];
-                String marca = info[1];
-                String nome = info[2];
-                long preco = Long.parseLong(info[3]);
+    private static void carregarDados(Inventario inventario) {
+        carregarDados(inventario, DADOS, LocalDate.now());
+    }
 
-                // Criar e adicionar produto
-                ProdutoInfo produto = new ProdutoInfo(codigo, marca, nome, preco);
-                inventario.addProduto(produto);
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println("Ficheiro dos produtos - " + ficheiro + 
+    /**
+     * Igual a carregarDados(inventario), com os ficheiros de outra pasta e
+     * os dias dos cupões relativos a uma data dada.
+     * 
+     * @param inventario onde adicionar os dados
+     * @param pasta a pasta dos .hnt
+     * @param referencia o dia 0 dos cupões
+     */
+    private static void carregarDados(Inventario inventario, Path pasta, LocalDate referencia) {
+        try {
+            List<String> pendentes = CarregadorHnt.carregar(inventario,
+                pasta.resolve(PRODUTOS), pasta.resolve(CUPOES), pasta.resolve(CARTOES), referencia);
+            for (String p : pendentes)
+                System.err.println("Aviso: " + p);
+        } catch (NoSuchFileException e) {
+            System.err.println("Ficheiro " + descrever(e.getFile()) + " - " + e.getFile() +
                               " - não encontrado! ");
             System.exit(1);
         } catch (IOException e) {
-            System.err.println("Erro na leitura do ficheiro dos produtos - " + 
-                              ficheiro + " ! ");
+            String ficheiro = e instanceof FileSystemException
+                ? ((FileSystemException) e).getFile() : null;
+            System.err.println("Erro na leitura do ficheiro " + descrever(ficheiro) + " - " +
+                              ficheiro + "! ");
             e.printStackTrace();
             System.exit(1);
         }
     }
 
     /**
-     * Cria cupões a partir de um ficheiro e adiciona ao inventário.
-     * 
-     * FORMATO DO FICHEIRO (separado por tabs):
-     * numero \t diaI \t diaF \t tipo \t descricao \t percentagem \t [dados]
-     * 
-     * TIPOS DE CUPÃO:
-     * - "Produto" → dados = lista de códigos separados por vírgula
-     * - "Marca" → dados = nome da marca
-     * - "Compra" → sem dados extra
+     * Lê o inventário de um instantâneo ou, se ainda não existir, importa
+     * os ficheiros .hnt e grava o instantâneo.
      * 
-     * EXEMPLO:
-     * 1001  0  6  Produto  Desconto em chocolates  15  125-008,125-009
-     * 1501  0  6  Marca    Desconto Albicereal     10  Albicereal
-     * 1550  0  6  Compra   Desconto geral          10
-     * 
-     * DATAS:
-     * - diaI e diaF são relativos a hoje (LocalDate.now())
-     * - 0 = hoje, 7 = daqui a 7 dias, -7 = há 7 dias atrás
+     * @param ficheiro o ficheiro do instantâneo
+     * @param pasta a pasta dos .hnt a importar
+     * @return o inventário
+     */
+    private static Inventario carregarInstantaneo(Path ficheiro, Path pasta) {
+        try {
+            if (Files.exists(ficheiro))
+                return Inventario.carregar(ficheiro);
+            Inventario inventario = new Inventario();
+            carregarDados(inventario, pasta, LocalDate.now());
+            inventario.guardar(ficheiro);
+            return inventario;
+        } catch (IOException e) {
+            System.err.println("Erro no instantâneo - " + ficheiro + "! ");
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Abre o diário dos cartões (ver Inventario.abrirDiario()).
      * 
-     * @param inventario onde adicionar os cupões
-     * @param ficheiro caminho do ficheiro
+     * @param inventario o inventário
+     * @param ficheiro o ficheiro do diário
      */
-    private static void lerCupoes(Inventario inventario, String ficheiro) {
-        try (BufferedReader fin = new BufferedReader(new FileReader(ficheiro))) {
-            String linha = null;
-            while ((linha = fin.readLine()) != null) {
-                // Ignorar linhas vazias
-                if (linha.isBlank())
-                    continue;
-                
-                // Dividir linha por tabs
-                String info[] = linha.split("\t");
-                if (info.length < 6)
-                    continue;
-                
-                // Campos comuns a todos os cupões
-                String codigo = info[0];
-                int diaI = Integer.parseInt(info[1]);
-                int diaF = Integer.parseInt(info[2]);
-                String tipo = info[3];
-                String descricao = info[4];
-                float desconto = Integer.parseInt(info[5]) / 100.0f;
-                
-                // Criar cupão conforme o tipo
-                switch (tipo) {
-                    case "Produto":
-                        // Cupão de produtos específicos
-                        ArrayList<ProdutoInfo> prods = new ArrayList<>();
-                        for (String code : info[6].split(","))
-                            prods.add(inventario.getProduto(code));
-                        
-                        inventario.addCupao(new CupaoProdutos(
-                            codigo, descricao, prods, desconto,
-                            LocalDate.now().plusDays(diaI), 
-                            LocalDate.now().plusDays(diaF)
-                        ));
-                        break;
-                        
-                    case "Compra":
-                        // Cupão de compra (abrange tudo)
-                        inventario.addCupao(new CupaoCompra(
-                            codigo, descricao, desconto,
-                            LocalDate.now().plusDays(diaI), 
-                            LocalDate.now().plusDays(diaF)
-                        ));
-                        break;
-                        
-                    case "Marca":
-                        // Cupão de marca
-                        String marca = info[6];
-                        inventario.addCupao(new CupaoMarca(
-                            codigo, descricao, desconto,
-                            LocalDate.now().plusDays(diaI), 
-                            LocalDate.now().plusDays(diaF),
-                            marca
-                        ));
-                        break;
+    private static void abrirDiario(Inventario inventario, Path ficheiro) {
+        try {
+            inventario.abrirDiario(ficheiro);
+        } catch (IOException e) {
+            System.err.println("Erro no diário - " + ficheiro + "! ");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
 
-                    default:
-                        System.err.println("Tipo de cupão desconhecido: " + tipo);
-                        break;
-                }
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println("Ficheiro dos cupões - " + ficheiro + 
-                              " - não encontrado! ");
+    /**
+     * Reprocessa um ficheiro de transações com o inventário dos .hnt.
+     * 
+     * @param args --lote, ficheiro das transações, ficheiro dos resultados,
+     *             [--dados pasta dos .hnt]
+     */
+    private static void reprocessar(String[] args) {
+        List<String> posicionais = new ArrayList<>();
+        Path pasta = DADOS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--dados") && i + 1 < args.length)
+                pasta = Path.of(args[++i]);
+            else
+                posicionais.add(args[i]);
+        }
+        if (posicionais.size() < 3) {
+            System.err.println("Uso: java menu.Main --lote transacoes resultados [--dados pasta]");
             System.exit(1);
+        }
+        Metricas.publicar();
+        Inventario inventario = new Inventario();
+        carregarDados(inventario, pasta, LocalDate.now());
+        try {
+            System.out.println(new ReprocessadorVendas(inventario)
+                .processar(Path.of(posicionais.get(1)), Path.of(posicionais.get(2))));
         } catch (IOException e) {
-            System.err.println("Erro na leitura do ficheiro dos cupões - " + 
-                              ficheiro + "! ");
+            System.err.println("Erro no reprocessamento - " + e.getMessage() + "! ");
             e.printStackTrace();
             System.exit(1);
         }
     }
 
     /**
-     * Cria cartões a partir de um ficheiro e adiciona ao inventário.
+     * Arranca o servidor de checkout com o inventário dos .hnt (ou de um
+     * instantâneo, e com um diário, como no arranque normal). O servidor
+     * (e a vigia dos .hnt) continua a correr depois de main() terminar.
      * 
-     * FORMATO DO FICHEIRO (separado por tabs):
-     * numero \t cupoes
+     * @param args --servidor, porta, [máximo de pedidos em curso], [--vigiar],
+     *             [--instantaneo ficheiro], [--diario ficheiro], [--dados pasta]
+     */
+    private static void servir(String[] args) {
+        List<String> posicionais = new ArrayList<>();
+        boolean vigiar = false;
+        String instantaneo = null;
+        String diario = null;
+        Path pasta = DADOS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--vigiar"))
+                vigiar = true;
+            else if (args[i].equals("--instantaneo") && i + 1 < args.length)
+                instantaneo = args[++i];
+            else if (args[i].equals("--diario") && i + 1 < args.length)
+                diario = args[++i];
+            else if (args[i].equals("--dados") && i + 1 < args.length)
+                pasta = Path.of(args[++i]);
+            else
+                posicionais.add(args[i]);
+        }
+        if (posicionais.size() < 2 || (vigiar && instantaneo != null)) {
+            System.err.println("Uso: java menu.Main --servidor porta [maximo] [--vigiar]"
+                               + " [--instantaneo ficheiro] [--diario ficheiro] [--dados pasta]"
+                               + " (--vigiar só sem --instantaneo)");
+            System.exit(1);
+        }
+        Metricas.publicar();
+        Inventario inventario;
+        LocalDate hoje = LocalDate.now();
+        if (instantaneo != null) {
+            inventario = carregarInstantaneo(Path.of(instantaneo), pasta);
+        } else {
+            inventario = new Inventario();
+            carregarDados(inventario, pasta, hoje);
+        }
+        if (diario != null)
+            abrirDiario(inventario, Path.of(diario));
+        try {
+            int maximo = posicionais.size() > 2 ? Integer.parseInt(posicionais.get(2)) : 256;
+            ServidorCheckout s = ServidorCheckout.iniciar(inventario, Integer.parseInt(posicionais.get(1)), maximo);
+            System.out.println("Servidor de checkout na porta " + s.getPorta());
+            if (vigiar)
+                vigiar(inventario, pasta, hoje);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Erro ao arrancar o servidor - " + e.getMessage() + "! ");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Começa a vigiar os .hnt: cada ficheiro alterado é recarregado e o
+     * resumo é escrito em System.out. Os dias dos cupões recarregados são
+     * relativos ao dia do arranque, como os do carregamento.
      * 
-     * EXEMPLO:
-     * 10101  1001,1003,1501,1502
+     * @param inventario o inventário carregado dos .hnt
+     * @param pasta a pasta dos .hnt
+     * @param referencia o dia do carregamento
+     * @throws IOException se os ficheiros não puderem ser vigiados
+     */
+    private static void vigiar(Inventario inventario, Path pasta, LocalDate referencia) throws IOException {
+        RecarregadorHnt r = new RecarregadorHnt(inventario,
+            pasta.resolve(PRODUTOS), pasta.resolve(CUPOES), pasta.resolve(CARTOES), referencia);
+        new VigiaHnt(r, resumo -> {
+            System.out.println(resumo);
+            for (String p : resumo.getPendentes())
+                System.err.println("Aviso: " + p);
+        });
+        System.out.println("A vigiar " + PRODUTOS + ", " + CUPOES + " e " + CARTOES + " em " + pasta);
+    }
+
+    /**
+     * Gera dados sintéticos (ver GeradorDados). Cada opção é nome=valor;
+     * os intervalos são min..max (ou um só valor).
      * 
-     * FORMATO DE CUPÕES:
-     * - Lista de códigos separados por vírgula
-     * - Sem espaços
+     * OPÇÕES: semente, produtos, marcas, enviesamento, cupoes,
+     * mistura=produtos,marca (frações), cobertura, inicio, duracao (dias,
+     * intervalos), cartoes, carteira (intervalo), transacoes, cesto
+     * (intervalo), ativacao, acerto
      * 
-     * @param inventario onde adicionar os cartões
-     * @param ficheiro caminho do ficheiro
+     * @param args --gerar, pasta, opções
      */
-    private static void lerCartoes(Inventario inventario, String ficheiro) {
-        try (BufferedReader fin = new BufferedReader(new FileReader(ficheiro))) {
-            String linha = null;
-            while ((linha = fin.readLine()) != null) {
-                // Ignorar linhas vazias
-                if (linha.isBlank())
-                    continue;
-
-                // Dividir linha por tabs
-                String info[] = linha.split("\t");
-                if (info.length < 2)
-                    continue;
-
-                // Criar cartão
-                String codigo = info[0];
-                Cartao card = new Cartao(codigo);
-                
-                // Adicionar cupões ao cartão
-                for (String code : info[1].split(","))
-                    card.addCupao(inventario.getCupao(code));
-
-                // Adicionar cartão ao inventário
-                inventario.addCartao(card);
+    private static void gerar(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Uso: java menu.Main --gerar pasta [opcao=valor ...]");
+            System.exit(1);
+        }
+        try {
+            long semente = 42;
+            for (int i = 2; i < args.length; i++)
+                if (args[i].startsWith("semente="))
+                    semente = Long.parseLong(args[i].substring(8));
+            GeradorDados g = new GeradorDados(semente);
+            for (int i = 2; i < args.length; i++) {
+                String[] o = args[i].split("=", 2);
+                String v = o.length > 1 ? o[1] : "";
+                int[] iv;
+                switch (o[0]) {
+                    case "semente":      break;
+                    case "produtos":     g.setProdutos(Integer.parseInt(v)); break;
+                    case "marcas":       g.setMarcas(Integer.parseInt(v)); break;
+                    case "enviesamento": g.setEnviesamento(Double.parseDouble(v)); break;
+                    case "cupoes":       g.setCupoes(Integer.parseInt(v)); break;
+                    case "mistura":
+                        String[] f = v.split(",");
+                        if (f.length != 2)
+                            throw new IllegalArgumentException("mistura=produtos,marca");
+                        g.setMistura(Double.parseDouble(f[0]), Double.parseDouble(f[1]));
+                        break;
+                    case "cobertura":    g.setCobertura(Integer.parseInt(v)); break;
+                    case "inicio":       iv = intervalo(v); g.setInicio(iv[0], iv[1]); break;
+                    case "duracao":      iv = intervalo(v); g.setDuracao(iv[0], iv[1]); break;
+                    case "cartoes":      g.setCartoes(Long.parseLong(v)); break;
+                    case "carteira":     iv = intervalo(v); g.setCarteira(iv[0], iv[1]); break;
+                    case "transacoes":   g.setTransacoes(Long.parseLong(v)); break;
+                    case "cesto":        iv = intervalo(v); g.setCesto(iv[0], iv[1]); break;
+                    case "ativacao":     g.setAtivacao(Double.parseDouble(v)); break;
+                    case "acerto":       g.setAcerto(Double.parseDouble(v)); break;
+                    default:
+                        throw new IllegalArgumentException("Opção desconhecida: " + o[0]);
+                }
             }
-        } catch (FileNotFoundException e) {
-            System.err.println("Ficheiro dos cartões - " + ficheiro + 
-                              " - não encontrado! ");
+            long inicio = System.nanoTime();
+            g.gerar(Path.of(args[1]));
+            System.out.printf("Dados gerados em %s (%d ms)%n", args[1],
+                              (System.nanoTime() - inicio) / 1_000_000);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Opção inválida - " + e.getMessage() + "! ");
             System.exit(1);
         } catch (IOException e) {
-            System.err.println("Erro na leitura do ficheiro dos cartões - " + 
-                              ficheiro + "! ");
+            System.err.println("Erro ao gerar os dados - " + e.getMessage() + "! ");
             e.printStackTrace();
             System.exit(1);
         }
     }
+
+    /** "min..max" ou "n" (= n..n) */
+    private static int[] intervalo(String v) {
+        int i = v.indexOf("..", 1);
+        if (i < 0)
+            return new int[] { Integer.parseInt(v), Integer.parseInt(v) };
+        return new int[] { Integer.parseInt(v.substring(0, i)), Integer.parseInt(v.substring(i + 2)) };
+    }
+
+    private static String descrever(String ficheiro) {
+        if (ficheiro == null)
+            return "de dados";
+        Path f = Path.of(ficheiro).getFileName();
+        if (f == null)
+            return "de dados";
+        if (f.toString().equals(PRODUTOS))
+            return "dos produtos";
+        if (f.toString().equals(CUPOES))
+            return "dos cupões";
+        if (f.toString().equals(CARTOES))
+            return "dos cartões";
+        return "de dados";
+    }
 }
\ No newline at end of file
@@ -0,0 +1,415 @@
+package menu;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cliente.Cartao;
+import cliente.Cupao;
+import cliente.CupaoMarca;
+import cliente.CupaoProdutos;
+import comercio.Catalogo;
+import comercio.Inventario;
+import comercio.ProdutoInfo;
+import menu.CarregadorHnt.CupaoLido;
+import menu.CarregadorHnt.Pedaco;
+import menu.CarregadorHnt.ProdutoLido;
+
+/**
+ * Recarrega um ficheiro .hnt que mudou, sem reiniciar: compara-o com o
+ * inventário e aplica só as diferenças (registos novos, alterados e
+ * removidos). Normalmente é chamado pela VigiaHnt.
+ *
+ * O QUE É COMPARADO:
+ * - Produtos: com o catálogo atual (marca, modelo e preço). Todas as
+ *   diferenças vão numa só versão nova do catálogo
+ * - Cupões: com os cupões do inventário (tipo, resumo, desconto, datas,
+ *   marca ou produtos abrangidos). As versões novas substituem as antigas
+ *   também nas carteiras dos cartões
+ * - Cartões: com a versão ANTERIOR do ficheiro, e não com as carteiras,
+ *   porque os cupões já usados saem da carteira mas continuam no ficheiro.
+ *   Só os cupões acrescentados a uma linha entram na carteira e só os
+ *   retirados da linha saem dela; saldos não são tocados
+ *
+ * VENDAS A DECORRER:
+ * Continuam com a versão do catálogo que fixaram e com os cupões que já
+ * ativaram (ver Inventario.substituirCupoes()); as vendas seguintes veem
+ * o ficheiro novo inteiro.
+ *
+ * ERROS:
+ * O ficheiro é lido todo antes de se alterar o inventário: se tiver um erro
+ * (ex: preço que não é número), é lançado e nada é aplicado.
+ *
+ * NOTAS:
+ * - Os dias dos cupões são relativos ao dia do carregamento inicial (a
+ *   referência dada ao criar o recarregador), e não ao dia da recarga:
+ *   recarregar noutro dia só muda os cupões que mudaram no ficheiro
+ * - Cupões acrescentados às carteiras não vão para o diário; depois de
+ *   uma recarga convém gravar um instantâneo novo (Inventario.guardar())
+ * - A versão anterior do ficheiro dos cartões é a que existia ao criar o
+ *   recarregador; alterações feitas com o programa parado não são vistas
+ *
+ * EXEMPLO:
+ *   LocalDate hoje = LocalDate.now();
+ *   CarregadorHnt.carregar(inventario, produtos, cupoes, cartoes, hoje);
+ *   RecarregadorHnt r = new RecarregadorHnt(inventario, produtos, cupoes, cartoes, hoje);
+ *   r.recarregar(cupoes);   // "Cupões: 2 novos, 5 alterados, 1 removidos"
+ */
+public final class RecarregadorHnt {
+
+    // ========================================================================
+    // CAMPOS
+    // ========================================================================
+
+    private final Inventario inventario;
+    private final Path produtos;
+    private final Path cupoes;
+    private final Path cartoes;
+
+    /** Dia 0 dos cupões: o dia em que o inventário foi carregado */
+    private final LocalDate referencia;
+
+    /** Códigos dos cupões de cada cartão na última versão lida do ficheiro */
+    private Map<String, List<String>> cartoesLidos;
+
+    // ========================================================================
+    // CONSTRUTOR
+    // ========================================================================
+
+    /**
+     * Cria um recarregador para os ficheiros de onde o inventário foi
+     * carregado hoje (os dias dos cupões são relativos a hoje).
+     *
+     * @param inventario o inventário a manter atualizado
+     * @param produtos o ficheiro dos produtos
+     * @param cupoes o ficheiro dos cupões
+     * @param cartoes o ficheiro dos cartões
+     * @throws IOException se o ficheiro dos cartões não puder ser lido
+     */
+    public RecarregadorHnt(Inventario inventario, Path produtos, Path cupoes, Path cartoes)
+            throws IOException {
+        this(inventario, produtos, cupoes, cartoes, LocalDate.now());
+    }
+
+    /**
+     * Cria um recarregador para os ficheiros de onde o inventário foi
+     * carregado. Lê já o ficheiro dos cartões, que serve de termo de
+     * comparação para a primeira recarga dos cartões.
+     *
+     * @param inventario o inventário a manter atualizado
+     * @param produtos o ficheiro dos produtos
+     * @param cupoes o ficheiro dos cupões
+     * @param cartoes o ficheiro dos cartões
+     * @param referencia o dia a que os dias dos cupões foram somados no
+     *        carregamento (ver CarregadorHnt.carregar())
+     * @throws IOException se o ficheiro dos cartões não puder ser lido
+     */
+    public RecarregadorHnt(Inventario inventario, Path produtos, Path cupoes, Path cartoes,
+                           LocalDate referencia) throws IOException {
+        this.inventario = inventario;
+        this.referencia = referencia;
+        this.produtos = produtos.toAbsolutePath().normalize();
+        this.cupoes = cupoes.toAbsolutePath().normalize();
+        this.cartoes = cartoes.toAbsolutePath().normalize();
+        this.cartoesLidos = lerCartoes();
+    }
+
+    /**
+     * Retorna os ficheiros vigiados, pela ordem em que devem ser
+     * recarregados (produtos, cupões, cartões).
+     *
+     * @return os três ficheiros (caminhos absolutos)
+     */
+    public List<Path> getFicheiros() {
+        return List.of(produtos, cupoes, cartoes);
+    }
+
+    // ========================================================================
+    // RECARREGAR
+    // ========================================================================
+
+    /**
+     * Recarrega um dos três ficheiros.
+     *
+     * @param ficheiro o ficheiro que mudou
+     * @return o resumo das alterações
+     * @throws IOException se o ficheiro não puder ser lido
+     * @throws IllegalArgumentException se não for um dos três ficheiros
+     */
+    public Resumo recarregar(Path ficheiro) throws IOException {
+        Path f = ficheiro.toAbsolutePath().normalize();
+        if (f.equals(produtos))
+            return recarregarProdutos();
+        if (f.equals(cupoes))
+            return recarregarCupoes();
+        if (f.equals(cartoes))
+            return recarregarCartoes();
+        throw new IllegalArgumentException("Ficheiro não é de dados: " + ficheiro);
+    }
+
+    /**
+     * Recarrega o ficheiro dos produtos.
+     *
+     * @return o resumo das alterações
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public synchronized Resumo recarregarProdutos() throws IOException {
+        List<Pedaco<ProdutoLido>> pedacos = CarregadorHnt.ler(produtos, CarregadorHnt::produto);
+        verificar(pedacos);
+
+        Resumo r = new Resumo("Produtos");
+        Catalogo atual = inventario.getCatalogo();
+        // Como no carregamento, um código repetido fica com a última linha
+        Map<String, ProdutoLido> lidos = new LinkedHashMap<>();
+        for (Pedaco<ProdutoLido> p : pedacos)
+            for (ProdutoLido l : p.registos)
+                lidos.put(l.codigo, l);
+
+        List<ProdutoInfo> novos = new ArrayList<>();
+        for (ProdutoLido l : lidos.values()) {
+            ProdutoInfo p = atual.getProduto(l.codigo);
+            if (p == null) {
+                novos.add(new ProdutoInfo(l.codigo, l.marca, l.modelo, l.preco));
+                r.adicionados++;
+            } else if (!p.getMarca().equals(l.marca) || !p.getModelo().equals(l.modelo)) {
+                novos.add(new ProdutoInfo(l.codigo, l.marca, l.modelo, l.preco));
+                r.alterados++;
+            } else if (p.getPreco() != l.preco) {
+                novos.add(p.comPreco(l.preco));
+                r.alterados++;
+            }
+        }
+
+        List<String> removidos = new ArrayList<>();
+        for (ProdutoInfo p : atual.getProdutos())
+            if (!lidos.containsKey(p.getCodigoBarras()))
+                removidos.add(p.getCodigoBarras());
+        r.removidos = removidos.size();
+
+        if (!novos.isEmpty() || !removidos.isEmpty())
+            inventario.atualizarCatalogo(novos, removidos);
+        return r;
+    }
+
+    /**
+     * Recarrega o ficheiro dos cupões. Os produtos dos cupões de produtos
+     * são procurados no catálogo atual.
+     *
+     * @return o resumo das alterações
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public synchronized Resumo recarregarCupoes() throws IOException {
+        List<Pedaco<CupaoLido>> pedacos = CarregadorHnt.ler(cupoes, CarregadorHnt::cupao);
+        verificar(pedacos);
+
+        Resumo r = new Resumo("Cupões");
+        Map<String, Cupao> lidos = new LinkedHashMap<>();
+        for (Pedaco<CupaoLido> p : pedacos)
+            for (CupaoLido l : p.registos) {
+                Cupao c = CarregadorHnt.criarCupao(inventario, l, referencia, r.pendentes);
+                if (c != null)
+                    lidos.put(c.getNumero(), c);
+            }
+
+        List<Cupao> novos = new ArrayList<>();
+        for (Cupao c : lidos.values()) {
+            Cupao atual = inventario.getCupao(c.getNumero());
+            if (atual == null) {
+                novos.add(c);
+                r.adicionados++;
+            } else if (!mesmoCupao(atual, c)) {
+                novos.add(c);
+                r.alterados++;
+            }
+        }
+
+        List<String> removidos = new ArrayList<>();
+        for (Cupao c : inventario.getCupoes())
+            if (!lidos.containsKey(c.getNumero()))
+                removidos.add(c.getNumero());
+        r.removidos = removidos.size();
+
+        if (!novos.isEmpty() || !removidos.isEmpty())
+            inventario.substituirCupoes(novos, removidos);
+        return r;
+    }
+
+    /**
+     * Recarrega o ficheiro dos cartões, comparando-o com a versão lida da
+     * última vez.
+     *
+     * @return o resumo das alterações
+     * @throws IOException se o ficheiro não puder ser lido
+     */
+    public synchronized Resumo recarregarCartoes() throws IOException {
+        Map<String, List<String>> lidos = lerCartoes();
+        Resumo r = new Resumo("Cartões");
+
+        for (Map.Entry<String, List<String>> e : lidos.entrySet()) {
+            String numero = e.getKey();
+            List<String> codigos = e.getValue();
+            Cartao k = inventario.getCartao(numero);
+            if (k == null) {
+                k = new Cartao(numero);
+                for (String code : codigos)
+                    adicionarCupao(k, code, r.pendentes);
+                inventario.addCartao(k);
+                r.adicionados++;
+                continue;
+            }
+
+            List<String> antes = cartoesLidos.getOrDefault(numero, List.of());
+            if (antes.equals(codigos))
+                continue;
+            r.alterados++;
+            for (String code : codigos)
+                if (!antes.contains(code) && !temCupao(k, code))
+                    adicionarCupao(k, code, r.pendentes);
+            Map<String, Cupao> retirados = new HashMap<>();
+            for (String code : antes)
+                if (!codigos.contains(code))
+                    retirados.put(code, null);
+            if (!retirados.isEmpty())
+                k.substituirCupoes(retirados);
+        }
+
+        for (String numero : cartoesLidos.keySet()) {
+            if (lidos.containsKey(numero))
+                continue;
+            Cartao k = inventario.getCartao(numero);
+            if (k != null) {
+                inventario.removeCartao(k);
+                r.removidos++;
+            }
+        }
+
+        cartoesLidos = lidos;
+        return r;
+    }
+
+    // ========================================================================
+    // AUXILIARES
+    // ========================================================================
+
+    /**
+     * Lê o ficheiro dos cartões: números dos cupões de cada cartão.
+     */
+    private Map<String, List<String>> lerCartoes() throws IOException {
+        List<Pedaco<String[]>> pedacos = CarregadorHnt.ler(cartoes, CarregadorHnt::cartao);
+        verificar(pedacos);
+        Map<String, List<String>> lidos = new LinkedHashMap<>();
+        for (Pedaco<String[]> p : pedacos)
+            for (String[] l : p.registos)
+                lidos.put(l[0], Arrays.asList(l[1].split(",")));
+        return lidos;
+    }
+
+    /**
+     * Lança o primeiro erro encontrado na leitura, antes de se alterar o
+     * inventário.
+     */
+    private static void verificar(List<? extends Pedaco<?>> pedacos) {
+        for (Pedaco<?> p : pedacos)
+            p.lancarErro();
+    }
+
+    private void adicionarCupao(Cartao k, String code, List<String> pendentes) {
+        Cupao cupao = inventario.getCupao(code);
+        if (cupao != null)
+            k.addCupao(cupao);
+        else
+            pendentes.add("Cartão " + k.getNumero() + ": cupão " + code + " não existe");
+    }
+
+    private static boolean temCupao(Cartao k, String numero) {
+        for (Cupao c : k.getCupoes())
+            if (c.getNumero().equals(numero))
+                return true;
+        return false;
+    }
+
+    /**
+     * Verifica se dois cupões (com o mesmo número) dão o mesmo desconto
+     * nos mesmos produtos e dias.
+     */
+    private static boolean mesmoCupao(Cupao a, Cupao b) {
+        if (a.getClass() != b.getClass()
+                || !a.getResumo().equals(b.getResumo())
+                || a.getDescontoPb() != b.getDescontoPb()
+                || a.getInicioDia() != b.getInicioDia()
+                || a.getFimDia() != b.getFimDia())
+            return false;
+        if (a instanceof CupaoMarca)
+            return ((CupaoMarca) a).getMarca().equals(((CupaoMarca) b).getMarca());
+        if (a instanceof CupaoProdutos)
+            return ((CupaoProdutos) a).getCodigosAbrangidos()
+                .equals(((CupaoProdutos) b).getCodigosAbrangidos());
+        return true;
+    }
+
+    // ========================================================================
+    // RESUMO
+    // ========================================================================
+
+    /**
+     * O que mudou numa recarga de um ficheiro.
+     */
+    public static final class Resumo {
+        private final String dados;
+        private int adicionados;
+        private int alterados;
+        private int removidos;
+        private final List<String> pendentes = new ArrayList<>();
+
+        private Resumo(String dados) {
+            this.dados = dados;
+        }
+
+        /** @return número de registos novos */
+        public int getAdicionados() {
+            return adicionados;
+        }
+
+        /** @return número de registos alterados */
+        public int getAlterados() {
+            return alterados;
+        }
+
+        /** @return número de registos removidos */
+        public int getRemovidos() {
+            return removidos;
+        }
+
+        /**
+         * Retorna as referências que não existem (produtos nos cupões,
+         * cupões nos cartões), como em CarregadorHnt.carregar().
+         *
+         * @return lista não modificável das referências pendentes
+         */
+        public List<String> getPendentes() {
+            return Collections.unmodifiableList(pendentes);
+        }
+
+        /**
+         * Verifica se a recarga não mudou nada.
+         *
+         * @return true se não houve registos novos, alterados ou removidos
+         */
+        public boolean semAlteracoes() {
+            return adicionados == 0 && alterados == 0 && removidos == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d novos, %d alterados, %d removidos",
+                dados, adicionados, alterados, removidos);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package menu;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import cliente.ContextoAvaliacao;
+import comercio.Inventario;
+import comercio.PedidoCheckout;
+import comercio.ResultadoCheckout;
+
+/**
+ * Reprocessa em lote um ficheiro de transações históricas (reconciliação,
+ * teste de regras de cupões novas), com vários núcleos ao mesmo tempo.
+ *
+ * FORMATO DAS TRANSAÇÕES (uma por linha, como os .hnt):
+ *   cartao \t cupoes (separados por vírgula, pode ser vazio) \t produtos (separados por vírgula)
+ *
+ * COMO FUNCIONA:
+ * - A thread que chama lê o ficheiro em sequência (streaming: nunca tem o
+ *   ficheiro inteiro em memória) e só procura o número do cartão
+ * - Cada cartão pertence sempre à mesma PARTIÇÃO (hash do número); cada
+ *   partição tem uma fila e uma thread, que processa as transações pela
+ *   ordem do ficheiro. Assim as vendas de um cartão ficam pela ordem certa
+ *   e cartões de partições diferentes são processados em paralelo
+ * - As linhas passam para as filas em lotes (LOTE), para não pagar a
+ *   sincronização da fila por cada transação; as filas têm tamanho fixo,
+ *   por isso uma partição lenta trava a leitura em vez de encher a memória
+ * - Cada transação é processada com Inventario.processar() (ativar + usar,
+ *   as mesmas regras da caixa), com a data do contexto dado
+ *
+ * RESULTADOS (um ficheiro de texto em UTF-8):
+ *   linha \t cartao \t total \t desconto \t saldo \t cupões usados
+ *   linha \t cartao \t ERRO \t mensagem
+ * As linhas saem pela ordem em que cada partição as termina (o número da
+ * linha da transação permite ordená-las). No fim há um resumo com os
+ * totais, começado por "#".
+ *
+ * EXEMPLO:
+ *   ReprocessadorVendas.Estatisticas e = new ReprocessadorVendas(inventario)
+ *       .processar(Path.of("transacoes.hnt"), Path.of("resultados.txt"));
+ *   System.out.println(e);
+ */
+public final class ReprocessadorVendas {
+
+    /** Transações por lote passado a uma partição */
+    private static final int LOTE = 256;
+
+    /** Lotes em espera por partição */
+    private static final int FILA = 64;
+
+    /** Caracteres acumulados por partição antes de escrever nos resultados */
+    private static final int ESCRITA = 1 << 16;
+
+    /** Marca o fim das transações numa fila */
+    private static final List<Transacao> FIM = new ArrayList<>();
+
+    private final Inventario inventario;
+    private final int particoes;
+    private final ContextoAvaliacao ctx;
+
+    // ========================================================================
+    // CONSTRUTORES
+    // ========================================================================
+
+    /**
+     * Cria um reprocessador com uma partição por núcleo, com a data de hoje.
+     *
+     * @param inventario o inventário (produtos, cupões e cartões)
+     */
+    public ReprocessadorVendas(Inventario inventario) {
+        this(inventario, Runtime.getRuntime().availableProcessors(), ContextoAvaliacao.hoje());
+    }
+
+    /**
+     * Cria um reprocessador.
+     *
+     * @param inventario o inventário (produtos, cupões e cartões)
+     * @param particoes o número de partições (threads)
+     * @param ctx a data com que se verifica a validade dos cupões
+     * @throws IllegalArgumentException se particoes não for positivo
+     */
+    public ReprocessadorVendas(Inventario inventario, int particoes, ContextoAvaliacao ctx) {
+        if (particoes <= 0)
+            throw new IllegalArgumentException("Número de partições deve ser positivo");
+        this.inventario = inventario;
+        this.particoes = particoes;
+        this.ctx = ctx;
+    }
+
+    // ========================================================================
+    // PROCESSAR
+    // ========================================================================
+
+    /**
+     * Processa todas as transações de um ficheiro e escreve os resultados.
+     * Altera os cartões do inventário (saldos, cupões usados), como as
+     * vendas originais.
+     *
+     * @param transacoes o ficheiro das transações
+     * @param resultados o ficheiro dos resultados (substituído se existir)
+     * @return as estatísticas do processamento
+     * @throws IOException se algum dos ficheiros não puder ser lido/escrito
+     */
+    public Estatisticas processar(Path transacoes, Path resultados) throws IOException {
+        long inicio = System.nanoTime();
+        // Como o FileReader: charset por omissão, bytes inválidos substituídos
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                 Files.newInputStream(transacoes), Charset.defaultCharset()));
+             BufferedWriter out = Files.newBufferedWriter(resultados, StandardCharsets.UTF_8)) {
+
+            Particao[] ps = new Particao[particoes];
+            for (int i = 0; i < particoes; i++) {
+                ps[i] = new Particao(i, out);
+                ps[i].start();
+            }
+
+            try {
+                distribuir(in, ps);
+            } finally {
+                for (Particao p : ps)
+                    p.fechar();
+            }
+
+            Estatisticas e = new Estatisticas(particoes);
+            for (Particao p : ps) {
+                p.esperar();
+                if (p.falha != null)
+                    throw p.falha;
+                e.juntar(p);
+            }
+            e.nanos = System.nanoTime() - inicio;
+
+            out.write(String.format("# transações: %d, erros: %d, produtos: %d, total: %.2f, desconto: %.2f%n",
+                e.transacoes, e.erros, e.produtos, e.total / 100.0, e.desconto / 100.0));
+            return e;
+        }
+    }
+
+    /**
+     * Lê as linhas e entrega cada uma à partição do seu cartão.
+     */
+    private void distribuir(BufferedReader in, Particao[] ps) throws IOException {
+        List<List<Transacao>> lotes = new ArrayList<>(particoes);
+        for (int i = 0; i < particoes; i++)
+            lotes.add(new ArrayList<>(LOTE));
+
+        String linha;
+        long numero = 0;
+        while ((linha = in.readLine()) != null) {
+            numero++;
+            if (linha.isBlank())
+                continue;
+            int tab = linha.indexOf('\t');
+            String cartao = tab < 0 ? linha : linha.substring(0, tab);
+            int i = Math.floorMod(cartao.hashCode(), particoes);
+
+            List<Transacao> lote = lotes.get(i);
+            lote.add(new Transacao(numero, linha));
+            if (lote.size() == LOTE) {
+                ps[i].entregar(lote);
+                lotes.set(i, new ArrayList<>(LOTE));
+            }
+        }
+        for (int i = 0; i < particoes; i++)
+            if (!lotes.get(i).isEmpty())
+                ps[i].entregar(lotes.get(i));
+    }
+
+    /**
+     * Converte uma linha de transação num pedido.
+     *
+     * @throws IllegalArgumentException se a linha não tiver os três campos
+     */
+    static PedidoCheckout pedido(String linha) {
+        String[] info = linha.split("\t");
+        if (info.length < 3)
+            throw new IllegalArgumentException("Transação com formato errado");
+        return new PedidoCheckout(info[0], lista(info[1]), lista(info[2]));
+    }
+
+    private static List<String> lista(String campo) {
+        return campo.isEmpty() ? List.of() : Arrays.asList(campo.split(","));
+    }
+
+    // ========================================================================
+    // PARTIÇÕES
+    // ========================================================================
+
+    /** Uma linha do ficheiro das transações */
+    private static final class Transacao {
+        final long numero;
+        final String texto;
+
+        Transacao(long numero, String texto) {
+            this.numero = numero;
+            this.texto = texto;
+        }
+    }
+
+    /**
+     * Thread que processa, por ordem, as transações dos cartões de uma
+     * partição. Os contadores só são lidos depois de a thread terminar.
+     */
+    private final class Particao extends Thread {
+        private final BlockingQueue<List<Transacao>> fila = new ArrayBlockingQueue<>(FILA);
+        private final int indice;
+        private final BufferedWriter out;
+        private final StringBuilder buf = new StringBuilder(ESCRITA + 1024);
+
+        long transacoes, erros, produtos, total, desconto;
+        IOException falha;
+
+        Particao(int i, BufferedWriter out) {
+            super("reprocessar-" + i);
+            setDaemon(true);
+            this.indice = i;
+            this.out = out;
+        }
+
+        void entregar(List<Transacao> lote) {
+            colocar(lote);
+        }
+
+        void fechar() {
+            colocar(FIM);
+        }
+
+        private void colocar(List<Transacao> lote) {
+            boolean interrompido = false;
+            while (true) {
+                try {
+                    fila.put(lote);
+                    break;
+                } catch (InterruptedException e) {
+                    interrompido = true;
+                }
+            }
+            if (interrompido)
+                Thread.currentThread().interrupt();
+        }
+
+        void esperar() {
+            boolean interrompido = false;
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    interrompido = true;
+                }
+            }
+            if (interrompido)
+                Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                List<Transacao> lote;
+                try {
+                    lote = fila.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (lote == FIM)
+                    break;
+                for (Transacao t : lote)
+                    processar(t);
+                if (buf.length() >= ESCRITA)
+                    escrever();
+            }
+            escrever();
+        }
+
+        private void processar(Transacao t) {
+            transacoes++;
+            PedidoCheckout p = null;
+            try {
+                p = pedido(t.texto);
+                ResultadoCheckout r = inventario.processar(p, ctx);
+                produtos += p.getProdutos().size();
+                total += r.getTotal();
+                desconto += r.getDesconto();
+                buf.append(t.numero).append('\t').append(r.getCartao())
+                   .append('\t').append(r.getTotal())
+                   .append('\t').append(r.getDesconto())
+                   .append('\t').append(r.getSaldo())
+                   .append('\t').append(String.join(",", r.getCupoesUsados()))
+                   .append('\n');
+            } catch (RuntimeException e) {
+                erros++;
+                String cartao = p != null ? p.getCartao() : t.texto.split("\t", 2)[0];
+                buf.append(t.numero).append('\t').append(cartao)
+                   .append("\tERRO\t").append(e.getMessage() == null ? e.toString() : e.getMessage())
+                   .append('\n');
+            }
+        }
+
+        /** Escreve os resultados acumulados (um bloco de cada vez) */
+        private void escrever() {
+            if (buf.length() == 0 || falha != null) {
+                buf.setLength(0);
+                return;
+            }
+            try {
+                synchronized (out) {
+                    out.append(buf);
+                }
+            } catch (IOException e) {
+                // Continuar a esvaziar a fila para a leitura não ficar parada
+                falha = e;
+            }
+            buf.setLength(0);
+        }
+    }
+
+    // ========================================================================
+    // ESTATÍSTICAS
+    // ========================================================================
+
+    /**
+     * Contagens e débito de um reprocessamento.
+     */
+    public static final class Estatisticas {
+        private final long[] porParticao;
+        private long transacoes, erros, produtos, total, desconto, nanos;
+
+        private Estatisticas(int particoes) {
+            porParticao = new long[particoes];
+        }
+
+        private void juntar(Particao p) {
+            porParticao[p.indice] = p.transacoes;
+            transacoes += p.transacoes;
+            erros += p.erros;
+            produtos += p.produtos;
+            total += p.total;
+            desconto += p.desconto;
+        }
+
+        /** @return número de transações lidas */
+        public long getTransacoes() {
+            return transacoes;
+        }
+
+        /** @return número de transações que falharam */
+        public long getErros() {
+            return erros;
+        }
+
+        /** @return número de produtos passados nas transações que correram bem */
+        public long getProdutos() {
+            return produtos;
+        }
+
+        /** @return soma dos totais das vendas, em cêntimos */
+        public long getTotal() {
+            return total;
+        }
+
+        /** @return soma dos descontos acumulados, em cêntimos */
+        public long getDesconto() {
+            return desconto;
+        }
+
+        /** @return tempo total, em nanossegundos */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /** @return transações por segundo */
+        public double getTransacoesPorSegundo() {
+            return nanos == 0 ? 0 : transacoes * 1e9 / nanos;
+        }
+
+        /**
+         * Retorna quantas transações cada partição processou. Uma partição
+         * com muito mais do que as outras (um cartão com muitas vendas)
+         * limita o paralelismo.
+         *
+         * @return cópia das contagens, por partição
+         */
+        public long[] getPorParticao() {
+            return porParticao.clone();
+        }
+
+        @Override
+        public String toString() {
+            long max = 0;
+            for (long n : porParticao)
+                max = Math.max(max, n);
+            double media = (double) transacoes / porParticao.length;
+            return String.format(
+                "Transações: %d (%d erros), produtos: %d%n" +
+                "Total: %.2f, desconto: %.2f%n" +
+                "Tempo: %.3f s, %.0f transações/s, %.0f produtos/s%n" +
+                "Partições: %d, maior/média: %.2f",
+                transacoes, erros, produtos, total / 100.0, desconto / 100.0,
+                nanos / 1e9, getTransacoesPorSegundo(), nanos == 0 ? 0 : produtos * 1e9 / nanos,
+                porParticao.length, media == 0 ? 0 : max / media);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package menu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import comercio.Inventario;
+import comercio.PedidoCheckout;
+import comercio.ResultadoCheckout;
+import util.Histograma;
+
+/**
+ * Servidor HTTP local de checkout: as caixas enviam o pedido (cartão,
+ * cupões a ativar, produtos) e recebem os descontos e o saldo novo, sem
+ * terem o Inventario em memória. Só usa o JDK (com.sun.net.httpserver).
+ *
+ * PEDIDOS:
+ *   POST /checkout    corpo: cartao \t cupoes \t produtos (como as linhas
+ *                     do ReprocessadorVendas)
+ *     200: OK \t total \t desconto \t saldo \t cupões usados
+ *     400: ERRO \t mensagem (cartão, cupão ou produto que não existe, ...)
+ *     500: ERRO \t mensagem (falha do servidor, ex: diário sem gravar; a
+ *          venda não ficou feita)
+ *     503: servidor saturado (tentar outra vez; ver Retry-After)
+ *   GET /estatisticas  pedidos, rejeitados e percentis da latência
+ *
+ * THREADS:
+ * Cada pedido corre numa thread virtual, se a JVM as tiver (Java 21+):
+ * milhares de caixas à espera de rede não ocupam threads do sistema. Em
+ * JVMs mais antigas usa um conjunto de threads normais com o tamanho do
+ * limite de pedidos em curso.
+ *
+ * CONTRAPRESSÃO:
+ * No máximo maxEmCurso checkouts correm ao mesmo tempo (Semaphore). Um
+ * pedido que chega com o servidor cheio recebe logo 503, em vez de ficar
+ * numa fila a aumentar a latência de todos. Sem threads virtuais, quando
+ * as threads estão todas ocupadas o pedido passa para uma thread que só
+ * responde 503 (ver recusar()): a thread que aceita as ligações nunca fica
+ * presa num checkout.
+ *
+ * LATÊNCIA:
+ * O tempo de cada checkout (ler o pedido, processar, responder) é contado
+ * num Histograma; /estatisticas mostra p50, p90, p99, p99.9 e o máximo.
+ *
+ * EXEMPLO:
+ *   ServidorCheckout s = ServidorCheckout.iniciar(inventario, 8080, 256);
+ *   // curl --data-binary $'10101\t1001\t125-008,206-012' localhost:8080/checkout
+ *   s.close();
+ */
+public final class ServidorCheckout implements Closeable {
+
+    /** Ligações à espera de serem aceites (picos de muitas caixas a ligar) */
+    private static final int BACKLOG = 1024;
+
+    /** Segundos que o cliente deve esperar depois de um 503 */
+    private static final String REPETIR_APOS = "1";
+
+    private final Inventario inventario;
+    private final HttpServer servidor;
+    private final ExecutorService executor;
+    /** Responde 503 aos pedidos que o executor recusa (só sem threads virtuais) */
+    private final ExecutorService recusas = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkout-recusas");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Marca a thread das recusas enquanto trata um pedido recusado */
+    private final ThreadLocal<Boolean> aRecusar = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final Semaphore emCurso;
+    private final int maxEmCurso;
+
+    private final Histograma latencia = new Histograma();
+    private final LongAdder pedidos = new LongAdder();
+    private final LongAdder rejeitados = new LongAdder();
+    private final LongAdder erros = new LongAdder();
+
+    // ========================================================================
+    // ARRANQUE E FECHO
+    // ========================================================================
+
+    private ServidorCheckout(Inventario inventario, InetSocketAddress endereco, int maxEmCurso)
+            throws IOException {
+        this.inventario = inventario;
+        this.maxEmCurso = maxEmCurso;
+        this.emCurso = new Semaphore(maxEmCurso);
+        this.executor = criarExecutor(maxEmCurso);
+        this.servidor = HttpServer.create(endereco, BACKLOG);
+        servidor.createContext("/checkout", this::checkout);
+        servidor.createContext("/estatisticas", this::estatisticas);
+        servidor.setExecutor(executor);
+    }
+
+    /**
+     * Cria e arranca um servidor em localhost.
+     *
+     * @param inventario o inventário a usar
+     * @param porta a porta (0 = escolhida pelo sistema, ver getPorta())
+     * @param maxEmCurso número máximo de checkouts ao mesmo tempo
+     * @return o servidor a correr
+     * @throws IOException se a porta não puder ser aberta
+     * @throws IllegalArgumentException se maxEmCurso não for positivo
+     */
+    public static ServidorCheckout iniciar(Inventario inventario, int porta, int maxEmCurso)
+            throws IOException {
+        if (maxEmCurso <= 0)
+            throw new IllegalArgumentException("Número máximo de pedidos deve ser positivo");
+        ServidorCheckout s = new ServidorCheckout(inventario,
+            new InetSocketAddress("localhost", porta), maxEmCurso);
+        s.servidor.start();
+        return s;
+    }
+
+    /**
+     * Threads virtuais, se a JVM as tiver; senão um conjunto de threads
+     * com o tamanho do limite, sem fila (com todas ocupadas, o pedido vai
+     * para recusar()).
+     */
+    private ExecutorService criarExecutor(int maxEmCurso) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Java < 21
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(0, maxEmCurso, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), (troca, p) -> recusar(troca));
+        pool.setThreadFactory(r -> {
+            Thread t = new Thread(r, "checkout");
+            t.setDaemon(true);
+            return t;
+        });
+        return pool;
+    }
+
+    /**
+     * Trata um pedido que o executor recusou na thread das recusas, onde
+     * checkout() responde logo 503 sem o processar.
+     *
+     * @param troca a tarefa do HttpServer para o pedido
+     * @throws java.util.concurrent.RejectedExecutionException se o
+     *         servidor estiver a fechar
+     */
+    private void recusar(Runnable troca) {
+        recusas.execute(() -> {
+            aRecusar.set(Boolean.TRUE);
+            try {
+                troca.run();
+            } finally {
+                aRecusar.remove();
+            }
+        });
+    }
+
+    /**
+     * Retorna a porta onde o servidor está à escuta.
+     *
+     * @return a porta
+     */
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Pára o servidor, esperando até 1 segundo pelos pedidos em curso.
+     */
+    @Override
+    public void close() {
+        servidor.stop(1);
+        executor.shutdown();
+        recusas.shutdown();
+    }
+
+    // ========================================================================
+    // PEDIDOS
+    // ========================================================================
+
+    private void checkout(HttpExchange troca) throws IOException {
+        long inicio = System.nanoTime();
+        try (troca) {
+            if (!"POST".equals(troca.getRequestMethod())) {
+                troca.getResponseHeaders().set("Allow", "POST");
+                responder(troca, 405, "ERRO\tUsar POST");
+                return;
+            }
+            if (aRecusar.get() || !emCurso.tryAcquire()) {
+                rejeitados.increment();
+                troca.getResponseHeaders().set("Retry-After", REPETIR_APOS);
+                responder(troca, 503, "ERRO\tServidor saturado");
+                return;
+            }
+            try {
+                pedidos.increment();
+                String corpo = ler(troca.getRequestBody());
+                ResultadoCheckout r;
+                try {
+                    PedidoCheckout p = ReprocessadorVendas.pedido(corpo.strip());
+                    r = inventario.processar(p);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    erros.increment();
+                    responder(troca, 400, "ERRO\t" + e.getMessage());
+                    return;
+                } catch (RuntimeException e) {
+                    erros.increment();
+                    responder(troca, 500, "ERRO\t" + (e.getMessage() == null ? e.toString() : e.getMessage()));
+                    return;
+                }
+                responder(troca, 200, "OK\t" + r.getTotal() + "\t" + r.getDesconto() + "\t"
+                    + r.getSaldo() + "\t" + String.join(",", r.getCupoesUsados()));
+            } finally {
+                emCurso.release();
+                latencia.registar(System.nanoTime() - inicio);
+            }
+        }
+    }
+
+    private void estatisticas(HttpExchange troca) throws IOException {
+        try (troca) {
+            responder(troca, 200, getEstatisticas());
+        }
+    }
+
+    private static String ler(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void responder(HttpExchange troca, int codigo, String texto) throws IOException {
+        byte[] b = (texto + "\n").getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        troca.sendResponseHeaders(codigo, b.length);
+        try (OutputStream out = troca.getResponseBody()) {
+            out.write(b);
+        }
+    }
+
+    // ========================================================================
+    // ESTATÍSTICAS
+    // ========================================================================
+
+    /**
+     * Retorna o histograma das latências dos checkouts (em nanossegundos).
+     *
+     * @return o histograma
+     */
+    public Histograma getLatencia() {
+        return latencia;
+    }
+
+    /**
+     * Retorna o número de checkouts rejeitados por o servidor estar cheio.
+     *
+     * @return o número de 503
+     */
+    public long getRejeitados() {
+        return rejeitados.sum();
+    }
+
+    /**
+     * Retorna um resumo dos pedidos e das latências, em texto.
+     *
+     * @return o resumo
+     */
+    public String getEstatisticas() {
+        return String.format(
+            "pedidos\t%d%nerros\t%d%nrejeitados\t%d%nem_curso\t%d%n" +
+            "p50_us\t%d%np90_us\t%d%np99_us\t%d%np999_us\t%d%nmax_us\t%d",
+            pedidos.sum(), erros.sum(), rejeitados.sum(), maxEmCurso - emCurso.availablePermits(),
+            latencia.percentil(0.5) / 1000, latencia.percentil(0.9) / 1000,
+            latencia.percentil(0.99) / 1000, latencia.percentil(0.999) / 1000,
+            latencia.getMaximo() / 1000);
+    }
+}
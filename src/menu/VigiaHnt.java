@@ -0,0 +1,151 @@
+package menu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Vigia os ficheiros .hnt e recarrega-os (ver RecarregadorHnt) quando
+ * mudam, numa thread própria.
+ *
+ * COMO FUNCIONA:
+ * - Usa um WatchService nas pastas dos ficheiros (criar e modificar, para
+ *   apanhar tanto quem reescreve o ficheiro como quem o substitui)
+ * - Um editor costuma gerar vários eventos para a mesma gravação: a
+ *   recarga só é feita quando passa PAUSA_MS sem eventos novos
+ * - Se mudaram vários ficheiros, são recarregados pela ordem produtos,
+ *   cupões, cartões (os cupões precisam dos produtos, os cartões dos cupões)
+ * - Um erro numa recarga é escrito em System.err e o inventário fica como
+ *   estava; a vigia continua
+ *
+ * EXEMPLO:
+ *   VigiaHnt vigia = new VigiaHnt(recarregador, System.out::println);
+ *   ...
+ *   vigia.close();
+ */
+public final class VigiaHnt implements Closeable {
+
+    /** Tempo sem eventos até se considerar que a gravação acabou */
+    private static final long PAUSA_MS = 200;
+
+    private final RecarregadorHnt recarregador;
+    private final Consumer<RecarregadorHnt.Resumo> aoRecarregar;
+    private final WatchService servico;
+    private final Thread thread;
+
+    /**
+     * Começa a vigiar os ficheiros do recarregador.
+     *
+     * @param recarregador quem aplica as alterações
+     * @param aoRecarregar chamado com o resumo de cada recarga que mudou algo
+     * @throws IOException se as pastas não puderem ser vigiadas
+     */
+    public VigiaHnt(RecarregadorHnt recarregador, Consumer<RecarregadorHnt.Resumo> aoRecarregar)
+            throws IOException {
+        this.recarregador = recarregador;
+        this.aoRecarregar = aoRecarregar;
+
+        Path primeiro = recarregador.getFicheiros().get(0);
+        this.servico = primeiro.getFileSystem().newWatchService();
+        try {
+            Set<Path> pastas = new HashSet<>();
+            for (Path f : recarregador.getFicheiros())
+                if (pastas.add(f.getParent()))
+                    f.getParent().register(servico,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            servico.close();
+            throw e;
+        }
+
+        this.thread = new Thread(this::vigiar, "vigia-hnt");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // ========================================================================
+    // THREAD DA VIGIA
+    // ========================================================================
+
+    private void vigiar() {
+        try {
+            while (true) {
+                Set<Path> mudaram = new HashSet<>();
+                WatchKey chave = servico.take();
+                // Juntar os eventos até haver uma pausa
+                while (chave != null) {
+                    recolher(chave, mudaram);
+                    chave = servico.poll(PAUSA_MS, TimeUnit.MILLISECONDS);
+                }
+
+                // Pela ordem dos ficheiros, não dos eventos
+                Set<Path> porOrdem = new LinkedHashSet<>(recarregador.getFicheiros());
+                porOrdem.retainAll(mudaram);
+                for (Path f : porOrdem)
+                    recarregar(f);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Vigia fechada
+        }
+    }
+
+    /**
+     * Junta os ficheiros referidos pelos eventos de uma chave. Se houve
+     * eventos perdidos (OVERFLOW), todos os ficheiros contam como mudados.
+     */
+    private void recolher(WatchKey chave, Set<Path> mudaram) {
+        Path pasta = (Path) chave.watchable();
+        for (WatchEvent<?> evento : chave.pollEvents()) {
+            if (evento.kind() == StandardWatchEventKinds.OVERFLOW)
+                mudaram.addAll(recarregador.getFicheiros());
+            else
+                mudaram.add(pasta.resolve((Path) evento.context()));
+        }
+        chave.reset();
+    }
+
+    private void recarregar(Path ficheiro) {
+        try {
+            RecarregadorHnt.Resumo r = recarregador.recarregar(ficheiro);
+            if (!r.semAlteracoes())
+                aoRecarregar.accept(r);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro ao recarregar " + ficheiro + " - " + e.getMessage());
+        }
+    }
+
+    // ========================================================================
+    // FECHO
+    // ========================================================================
+
+    /**
+     * Deixa de vigiar os ficheiros. Uma recarga a decorrer termina antes de
+     * a thread parar.
+     *
+     * @throws IOException se o WatchService não puder ser fechado
+     */
+    @Override
+    public void close() throws IOException {
+        servico.close();
+        boolean interrompido = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrompido = true;
+            }
+        }
+        if (interrompido)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,130 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latências (ou de qualquer valor não negativo), que pode
+ * ser atualizado por muitas threads ao mesmo tempo sem locks.
+ *
+ * COMO FUNCIONA:
+ * Os valores são contados em baldes de tamanho crescente: cada potência
+ * de 2 é dividida em SUBBALDES baldes iguais. O erro de um percentil é
+ * no máximo 1/SUBBALDES (~6%) do valor, seja ele 3 µs ou 3 s, e o
+ * histograma tem sempre o mesmo tamanho (sem alocar nada ao registar).
+ * registar() é um incremento atómico num AtomicLongArray.
+ *
+ * EXEMPLO:
+ *   Histograma h = new Histograma();
+ *   h.registar(System.nanoTime() - inicio);
+ *   h.percentil(0.99);   // p99, em nanossegundos
+ */
+public final class Histograma {
+
+    /** Bits usados para dividir cada potência de 2 */
+    private static final int BITS = 4;
+
+    /** Baldes por potência de 2 */
+    private static final int SUBBALDES = 1 << BITS;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(64 * SUBBALDES);
+    private final AtomicLong maximo = new AtomicLong();
+
+    // ========================================================================
+    // REGISTAR
+    // ========================================================================
+
+    /**
+     * Conta um valor.
+     *
+     * @param valor o valor (negativos contam como 0)
+     */
+    public void registar(long valor) {
+        long v = Math.max(0, valor);
+        baldes.getAndIncrement(balde(v));
+        long m = maximo.get();
+        while (v > m && !maximo.compareAndSet(m, v))
+            m = maximo.get();
+    }
+
+    private static int balde(long v) {
+        if (v < SUBBALDES)
+            return (int) v;
+        int expoente = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (expoente - BITS)) & (SUBBALDES - 1);
+        return (expoente - BITS + 1) * SUBBALDES + sub;
+    }
+
+    /** Maior valor que cai no balde i */
+    private static long limite(int i) {
+        if (i < SUBBALDES)
+            return i;
+        int expoente = i / SUBBALDES + BITS - 1;
+        long sub = i % SUBBALDES;
+        long inicio = (1L << expoente) + (sub << (expoente - BITS));
+        return inicio + (1L << (expoente - BITS)) - 1;
+    }
+
+    // ========================================================================
+    // CONSULTAS
+    // ========================================================================
+
+    /**
+     * Retorna o número de valores contados.
+     *
+     * @return o número de valores
+     */
+    public long getContagem() {
+        long n = 0;
+        for (int i = 0; i < baldes.length(); i++)
+            n += baldes.get(i);
+        return n;
+    }
+
+    /**
+     * Retorna o maior valor contado.
+     *
+     * @return o máximo (0 se não houver valores)
+     */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Retorna um percentil (aproximado por excesso ao limite do balde).
+     * Com registos a decorrer, o resultado reflete um momento aproximado.
+     *
+     * @param q o quantil, entre 0 e 1 (0.5 = mediana, 0.99 = p99)
+     * @return o valor abaixo do qual fica a fração q dos valores (0 se vazio)
+     * @throws IllegalArgumentException se q não estiver entre 0 e 1
+     */
+    public long percentil(double q) {
+        Validator.requireInsideRange(q, 0.0, 1.0);
+        long[] copia = new long[baldes.length()];
+        long n = 0;
+        for (int i = 0; i < copia.length; i++) {
+            copia[i] = baldes.get(i);
+            n += copia[i];
+        }
+        if (n == 0)
+            return 0;
+
+        long alvo = Math.max(1, (long) Math.ceil(q * n));
+        long acumulado = 0;
+        for (int i = 0; i < copia.length; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo)
+                return Math.min(limite(i), getMaximo());
+        }
+        return getMaximo();
+    }
+
+    /**
+     * Apaga todos os valores contados.
+     */
+    public void limpar() {
+        for (int i = 0; i < baldes.length(); i++)
+            baldes.set(i, 0);
+        maximo.set(0);
+    }
+}
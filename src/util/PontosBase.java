@@ -0,0 +1,93 @@
+package util;
+
+/**
+ * Aritmética de descontos em pontos base (basis points), sem vírgula flutuante.
+ *
+ * Um ponto base é 0,01%, por isso 100% = 10 000 pontos base:
+ * - 15%  = 1500
+ * - 10%  = 1000
+ * - 12,5% = 1250
+ *
+ * O valor do desconto é sempre calculado com multiplicação e divisão de
+ * long, com UM modo de arredondamento: por defeito (truncar os cêntimos),
+ * tal como o saldo sempre foi acumulado. Assim o saldo do cartão, o
+ * talão e os totais da venda dão sempre o mesmo valor.
+ *
+ * EXEMPLO:
+ *   PontosBase.aplicar(231, 1500)  // 34 cêntimos (34,65 truncado)
+ */
+public final class PontosBase {
+
+    /** Número de pontos base em 100% */
+    public static final int ESCALA = 10_000;
+
+    private PontosBase() {
+    }
+
+    /**
+     * Converte uma fração (0.0 a 1.0) em pontos base, arredondando ao ponto
+     * base mais próximo. Só deve ser usado na fronteira (construtores, leitura
+     * de dados), nunca no cálculo dos descontos.
+     *
+     * @param fracao o desconto como fração (0.15 = 15%)
+     * @return o desconto em pontos base
+     * @throws IllegalArgumentException se a fração não estiver entre 0 e 1
+     */
+    public static int deFracao(float fracao) {
+        Validator.requireInsideRange(fracao, 0f, 1f);
+        return Math.round(fracao * ESCALA);
+    }
+
+    /**
+     * Converte uma percentagem inteira em pontos base.
+     *
+     * @param percentagem a percentagem (15 = 15%)
+     * @return o desconto em pontos base
+     * @throws IllegalArgumentException se não estiver entre 0 e 100
+     */
+    public static int dePercentagem(int percentagem) {
+        return Validator.requireInsideRange(percentagem, 0, 100) * (ESCALA / 100);
+    }
+
+    /**
+     * Converte pontos base numa fração (0.0 a 1.0). Apenas para compatibilidade
+     * e apresentação.
+     *
+     * @param pontosBase o desconto em pontos base
+     * @return o desconto como fração
+     */
+    public static float paraFracao(int pontosBase) {
+        return pontosBase / (float) ESCALA;
+    }
+
+    /**
+     * Calcula o valor do desconto sobre um preço, arredondado por defeito ao
+     * cêntimo.
+     *
+     * @param precoCentimos o preço em cêntimos (não negativo)
+     * @param pontosBase    o desconto em pontos base
+     * @return o valor do desconto em cêntimos
+     * @throws ArithmeticException se o cálculo exceder a gama de long
+     */
+    public static long aplicar(long precoCentimos, int pontosBase) {
+        return Math.multiplyExact(precoCentimos, pontosBase) / ESCALA;
+    }
+
+    /**
+     * Formata um desconto como percentagem, sem casas decimais desnecessárias.
+     *
+     * EXEMPLOS: 1500 → "15%", 1250 → "12.5%", 1234 → "12.34%"
+     *
+     * @param pontosBase o desconto em pontos base
+     * @return a percentagem formatada
+     */
+    public static String formatarPercentagem(int pontosBase) {
+        int inteiro = pontosBase / 100;
+        int resto = pontosBase % 100;
+        if (resto == 0)
+            return inteiro + "%";
+        if (resto % 10 == 0)
+            return inteiro + "." + (resto / 10) + "%";
+        return String.format("%d.%02d%%", inteiro, resto);
+    }
+}